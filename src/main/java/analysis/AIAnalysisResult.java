@@ -3,9 +3,33 @@ package analysis;
 class AIAnalysisResult {
     final String analysis;
     final double relevanceScore;
+    // Timings of a streamed analysis, or null
+    final GenerationResult generation;
+    // No answer from the model, so scored by rules only; never cached
+    final boolean failed;
 
     AIAnalysisResult(String analysis, double relevanceScore) {
+        this(analysis, relevanceScore, null);
+    }
+
+    AIAnalysisResult(String analysis, double relevanceScore, GenerationResult generation) {
+        this(analysis, relevanceScore, generation, false);
+    }
+
+    private AIAnalysisResult(String analysis, double relevanceScore, GenerationResult generation, boolean failed) {
         this.analysis = analysis;
         this.relevanceScore = relevanceScore;
+        this.generation = generation;
+        this.failed = failed;
+    }
+
+    static AIAnalysisResult ruleOnly(String analysis, double relevanceScore) {
+        return new AIAnalysisResult(analysis, relevanceScore, null, true);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (relevance %.2f%s)", analysis, relevanceScore,
+            generation != null ? "; " + generation : "");
     }
 }
\ No newline at end of file
@@ -1,10 +1,25 @@
 package analysis;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import utils.Threads;
+
 class AIAnalyzer {
     private final OllamaClient ollamaClient;
+    // Scores the comments the model cannot answer for
+    private final CodeQualityAnalyzer ruleAnalyzer = new CodeQualityAnalyzer(false);
+    // Sends the requests of comments a packed response missed, which may wait for a permit
+    private final ExecutorService fallbackExecutor = Threads.newCachedExecutor("ai-fallback");
+    private PromptPacker packer;
 
     AIAnalyzer() {
-        this.ollamaClient = new OllamaClient("http://localhost:11434");
+        this(new OllamaClient());
+    }
+
+    AIAnalyzer(OllamaClient ollamaClient) {
+        this.ollamaClient = ollamaClient;
     }
 
     AIAnalysisResult analyzeComment(CommentLocation comment) {
@@ -12,11 +27,102 @@ class AIAnalyzer {
             String aiResponse = ollamaClient.generateAnalysis(comment.getContent());
             double relevanceScore = calculateRelevanceScore(aiResponse);
             return new AIAnalysisResult(aiResponse, relevanceScore);
-        } catch (Exception e) {
-            return new AIAnalysisResult("AI analysis failed: " + e.getMessage(), 0.0);
+        } catch (OllamaException e) {
+            return ruleOnly(comment, e);
         }
     }
 
+    // Blocks only while the client has no free permit; never completes exceptionally
+    CompletableFuture<AIAnalysisResult> analyzeCommentAsync(CommentLocation comment) {
+        return ollamaClient.generateAnalysisAsync(comment.getContent())
+            .thenApply(aiResponse -> new AIAnalysisResult(aiResponse, calculateRelevanceScore(aiResponse)))
+            .exceptionally(e -> ruleOnly(comment, e));
+    }
+
+    // Streams the analysis to the listener as it is generated; without an answer, the
+    // rule-only result is passed on instead, and onComplete gets no generation
+    CompletableFuture<AIAnalysisResult> analyzeCommentStreaming(CommentLocation comment, AIStreamListener listener) {
+        return ollamaClient.streamAnalysisAsync(comment.getContent(), text -> listener.onText(comment, text))
+            .handle((generation, e) -> {
+                if (e != null) {
+                    AIAnalysisResult result = ruleOnly(comment, e);
+                    listener.onText(comment, result.analysis);
+                    listener.onComplete(comment, null);
+                    return result;
+                }
+                listener.onComplete(comment, generation);
+                return new AIAnalysisResult(generation.getText(), calculateRelevanceScore(generation.getText()), generation);
+            });
+    }
+
+    // One result per comment, in order. Comments sharing a prompt are answered together; a
+    // comment alone, or one the packed response has no answer for, gets a request of its own,
+    // streamed to the listener if there is one.
+    List<CompletableFuture<AIAnalysisResult>> analyzeCommentsPacked(List<CommentLocation> comments, AIStreamListener listener) {
+        PromptPacker packer = packer();
+        List<CompletableFuture<AIAnalysisResult>> results = new ArrayList<>(comments.size());
+        for (List<CommentLocation> pack : packer.pack(comments)) {
+            if (pack.size() == 1) {
+                results.add(analyzeSingle(pack.get(0), listener));
+                continue;
+            }
+            List<String> texts = pack.stream().map(CommentLocation::getContent).toList();
+            CompletableFuture<List<String>> response = ollamaClient.generatePackedAnalysisAsync(texts, packer.getContextTokens())
+                .handle((analyses, e) -> {
+                    if (e != null && OllamaException.of(e).getKind() != OllamaException.Kind.BAD_RESPONSE) {
+                        // Not the model's fault; the requests of their own will tell
+                        return null;
+                    }
+                    if (e == null && !analyses.contains(null)) {
+                        packer.answered(pack.size());
+                    } else {
+                        packer.malformed(pack.size());
+                    }
+                    return analyses;
+                });
+            for (int i = 0; i < pack.size(); i++) {
+                CommentLocation comment = pack.get(i);
+                int index = i;
+                results.add(response.thenComposeAsync(analyses -> {
+                    String analysis = analyses != null ? analyses.get(index) : null;
+                    return analysis != null
+                        ? CompletableFuture.completedFuture(new AIAnalysisResult(analysis, calculateRelevanceScore(analysis)))
+                        : analyzeSingle(comment, listener);
+                }, fallbackExecutor));
+            }
+        }
+        return results;
+    }
+
+    private CompletableFuture<AIAnalysisResult> analyzeSingle(CommentLocation comment, AIStreamListener listener) {
+        return listener != null ? analyzeCommentStreaming(comment, listener) : analyzeCommentAsync(comment);
+    }
+
+    // The packs analyzeCommentsPacked would send the comments in
+    List<List<CommentLocation>> pack(List<CommentLocation> comments) {
+        return packer().pack(comments);
+    }
+
+    // Sized on first use, from the model's context window
+    private synchronized PromptPacker packer() {
+        if (packer == null) {
+            packer = new PromptPacker(ollamaClient.getContextTokens());
+        }
+        return packer;
+    }
+
+    OllamaClient getClient() {
+        return ollamaClient;
+    }
+
+    // What the rules make of a comment the model gave no answer for
+    private AIAnalysisResult ruleOnly(CommentLocation comment, Throwable error) {
+        CodeQualityAnalyzer.QualityAnalysisResult rules = ruleAnalyzer.analyzeCommentQuality(comment);
+        return AIAnalysisResult.ruleOnly(String.format("No AI analysis (%s). Rule-based score %.1f/5: %s",
+            OllamaException.of(error).getMessage(), rules.getScore(), rules.getDetails()),
+            Math.min(rules.getScore() / 5.0, 1.0));
+    }
+
     private double calculateRelevanceScore(String aiResponse) {
         // Simple scoring based on response length and content
         double score = 0.5;
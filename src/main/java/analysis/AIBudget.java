@@ -0,0 +1,123 @@
+package analysis;
+
+import java.time.Duration;
+
+/**
+ * Limits on how much AI analysis one run may use: a time limit, a number of requests sent to
+ * the model and an estimated number of tokens.
+ *
+ * Only comments the model is asked about count; results from memory or the result store are
+ * free. A request is one prompt, which holds several comments when prompts are packed, and
+ * its tokens are estimated before sending for the prompt, the reasoning and the answers. No
+ * comment is sent whose prompt would go over a limit, and the requests already sent still
+ * finish.
+ *
+ * The budget from {@link #fromSystemProperties()} reads {@code -Dcommentanalyzer.ai.minutes},
+ * {@code -Dcommentanalyzer.ai.requests} and {@code -Dcommentanalyzer.ai.tokens}, and limits
+ * requests to {@link #DEFAULT_MAX_REQUESTS} if none of them is set.
+ */
+public final class AIBudget {
+    public enum Limit {
+        TIME("time limit"),
+        REQUESTS("request limit"),
+        TOKENS("token limit");
+
+        private final String description;
+        Limit(String description) { this.description = description; }
+        public String getDescription() { return description; }
+    }
+
+    public static final String MINUTES_PROPERTY = "commentanalyzer.ai.minutes";
+    public static final String REQUESTS_PROPERTY = "commentanalyzer.ai.requests";
+    public static final String TOKENS_PROPERTY = "commentanalyzer.ai.tokens";
+    public static final int DEFAULT_MAX_REQUESTS = 200;
+    private static final AIBudget UNLIMITED = new AIBudget(null, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    // Null if there is none
+    private final Duration timeLimit;
+    private final int maxRequests;
+    private final long maxTokens;
+
+    private AIBudget(Duration timeLimit, int maxRequests, long maxTokens) {
+        this.timeLimit = timeLimit;
+        this.maxRequests = maxRequests;
+        this.maxTokens = maxTokens;
+    }
+
+    public static AIBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    public static AIBudget fromSystemProperties() {
+        AIBudget budget = UNLIMITED;
+        String minutes = System.getProperty(MINUTES_PROPERTY);
+        if (minutes != null && !minutes.isBlank()) {
+            budget = budget.withTimeLimit(Duration.ofSeconds(Math.round(Double.parseDouble(minutes.trim()) * 60)));
+        }
+        String requests = System.getProperty(REQUESTS_PROPERTY);
+        if (requests != null && !requests.isBlank()) {
+            budget = budget.withMaxRequests(Integer.parseInt(requests.trim()));
+        }
+        String tokens = System.getProperty(TOKENS_PROPERTY);
+        if (tokens != null && !tokens.isBlank()) {
+            budget = budget.withMaxTokens(Long.parseLong(tokens.trim()));
+        }
+        return budget == UNLIMITED ? budget.withMaxRequests(DEFAULT_MAX_REQUESTS) : budget;
+    }
+
+    public AIBudget withTimeLimit(Duration timeLimit) {
+        if (timeLimit.isNegative()) {
+            throw new IllegalArgumentException("Time limit must not be negative: " + timeLimit);
+        }
+        return new AIBudget(timeLimit, maxRequests, maxTokens);
+    }
+
+    public AIBudget withMaxRequests(int maxRequests) {
+        if (maxRequests < 0) {
+            throw new IllegalArgumentException("maxRequests must not be negative: " + maxRequests);
+        }
+        return new AIBudget(timeLimit, maxRequests, maxTokens);
+    }
+
+    public AIBudget withMaxTokens(long maxTokens) {
+        if (maxTokens < 0) {
+            throw new IllegalArgumentException("maxTokens must not be negative: " + maxTokens);
+        }
+        return new AIBudget(timeLimit, maxRequests, maxTokens);
+    }
+
+    public Duration getTimeLimit() { return timeLimit; }
+    public int getMaxRequests() { return maxRequests; }
+    public long getMaxTokens() { return maxTokens; }
+
+    // The limit the given spending, including the next request, would go over, or null if
+    // it fits the budget
+    Limit exceededBy(long elapsedNanos, int requests, long tokens) {
+        if (timeLimit != null && elapsedNanos >= timeLimit.toNanos()) {
+            return Limit.TIME;
+        }
+        if (requests > maxRequests) {
+            return Limit.REQUESTS;
+        }
+        return tokens > maxTokens ? Limit.TOKENS : null;
+    }
+
+    @Override
+    public String toString() {
+        if (this == UNLIMITED) {
+            return "unlimited";
+        }
+        StringBuilder limits = new StringBuilder();
+        if (timeLimit != null) {
+            limits.append(timeLimit.toMinutes() > 0 ? timeLimit.toMinutes() + " min"
+                : String.format("%.1f s", timeLimit.toMillis() / 1000.0));
+        }
+        if (maxRequests != Integer.MAX_VALUE) {
+            limits.append(limits.isEmpty() ? "" : ", ").append(maxRequests).append(" requests");
+        }
+        if (maxTokens != Long.MAX_VALUE) {
+            limits.append(limits.isEmpty() ? "" : ", ").append(maxTokens).append(" tokens");
+        }
+        return limits.toString();
+    }
+}
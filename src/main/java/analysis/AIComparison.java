@@ -1,6 +1,8 @@
 package analysis;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class AIComparison {
     public String compareComments(List<String> existingComments, String aiGeneratedComment) {
@@ -25,14 +27,12 @@ public class AIComparison {
     private double calculateSimilarity(String str1, String str2) {
         String[] words1 = str1.toLowerCase().split("\\W+");
         String[] words2 = str2.toLowerCase().split("\\W+");
+        Set<String> lookup = new HashSet<>(List.of(words2));
         
         int commonWords = 0;
         for (String word1 : words1) {
-            for (String word2 : words2) {
-                if (word1.equals(word2)) {
-                    commonWords++;
-                    break;
-                }
+            if (lookup.contains(word1)) {
+                commonWords++;
             }
         }
         
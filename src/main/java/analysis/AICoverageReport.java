@@ -0,0 +1,72 @@
+package analysis;
+
+import java.util.List;
+
+/**
+ * What one scheduled AI analysis run covered: the comments the model analyzed and the
+ * requests that took, those answered from memory or the result store, those scored by rules
+ * alone because the model gave no answer, and those left out when the budget ran out, in
+ * priority order.
+ */
+public class AICoverageReport {
+    private final int candidates;
+    private final int analyzed;
+    private final int requests;
+    private final int reused;
+    private final int ruleOnly;
+    private final List<CommentLocation> notCovered;
+    // Null if every candidate was covered
+    private final AIBudget.Limit stoppedBy;
+    private final long tokens;
+    private final long elapsedNanos;
+
+    AICoverageReport(int candidates, int analyzed, int requests, int reused, int ruleOnly, List<CommentLocation> notCovered,
+                     AIBudget.Limit stoppedBy, long tokens, long elapsedNanos) {
+        this.candidates = candidates;
+        this.analyzed = analyzed;
+        this.requests = requests;
+        this.reused = reused;
+        this.ruleOnly = ruleOnly;
+        this.notCovered = List.copyOf(notCovered);
+        this.stoppedBy = stoppedBy;
+        this.tokens = tokens;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getCandidates() { return candidates; }
+    // Comments sent to the model
+    public int getAnalyzed() { return analyzed; }
+    // Prompts they were sent in, as counted against the request limit
+    public int getRequests() { return requests; }
+    public int getReused() { return reused; }
+    public int getRuleOnly() { return ruleOnly; }
+    public List<CommentLocation> getNotCovered() { return notCovered; }
+    public AIBudget.Limit getStoppedBy() { return stoppedBy; }
+    // Estimated, as counted against the token limit
+    public long getTokens() { return tokens; }
+    public double getElapsedSeconds() { return elapsedNanos / 1e9; }
+
+    public int getCovered() {
+        return candidates - notCovered.size();
+    }
+
+    // The summary followed by up to limit of the comments not covered
+    public String formatReport(int limit) {
+        StringBuilder report = new StringBuilder("AI coverage: ").append(this).append('\n');
+        for (int i = 0; i < Math.min(limit, notCovered.size()); i++) {
+            CommentLocation comment = notCovered.get(i);
+            report.append("  not covered: ").append(comment.getFileName()).append(':').append(comment.getLineNumber()).append('\n');
+        }
+        if (notCovered.size() > limit) {
+            report.append("  ... and ").append(notCovered.size() - limit).append(" more\n");
+        }
+        return report.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d comments in %.1f s (%d analyzed in %d requests, %d reused, %d scored by rules only), ~%d tokens%s",
+            getCovered(), candidates, getElapsedSeconds(), analyzed, requests, reused, ruleOnly, tokens,
+            stoppedBy != null ? "; stopped at the " + stoppedBy.getDescription() + ", " + notCovered.size() + " not covered" : "");
+    }
+}
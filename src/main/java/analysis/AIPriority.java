@@ -0,0 +1,85 @@
+package analysis;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Orders in which comments go to AI analysis, most valuable first.
+ *
+ * {@link #parse} builds an order from a comma-separated list such as
+ * {@code "public,recent,score"}, each criterion breaking the ties of the one before; the
+ * default, {@code "public,score"}, can be replaced with {@code -Dcommentanalyzer.ai.order}.
+ */
+public final class AIPriority {
+    public static final String ORDER_PROPERTY = "commentanalyzer.ai.order";
+    public static final String DEFAULT_ORDER = "public,score";
+    private static final Pattern PUBLIC_MODIFIER = Pattern.compile("\\b(public|protected)\\b");
+
+    private AIPriority() {
+    }
+
+    // Comments documenting public or protected declarations first
+    public static Comparator<CommentLocation> publicApiFirst() {
+        return Comparator.comparing(comment -> !isPublicApi(comment));
+    }
+
+    // Comments of the most recently modified files first
+    public static Comparator<CommentLocation> recentlyChangedFirst(ToLongFunction<String> lastModifiedOfFile) {
+        return Comparator.comparingLong((CommentLocation comment) -> lastModifiedOfFile.applyAsLong(comment.getFileName()))
+            .reversed();
+    }
+
+    // Comments the rules score lowest first, as the model has the most to add to them. Each
+    // comment is scored once, not on every comparison; the scores are kept as long as the
+    // comparator, so make a new one for each run.
+    public static Comparator<CommentLocation> lowestScoreFirst(CodeQualityAnalyzer rules) {
+        Map<CommentLocation, Double> scores = new ConcurrentHashMap<>();
+        return Comparator.comparingDouble(comment ->
+            scores.computeIfAbsent(comment, c -> rules.analyzeCommentQuality(c).getScore()));
+    }
+
+    public static Comparator<CommentLocation> fromSystemProperty(CodeQualityAnalyzer rules,
+                                                                 ToLongFunction<String> lastModifiedOfFile) {
+        return parse(System.getProperty(ORDER_PROPERTY, DEFAULT_ORDER), rules, lastModifiedOfFile);
+    }
+
+    // "public", "recent" and "score", comma-separated, in order of precedence
+    public static Comparator<CommentLocation> parse(String order, CodeQualityAnalyzer rules,
+                                                    ToLongFunction<String> lastModifiedOfFile) {
+        Comparator<CommentLocation> comparator = null;
+        for (String name : order.split(",")) {
+            Comparator<CommentLocation> next = switch (name.trim().toLowerCase()) {
+                case "public" -> publicApiFirst();
+                case "recent" -> recentlyChangedFirst(lastModifiedOfFile);
+                case "score" -> lowestScoreFirst(rules);
+                case "" -> null;
+                default -> throw new IllegalArgumentException("Unknown AI priority: " + name.trim());
+            };
+            if (next != null) {
+                comparator = comparator == null ? next : comparator.thenComparing(next);
+            }
+        }
+        // In the order of the files otherwise
+        Comparator<CommentLocation> position = Comparator.comparing(CommentLocation::getFileName)
+            .thenComparingInt(CommentLocation::getLineNumber);
+        return comparator == null ? position : comparator.thenComparing(position);
+    }
+
+    // A comment on a public or protected declaration, as its syntax tree tells, or without
+    // one as far as the code captured with the comment tells
+    static boolean isPublicApi(CommentLocation comment) {
+        DeclarationContext declaration = comment.getDeclaration();
+        if (declaration != null) {
+            return declaration.isAttached() && declaration.isPublicApi();
+        }
+        CommentContext context = comment.getContext();
+        if (context == null || context.isInsideBody()) {
+            return false;
+        }
+        String nextCodeLine = context.getNextCodeLine();
+        return nextCodeLine != null && PUBLIC_MODIFIER.matcher(nextCodeLine).find();
+    }
+}
@@ -0,0 +1,271 @@
+package analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of AI results, bounded by the bytes of the responses it holds.
+ *
+ * Keys are 128-bit hashes, so the comment text itself is not kept. A request for a key
+ * already being analyzed shares that request's future instead of sending another. The
+ * loader runs outside any lock, so a caller blocked on the client's permits holds up no one
+ * else, and only results that succeeded are kept.
+ *
+ * Eviction is frequency-aware: every lookup is counted in a small count-min sketch whose
+ * counters are halved now and then, so old popularity fades. When the cache is full the
+ * least frequently used of the few least recently used entries is the victim, and a new
+ * result only replaces it if the new key has been asked for at least as often. A run of
+ * one-off comments therefore cannot push out results that keep being reused.
+ */
+public class AIResultCache {
+    public static final long DEFAULT_MAX_WEIGHT = 32L << 20;
+    // Key, entry and map node of each result, on top of its response bytes
+    private static final int ENTRY_OVERHEAD = 96;
+    // Least recently used entries considered as the victim
+    private static final int VICTIM_SAMPLE = 5;
+
+    private final long maxWeight;
+    // In access order, least recently used first
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<AIAnalysisResult>> inFlight = new ConcurrentHashMap<>();
+    private final FrequencySketch frequencies = new FrequencySketch(1 << 14);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long coalesced;
+    private long evictions;
+    private long rejections;
+
+    public AIResultCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    public AIResultCache(long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    public static Key keyOf(String text) {
+        try {
+            ByteBuffer hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+            return new Key(hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // The cached result, the request already in flight for the key, or a new one from the
+    // loader, called on this thread without any lock held
+    public CompletableFuture<AIAnalysisResult> get(Key key, Supplier<CompletableFuture<AIAnalysisResult>> loader) {
+        AIAnalysisResult cached = lookup(key, true);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<AIAnalysisResult> request = new CompletableFuture<>();
+        CompletableFuture<AIAnalysisResult> running = inFlight.putIfAbsent(key, request);
+        if (running != null) {
+            synchronized (this) {
+                coalesced++;
+            }
+            return running;
+        }
+        // The request may have finished between the lookup and claiming the key
+        cached = lookup(key, false);
+        if (cached != null) {
+            inFlight.remove(key, request);
+            request.complete(cached);
+            return request;
+        }
+
+        synchronized (this) {
+            misses++;
+        }
+        CompletableFuture<AIAnalysisResult> loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            inFlight.remove(key, request);
+            request.completeExceptionally(e);
+            return request;
+        }
+        loaded.whenComplete((result, error) -> {
+            // Kept before leaving inFlight, so no one misses the key in between
+            if (result != null && !result.failed) {
+                admit(key, result);
+            }
+            inFlight.remove(key, request);
+            if (error != null) {
+                request.completeExceptionally(error);
+            } else {
+                request.complete(result);
+            }
+        });
+        return request;
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public synchronized long getWeight() { return weight; }
+    public long getMaxWeight() { return maxWeight; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    // Requests that shared one already in flight
+    public synchronized long getCoalesced() { return coalesced; }
+    public synchronized long getEvictions() { return evictions; }
+    // New results not kept because the entry they would replace is used more often
+    public synchronized long getRejections() { return rejections; }
+    public int getInFlight() { return inFlight.size(); }
+
+    // Share of requests answered without a new AI request
+    public synchronized double getHitRate() {
+        long requests = hits + coalesced + misses;
+        return requests > 0 ? (double) (hits + coalesced) / requests : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries (%d KB of %d KB), %.0f%% hit rate (%d hits, %d shared, %d misses), %d evicted, %d not admitted",
+            entries.size(), weight >> 10, maxWeight >> 10, getHitRate() * 100, hits, coalesced, misses,
+            evictions, rejections);
+    }
+
+    private synchronized AIAnalysisResult lookup(Key key, boolean count) {
+        Entry entry = entries.get(key);
+        if (count) {
+            frequencies.increment(key.hashCode());
+            if (entry != null) {
+                hits++;
+            }
+        }
+        return entry != null ? entry.result : null;
+    }
+
+    private synchronized void admit(Key key, AIAnalysisResult result) {
+        long entryWeight = ENTRY_OVERHEAD + (long) result.analysis.getBytes(StandardCharsets.UTF_8).length;
+        if (entryWeight > maxWeight) {
+            rejections++;
+            return;
+        }
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        int frequency = frequencies.frequency(key.hashCode());
+        while (weight + entryWeight > maxWeight) {
+            Map.Entry<Key, Entry> victim = victim();
+            if (frequencies.frequency(victim.getKey().hashCode()) > frequency) {
+                rejections++;
+                return;
+            }
+            entries.remove(victim.getKey());
+            weight -= victim.getValue().weight;
+            evictions++;
+        }
+        entries.put(key, new Entry(result, entryWeight));
+        weight += entryWeight;
+    }
+
+    // The least frequently used of the least recently used entries, the oldest on a tie
+    private Map.Entry<Key, Entry> victim() {
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        Map.Entry<Key, Entry> victim = eldest.next();
+        int victimFrequency = frequencies.frequency(victim.getKey().hashCode());
+        for (int i = 1; i < VICTIM_SAMPLE && eldest.hasNext(); i++) {
+            Map.Entry<Key, Entry> candidate = eldest.next();
+            int frequency = frequencies.frequency(candidate.getKey().hashCode());
+            if (frequency < victimFrequency) {
+                victim = candidate;
+                victimFrequency = frequency;
+            }
+        }
+        return victim;
+    }
+
+    // First 128 bits of a SHA-256 hash
+    public static final class Key {
+        private final long high;
+        private final long low;
+
+        private Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high) * 31 + Long.hashCode(low);
+        }
+    }
+
+    private static final class Entry {
+        final AIAnalysisResult result;
+        final long weight;
+
+        Entry(AIAnalysisResult result, long weight) {
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, halved once the counted lookups reach ten per
+    // counter of a row
+    private static final class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int resetAt;
+        private int additions;
+
+        FrequencySketch(int width) {
+            counters = new byte[ROWS][width];
+            mask = width - 1;
+            resetAt = width * 10;
+        }
+
+        void increment(int hash) {
+            for (int row = 0; row < ROWS; row++) {
+                byte[] counts = counters[row];
+                int index = index(hash, row);
+                if (counts[index] < MAX_COUNT) {
+                    counts[index]++;
+                }
+            }
+            if (++additions >= resetAt) {
+                for (byte[] counts : counters) {
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package analysis;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of AI analyses, keyed by a hash of the comment text, the model and the
+ * version of the prompt template that produced them.
+ *
+ * Results are appended to a log file as they arrive, each record with a checksum, and the
+ * log is replayed when the store is opened, later records replacing earlier ones. A record
+ * cut short by a crash ends the log there and is truncated away. The entries kept are
+ * bounded by a size cap, dropping the least recently used. Once the log holds more than
+ * twice the bytes of the live entries it is rewritten with only those, least recently used
+ * first, so that order survives a restart.
+ *
+ * The store from {@link #open()} lives at {@code -Dcommentanalyzer.ai.cacheFile}, by default
+ * {@code ~/.commentanalyzer/ai-cache.log}, and keeps {@code -Dcommentanalyzer.ai.cacheBytes}
+ * of entries, by default {@link #DEFAULT_MAX_BYTES}. Failed analyses are never stored.
+ *
+ * One store at a time owns a log, holding a lock on a {@code .lock} file next to it; a store
+ * opened while another process holds the lock starts empty and keeps its results in memory
+ * only, as it does when the log cannot be written.
+ */
+public class AIResultStore implements Closeable {
+    public static final String FILE_PROPERTY = "commentanalyzer.ai.cacheFile";
+    public static final String MAX_BYTES_PROPERTY = "commentanalyzer.ai.cacheBytes";
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    private static final int MAGIC = 0x43414143; // "CAAC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    // Key, score, text length and checksum
+    private static final int RECORD_OVERHEAD = 16 + 8 + 4 + 8;
+    // Smaller logs are not worth rewriting
+    private static final long MIN_COMPACT_BYTES = 1 << 20;
+    private static final Path DEFAULT_FILE = Paths.get(System.getProperty("user.home"), ".commentanalyzer", "ai-cache.log");
+
+    private final Path logFile;
+    private final long maxBytes;
+    // In access order, least recently used first
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private DataOutputStream log;
+    private FileChannel lockChannel;
+    private long liveBytes;
+    private long logBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private int compactions;
+
+    private AIResultStore(Path logFile, long maxBytes) {
+        this.logFile = logFile;
+        this.maxBytes = maxBytes;
+    }
+
+    public static AIResultStore open() {
+        String file = System.getProperty(FILE_PROPERTY);
+        return open(file != null && !file.isBlank() ? Paths.get(file.trim()) : DEFAULT_FILE,
+            maxBytesFromSystemProperty());
+    }
+
+    // A malformed or non-positive size is reported and replaced by the default
+    static long maxBytesFromSystemProperty() {
+        String maxBytes = System.getProperty(MAX_BYTES_PROPERTY);
+        if (maxBytes == null || maxBytes.isBlank()) {
+            return DEFAULT_MAX_BYTES;
+        }
+        try {
+            long bytes = Long.parseLong(maxBytes.trim());
+            if (bytes >= 1) {
+                return bytes;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        System.err.println("Invalid -D" + MAX_BYTES_PROPERTY + "=" + maxBytes + ", using " + DEFAULT_MAX_BYTES);
+        return DEFAULT_MAX_BYTES;
+    }
+
+    public static AIResultStore open(Path logFile, long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        AIResultStore store = new AIResultStore(logFile, maxBytes);
+        try {
+            if (!store.lock()) {
+                System.err.println("AI result cache " + logFile + " is in use by another process, keeping results in memory only");
+                return store;
+            }
+            store.load();
+            store.openLog();
+            store.compactIfSparse();
+        } catch (IOException e) {
+            System.err.println("AI result cache " + logFile + " unavailable, keeping results in memory only: " + e.getMessage());
+            store.closeLog();
+            store.unlock();
+        }
+        return store;
+    }
+
+    public static Key keyOf(String comment, String model, int promptVersion) {
+        MessageDigest digest = newDigest();
+        digest.update((model + "\0" + promptVersion + "\0").getBytes(StandardCharsets.UTF_8));
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest(comment.trim().getBytes(StandardCharsets.UTF_8)));
+        return new Key(hash.getLong(), hash.getLong());
+    }
+
+    public synchronized AIAnalysisResult get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new AIAnalysisResult(entry.analysis, entry.relevanceScore);
+    }
+
+    // Stores the result unless it failed or is already stored
+    public synchronized void put(Key key, AIAnalysisResult result) {
+        if (result.failed) {
+            return;
+        }
+        Entry existing = entries.get(key);
+        if (existing != null && existing.analysis.equals(result.analysis)) {
+            return;
+        }
+        byte[] record = encode(key, result.analysis, result.relevanceScore);
+        add(key, new Entry(result.analysis, result.relevanceScore, record.length));
+        if (log != null) {
+            try {
+                log.write(record);
+                log.flush();
+                logBytes += record.length;
+                compactIfSparse();
+            } catch (IOException e) {
+                System.err.println("Cannot write AI result cache " + logFile + ", keeping results in memory only: " + e.getMessage());
+                closeLog();
+            }
+        }
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public synchronized long getBytes() { return liveBytes; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized int getCompactions() { return compactions; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d entries (%d KB of %d KB), %d hits, %d misses, %d evicted",
+            entries.size(), liveBytes >> 10, maxBytes >> 10, hits, misses, evictions);
+    }
+
+    @Override
+    public synchronized void close() {
+        closeLog();
+        unlock();
+    }
+
+    // Held from before the log is read until the store is closed, so no other store reads
+    // the log while this one appends to it or replaces it
+    private boolean lock() throws IOException {
+        Files.createDirectories(logFile.toAbsolutePath().getParent());
+        Path lockFile = logFile.resolveSibling(logFile.getFileName() + ".lock");
+        lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another store in this process
+            lock = null;
+        }
+        if (lock == null) {
+            unlock();
+            return false;
+        }
+        return true;
+    }
+
+    // Closing the channel releases the lock
+    private void unlock() {
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                System.err.println("Error unlocking AI result cache " + logFile + ": " + e.getMessage());
+            }
+            lockChannel = null;
+        }
+    }
+
+    private void add(Key key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            liveBytes -= previous.bytes;
+        }
+        liveBytes += entry.bytes;
+        // The entry just added stays even if it alone is over the cap
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (liveBytes > maxBytes && entries.size() > 1) {
+            liveBytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.isRegularFile(logFile)) {
+            return;
+        }
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.err.println("Replacing AI result cache " + logFile + " of an unknown format");
+            } else {
+                good = HEADER_BYTES;
+                long remaining = Files.size(logFile) - HEADER_BYTES;
+                byte[] fixed = new byte[RECORD_OVERHEAD - 8];
+                while (remaining >= RECORD_OVERHEAD) {
+                    in.readFully(fixed);
+                    ByteBuffer fields = ByteBuffer.wrap(fixed);
+                    Key key = new Key(fields.getLong(), fields.getLong());
+                    double score = fields.getDouble();
+                    int length = fields.getInt();
+                    if (length < 0 || length > remaining - RECORD_OVERHEAD) {
+                        break;
+                    }
+                    byte[] text = new byte[length];
+                    in.readFully(text);
+                    CRC32 crc = new CRC32();
+                    crc.update(fixed);
+                    crc.update(text);
+                    if (in.readLong() != crc.getValue()) {
+                        break;
+                    }
+                    add(key, new Entry(new String(text, StandardCharsets.UTF_8), score, RECORD_OVERHEAD + length));
+                    good += RECORD_OVERHEAD + length;
+                    remaining -= RECORD_OVERHEAD + length;
+                }
+            }
+        } catch (EOFException e) {
+            // Shorter than its header; rewritten when the log is opened
+        }
+        if (good < Files.size(logFile)) {
+            if (good > 0) {
+                System.err.println("Dropping " + (Files.size(logFile) - good) + " unreadable bytes at the end of " + logFile);
+            }
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+        logBytes = good;
+    }
+
+    private void openLog() throws IOException {
+        if (logBytes < HEADER_BYTES) {
+            writeLog(logFile, List.of());
+        }
+        log = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(logFile, StandardOpenOption.APPEND), 1 << 16));
+    }
+
+    private void compactIfSparse() throws IOException {
+        if (log == null || logBytes < MIN_COMPACT_BYTES || logBytes <= 2 * (liveBytes + HEADER_BYTES)) {
+            return;
+        }
+        closeLog();
+        Path tempFile = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        writeLog(tempFile, new ArrayList<>(entries.entrySet()));
+        Files.move(tempFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compactions++;
+        openLog();
+    }
+
+    private void writeLog(Path file, List<Map.Entry<Key, Entry>> live) throws IOException {
+        long bytes = HEADER_BYTES;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<Key, Entry> e : live) {
+                byte[] record = encode(e.getKey(), e.getValue().analysis, e.getValue().relevanceScore);
+                out.write(record);
+                bytes += record.length;
+            }
+        }
+        logBytes = bytes;
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error closing AI result cache " + logFile + ": " + e.getMessage());
+            }
+            log = null;
+        }
+    }
+
+    private static byte[] encode(Key key, String analysis, double relevanceScore) {
+        byte[] text = analysis.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + text.length);
+        record.putLong(key.high).putLong(key.low).putDouble(relevanceScore).putInt(text.length).put(text);
+        record.putLong(checksum(record.array()));
+        return record.array();
+    }
+
+    // Over everything but the trailing checksum
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length - 8);
+        return crc.getValue();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // First 128 bits of the hash of model, prompt version and comment
+    public static final class Key {
+        private final long high;
+        private final long low;
+
+        private Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high) * 31 + Long.hashCode(low);
+        }
+    }
+
+    private static final class Entry {
+        final String analysis;
+        final double relevanceScore;
+        // Size of its record in the log
+        final int bytes;
+
+        Entry(String analysis, double relevanceScore, int bytes) {
+            this.analysis = analysis;
+            this.relevanceScore = relevanceScore;
+            this.bytes = bytes;
+        }
+    }
+}
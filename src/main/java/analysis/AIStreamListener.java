@@ -0,0 +1,13 @@
+package analysis;
+
+/**
+ * Receives AI analyses while they are generated. Called on HttpClient threads, one call at a
+ * time per comment; comments whose result comes from the cache are not streamed.
+ */
+public interface AIStreamListener {
+    // The next piece of the analysis of a comment
+    void onText(CommentLocation comment, String text);
+
+    // The analysis of a comment is complete; generation is null if the request failed
+    void onComplete(CommentLocation comment, GenerationResult generation);
+}
@@ -4,26 +4,39 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import utils.Threads;
 
 public class BatchProcessor {
+    // -Dcommentanalyzer.ai.pack=true sends several comments per prompt
+    public static final String PACK_PROPERTY = "commentanalyzer.ai.pack";
+
     private final BlockingQueue<CommentBatch> batchQueue;
     private final int BATCH_SIZE;
-    private final ExecutorService aiExecutor;
-    private final Map<String, AIAnalysisResult> aiCache;
+    private final AIResultCache aiCache;
+    private final Set<CompletableFuture<Void>> pendingReports = ConcurrentHashMap.newKeySet();
     private final TwoPhaseAnalyzer analyzer;
     private volatile boolean isRunning = true;
+    private volatile DuplicateIndex duplicates;
+    private volatile HeaderIndex headers;
+    private volatile AIResultStore store;
+    private volatile boolean packPrompts = Boolean.getBoolean(PACK_PROPERTY);
+
+    // maxInFlight caps the AI requests sent at once; when they are all taken, batches wait in
+    // the queue and submitBatch blocks once it is full
+    public BatchProcessor(int batchSize, int queueCapacity, int maxInFlight) {
+        this(batchSize, queueCapacity, new OllamaClient(OllamaRouter.getDefault(), maxInFlight));
+    }
 
-    public BatchProcessor(int batchSize, int queueCapacity, int aiThreads) {
+    public BatchProcessor(int batchSize, int queueCapacity, OllamaClient ollamaClient) {
         this.BATCH_SIZE = batchSize;
         this.batchQueue = new LinkedBlockingQueue<>(queueCapacity);
-        this.aiExecutor = Executors.newFixedThreadPool(aiThreads);
-        this.aiCache = new ConcurrentHashMap<>();
-        this.analyzer = new TwoPhaseAnalyzer();
+        this.aiCache = new AIResultCache();
+        this.analyzer = new TwoPhaseAnalyzer(ollamaClient);
         startProcessing();
     }
 
     private void startProcessing() {
-        Thread processingThread = new Thread(() -> {
+        Thread processingThread = Threads.newThread("batch-processor", true, () -> {
             while (isRunning || !batchQueue.isEmpty()) {
                 try {
                     CommentBatch batch = batchQueue.poll(100, TimeUnit.MILLISECONDS);
@@ -36,7 +49,6 @@ public class BatchProcessor {
                 }
             }
         });
-        processingThread.setDaemon(true);
         processingThread.start();
     }
 
@@ -50,176 +62,311 @@ public class BatchProcessor {
             .collect(Collectors.toList());
 
         if (!highPriorityComments.isEmpty()) {
-            submitToAIAnalysis(highPriorityComments, batch.callback);
+            submitToAIAnalysis(highPriorityComments, batch.callback, batch.listener);
         }
     }
 
     private boolean isHighPriorityComment(CommentLocation comment) {
-        CommentTypeAnalyzer.CommentType type = analyzer.typeAnalyzer.analyzeCommentType(
-            comment.getContent(), "", "", true, true, false, false).getType();
-        return type == CommentTypeAnalyzer.CommentType.FILE_COMMENT || 
-               type == CommentTypeAnalyzer.CommentType.CLASS_COMMENT;
+        CommentTypeAnalyzer.CommentType type = analyzer.typeAnalyzer.analyzeCommentType(comment).getType();
+        if (type == CommentTypeAnalyzer.CommentType.FILE_COMMENT) {
+            // A known license notice is boilerplate, not something the model can improve
+            return !isKnownLicense(comment);
+        }
+        return type == CommentTypeAnalyzer.CommentType.CLASS_COMMENT;
     }
 
-    private void submitToAIAnalysis(List<CommentLocation> comments, Consumer<Map<String, Object>> callback) {
-        CompletableFuture.supplyAsync(() -> {
-            Map<String, Object> aiResults = new HashMap<>();
-            for (CommentLocation comment : comments) {
-                String cacheKey = comment.getContent().trim();
-                AIAnalysisResult result = aiCache.computeIfAbsent(cacheKey,
-                    k -> analyzer.aiAnalyzer.analyzeComment(comment));
-                aiResults.put(comment.getFileName() + ":" + comment.getLineNumber(), result);
+    // Every comment but blank ones and known license notices, for the order and the budget of
+    // a scheduled run to choose from
+    private boolean isWorthAnalyzing(CommentLocation comment) {
+        if (comment.getContent() == null || comment.getContent().isBlank()) {
+            return false;
+        }
+        CommentTypeAnalyzer.CommentType type = analyzer.typeAnalyzer.analyzeCommentType(comment).getType();
+        return type != CommentTypeAnalyzer.CommentType.FILE_COMMENT || !isKnownLicense(comment);
+    }
+
+    private boolean isKnownLicense(CommentLocation comment) {
+        HeaderIndex index = headers;
+        long header = index != null ? index.findHeaderKey(comment.getContent()) : HeaderIndex.NO_HEADER;
+        if (header != HeaderIndex.NO_HEADER) {
+            HeaderIndex.Header known = index.getHeader(header);
+            if (known != null) {
+                return known.isKnownLicense();
             }
-            return aiResults;
-        }, aiExecutor).thenAccept(results -> {
-            Map<String, Object> aiReport = new HashMap<>();
-            aiReport.put("aiAnalysis", results);
-            callback.accept(aiReport);
-        });
+        }
+        return KnownLicenses.recognize(comment.getContent()) != null;
     }
 
-    public void submitBatch(List<CommentLocation> comments, Consumer<Map<String, Object>> callback) {
-        List<List<CommentLocation>> batches = new ArrayList<>();
-        for (int i = 0; i < comments.size(); i += BATCH_SIZE) {
-            batches.add(comments.subList(i, Math.min(i + BATCH_SIZE, comments.size())));
+    // Runs on the processing thread, which waits here whenever the client has no free permit,
+    // so no further batches are taken until responses come back. The report is delivered once
+    // every comment of the batch has its result.
+    private void submitToAIAnalysis(List<CommentLocation> comments, Consumer<Map<String, Object>> callback,
+                                    AIStreamListener listener) {
+        Map<String, CompletableFuture<AIAnalysisResult>> requests = new LinkedHashMap<>();
+        Map<CommentLocation, CompletableFuture<AIAnalysisResult>> unsent = new LinkedHashMap<>();
+        for (CommentLocation comment : comments) {
+            requests.put(comment.getFileName() + ":" + comment.getLineNumber(), analyze(comment, listener, unsent));
         }
+        send(unsent, listener);
 
-        for (List<CommentLocation> batch : batches) {
-            try {
-                batchQueue.put(new CommentBatch(batch, callback));
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+        report(requests, callback);
+    }
+
+    // Delivers the report once every request has its result
+    private CompletableFuture<Void> report(Map<String, CompletableFuture<AIAnalysisResult>> requests,
+                                           Consumer<Map<String, Object>> callback) {
+        CompletableFuture<Void> report = CompletableFuture.allOf(requests.values().toArray(new CompletableFuture<?>[0]))
+            .thenRun(() -> {
+                Map<String, Object> aiResults = new HashMap<>();
+                requests.forEach((location, result) -> aiResults.put(location, result.join()));
+                Map<String, Object> aiReport = new HashMap<>();
+                aiReport.put("aiAnalysis", aiResults);
+                callback.accept(aiReport);
+            });
+        pendingReports.add(report);
+        report.whenComplete((result, error) -> pendingReports.remove(report));
+        return report;
+    }
+
+    // Sends the comments worth analyzing to AI analysis in the given order, most valuable
+    // first, until the budget runs out. Blocks while sending, as submitBatch's processing
+    // thread does; reports arrive per BATCH_SIZE comments, and the coverage report once the
+    // comments sent have their results. Comments are sent a pack, or as many as may be in
+    // flight, at a time, and the budget is checked before each comment, so at most one such
+    // group is sent after the time limit. Requests and tokens are charged per prompt: a
+    // comment that joins a pack costs no request of its own.
+    public CompletableFuture<AICoverageReport> schedule(Collection<CommentLocation> comments, Comparator<CommentLocation> priority,
+                                                        AIBudget budget, Consumer<Map<String, Object>> callback,
+                                                        AIStreamListener listener) {
+        long start = System.nanoTime();
+        PriorityQueue<CommentLocation> queue = new PriorityQueue<>(Math.max(1, comments.size()), priority);
+        for (CommentLocation comment : comments) {
+            if (isWorthAnalyzing(comment)) {
+                queue.add(comment);
             }
         }
+        int candidates = queue.size();
+        Set<CommentLocation> sent = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<CommentLocation, CompletableFuture<AIAnalysisResult>> covered = new IdentityHashMap<>();
+        List<CompletableFuture<Void>> reports = new ArrayList<>();
+        int group = packs(listener) ? PromptPacker.MAX_PACK : analyzer.aiAnalyzer.getClient().getMaxInFlight();
+        Cost spent = Cost.NONE;
+        AIBudget.Limit stoppedBy = null;
+        while (!queue.isEmpty() && stoppedBy == null) {
+            Map<String, CompletableFuture<AIAnalysisResult>> requests = new LinkedHashMap<>();
+            Map<CommentLocation, CompletableFuture<AIAnalysisResult>> unsent = new LinkedHashMap<>();
+            while (requests.size() < BATCH_SIZE && !queue.isEmpty()) {
+                if (unsent.size() >= group) {
+                    spent = spent.plus(costOf(unsent.keySet(), listener));
+                    send(unsent, listener);
+                    unsent = new LinkedHashMap<>();
+                }
+                // As if the next comment needs a request, in case it does
+                List<CommentLocation> withNext = new ArrayList<>(unsent.keySet());
+                withNext.add(queue.peek());
+                Cost pending = spent.plus(costOf(withNext, listener));
+                stoppedBy = budget.exceededBy(System.nanoTime() - start, pending.requests(), pending.tokens());
+                if (stoppedBy != null) {
+                    break;
+                }
+                CommentLocation comment = queue.poll();
+                CompletableFuture<AIAnalysisResult> result = analyze(comment, listener, unsent);
+                if (unsent.containsKey(comment)) {
+                    sent.add(comment);
+                }
+                requests.put(comment.getFileName() + ":" + comment.getLineNumber(), result);
+                covered.put(comment, result);
+            }
+            spent = spent.plus(costOf(unsent.keySet(), listener));
+            send(unsent, listener);
+            if (!requests.isEmpty()) {
+                reports.add(report(requests, callback));
+            }
+        }
+
+        List<CommentLocation> notCovered = new ArrayList<>(queue.size());
+        while (!queue.isEmpty()) {
+            notCovered.add(queue.poll());
+        }
+        int analyzedCount = sent.size();
+        Cost total = spent;
+        AIBudget.Limit limit = stoppedBy;
+        return CompletableFuture.allOf(reports.toArray(new CompletableFuture<?>[0])).handle((done, error) -> {
+            int ruleOnly = 0;
+            for (CompletableFuture<AIAnalysisResult> result : covered.values()) {
+                if (result.isCompletedExceptionally() || result.join().failed) {
+                    ruleOnly++;
+                }
+            }
+            return new AICoverageReport(candidates, analyzedCount, total.requests(), covered.size() - analyzedCount, ruleOnly,
+                notCovered, limit, total.tokens(), System.nanoTime() - start);
+        });
     }
 
-    public void shutdown() {
-        isRunning = false;
-        aiExecutor.shutdown();
-        try {
-            if (!aiExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
-                aiExecutor.shutdownNow();
+    // One request per cache key; comments with a key already cached or requested share its
+    // result. Comments that need a request are added to unsent, to be sent together.
+    // With a store, results of earlier runs are reused and every comment's result is stored
+    // under its own text, so it is found again whichever copy comes first next time.
+    private CompletableFuture<AIAnalysisResult> analyze(CommentLocation comment, AIStreamListener listener,
+                                                        Map<CommentLocation, CompletableFuture<AIAnalysisResult>> unsent) {
+        AIResultStore resultStore = store;
+        OllamaClient client = analyzer.aiAnalyzer.getClient();
+        AIResultStore.Key storeKey = resultStore != null
+            ? AIResultStore.keyOf(comment.getContent(), client.getModel(), OllamaClient.ANALYSIS_PROMPT_VERSION) : null;
+
+        CompletableFuture<AIAnalysisResult> result = aiCache.get(AIResultCache.keyOf(cacheKey(comment)), () -> {
+            AIAnalysisResult stored = resultStore != null ? resultStore.get(storeKey) : null;
+            if (stored != null) {
+                return CompletableFuture.completedFuture(stored);
             }
-        } catch (InterruptedException e) {
-            aiExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
+            CompletableFuture<AIAnalysisResult> request = new CompletableFuture<>();
+            unsent.put(comment, request);
+            return request;
+        });
+        if (resultStore != null) {
+            result.thenAccept(analysis -> resultStore.put(storeKey, analysis));
         }
+        return result;
     }
 
-    private static class CommentBatch {
-        final List<CommentLocation> comments;
-        final Consumer<Map<String, Object>> callback;
-
-        CommentBatch(List<CommentLocation> comments, Consumer<Map<String, Object>> callback) {
-            this.comments = comments;
-            this.callback = callback;
+    // The prompts sending these comments takes, packed as send packs them, and their
+    // estimated tokens. Requests a malformed pack falls back to are not known in advance.
+    private Cost costOf(Collection<CommentLocation> comments, AIStreamListener listener) {
+        long tokens = 0;
+        if (!packs(listener)) {
+            for (CommentLocation comment : comments) {
+                tokens += PromptPacker.estimateRequestTokens(comment.getContent());
+            }
+            return new Cost(comments.size(), tokens);
+        }
+        List<List<CommentLocation>> packs = analyzer.aiAnalyzer.pack(new ArrayList<>(comments));
+        for (List<CommentLocation> pack : packs) {
+            tokens += PromptPacker.estimatePackTokens(pack);
         }
+        return new Cost(packs.size(), tokens);
     }
-}
 
-class TwoPhaseAnalyzer {
-    final CommentTypeAnalyzer typeAnalyzer;
-    final AIAnalyzer aiAnalyzer;
+    private record Cost(int requests, long tokens) {
+        static final Cost NONE = new Cost(0, 0);
 
-    TwoPhaseAnalyzer() {
-        this.typeAnalyzer = new CommentTypeAnalyzer();
-        this.aiAnalyzer = new AIAnalyzer();
+        Cost plus(Cost other) {
+            return new Cost(requests + other.requests, tokens + other.tokens);
+        }
     }
 
-    Map<String, Object> analyzeBasic(List<CommentLocation> comments) {
-        Map<String, Object> report = new HashMap<>();
-        Map<CommentTypeAnalyzer.CommentType, List<CommentDetail>> categorizedComments = new EnumMap<>(CommentTypeAnalyzer.CommentType.class);
+    // A packed answer cannot be streamed, so a listener turns packing off
+    private boolean packs(AIStreamListener listener) {
+        return packPrompts && listener == null;
+    }
 
-        for (CommentLocation comment : comments) {
-            CommentTypeAnalyzer.CommentAnalysisResult analysis = typeAnalyzer.analyzeCommentType(
-                comment.getContent(), "", "", true, true, false, false);
-            
-            CommentDetail detail = new CommentDetail(
-                comment.getFileName(),
-                comment.getLineNumber(),
-                comment.getContent(),
-                calculateBasicScore(comment.getContent(), analysis.getType())
-            );
-
-            categorizedComments.computeIfAbsent(analysis.getType(), k -> new ArrayList<>())
-                              .add(detail);
-        }
-
-        report.put("categorizedComments", categorizedComments);
-        report.put("totalComments", comments.size());
-        return report;
+    // Several comments per prompt when packing, otherwise a request each
+    private void send(Map<CommentLocation, CompletableFuture<AIAnalysisResult>> unsent, AIStreamListener listener) {
+        if (unsent.isEmpty()) {
+            return;
+        }
+        List<CommentLocation> comments = new ArrayList<>(unsent.keySet());
+        List<CompletableFuture<AIAnalysisResult>> results;
+        if (packs(listener)) {
+            results = analyzer.aiAnalyzer.analyzeCommentsPacked(comments, listener);
+        } else {
+            results = new ArrayList<>();
+            for (CommentLocation comment : comments) {
+                results.add(listener != null ? analyzer.aiAnalyzer.analyzeCommentStreaming(comment, listener)
+                    : analyzer.aiAnalyzer.analyzeCommentAsync(comment));
+            }
+        }
+        for (int i = 0; i < comments.size(); i++) {
+            CompletableFuture<AIAnalysisResult> request = unsent.get(comments.get(i));
+            results.get(i).whenComplete((result, error) -> {
+                if (error != null) {
+                    request.completeExceptionally(error);
+                } else {
+                    request.complete(result);
+                }
+            });
+        }
     }
 
-    private double calculateBasicScore(String content, CommentTypeAnalyzer.CommentType type) {
-        double score = 0.5; // Base score
-        
-        // Add points based on comment type
-        switch (type) {
-            case FILE_COMMENT -> score += 0.2;
-            case CLASS_COMMENT -> score += 0.15;
-            case METHOD_COMMENT -> score += 0.1;
-            default -> score += 0.05;
+    // Copies of a file header, and comments in the same duplicate cluster, share one AI result
+    private String cacheKey(CommentLocation comment) {
+        HeaderIndex headerIndex = headers;
+        long header = headerIndex != null ? headerIndex.findHeaderKey(comment.getContent()) : HeaderIndex.NO_HEADER;
+        if (header != HeaderIndex.NO_HEADER) {
+            return "header:" + header;
         }
+        DuplicateIndex index = duplicates;
+        long cluster = index != null ? index.findClusterKey(comment.getContent()) : DuplicateIndex.NO_CLUSTER;
+        return cluster != DuplicateIndex.NO_CLUSTER ? "cluster:" + cluster : comment.getContent().trim();
+    }
 
-        // Add points for length and formatting
-        if (content.length() > 10) score += 0.1;
-        if (content.length() > 50) score += 0.1;
-        if (content.matches("^\\s*[A-Z].*")) score += 0.05; // Starts with capital letter
-        if (!content.contains("TODO") && !content.contains("FIXME")) score += 0.05;
+    public void setDuplicateIndex(DuplicateIndex duplicates) {
+        this.duplicates = duplicates;
+    }
 
-        return Math.min(score, 1.0);
+    public void setHeaderIndex(HeaderIndex headers) {
+        this.headers = headers;
     }
 
-    private static class CommentDetail {
-        final String fileName;
-        final int lineNumber;
-        final String content;
-        final double basicScore;
+    public void setResultStore(AIResultStore store) {
+        this.store = store;
+    }
 
-        CommentDetail(String fileName, int lineNumber, String content, double basicScore) {
-            this.fileName = fileName;
-            this.lineNumber = lineNumber;
-            this.content = content;
-            this.basicScore = basicScore;
-        }
+    // Whether comments share prompts (see PromptPacker) when no stream listener is given
+    public void setPackedPrompts(boolean packPrompts) {
+        this.packPrompts = packPrompts;
     }
-}
 
-class AIAnalyzer {
-    private final OllamaClient ollamaClient;
+    public OllamaRouter getOllamaRouter() {
+        return analyzer.aiAnalyzer.getClient().getRouter();
+    }
 
-    AIAnalyzer() {
-        this.ollamaClient = new OllamaClient("http://localhost:11434");
+    public AIResultCache getResultCache() {
+        return aiCache;
     }
 
-    AIAnalysisResult analyzeComment(CommentLocation comment) {
-        try {
-            String aiResponse = ollamaClient.generateAnalysis(comment.getContent());
-            double relevanceScore = calculateRelevanceScore(aiResponse);
-            return new AIAnalysisResult(aiResponse, relevanceScore);
-        } catch (Exception e) {
-            return new AIAnalysisResult("AI analysis failed: " + e.getMessage(), 0.0);
+    public void submitBatch(List<CommentLocation> comments, Consumer<Map<String, Object>> callback) {
+        submitBatch(comments, callback, null);
+    }
+
+    // With a listener, AI analyses are streamed to it as they are generated
+    public void submitBatch(List<CommentLocation> comments, Consumer<Map<String, Object>> callback,
+                            AIStreamListener listener) {
+        List<List<CommentLocation>> batches = new ArrayList<>();
+        for (int i = 0; i < comments.size(); i += BATCH_SIZE) {
+            batches.add(comments.subList(i, Math.min(i + BATCH_SIZE, comments.size())));
+        }
+
+        for (List<CommentLocation> batch : batches) {
+            try {
+                batchQueue.put(new CommentBatch(batch, callback, listener));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
         }
     }
 
-    private double calculateRelevanceScore(String aiResponse) {
-        // Simple scoring based on response length and content
-        double score = 0.5;
-        if (aiResponse.length() > 50) score += 0.2;
-        if (aiResponse.contains("purpose") || aiResponse.contains("functionality")) score += 0.1;
-        if (aiResponse.contains("improvement") || aiResponse.contains("suggestion")) score += 0.1;
-        if (!aiResponse.contains("error") && !aiResponse.contains("failed")) score += 0.1;
-        return Math.min(score, 1.0);
+    // Waits up to 30 seconds for the reports of requests already sent
+    public void shutdown() {
+        isRunning = false;
+        try {
+            CompletableFuture.allOf(pendingReports.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("AI analysis did not finish before shutdown: " + e.getMessage());
+        }
     }
-}
 
-class AIAnalysisResult {
-    final String analysis;
-    final double relevanceScore;
+    private static class CommentBatch {
+        final List<CommentLocation> comments;
+        final Consumer<Map<String, Object>> callback;
+        final AIStreamListener listener;
 
-    AIAnalysisResult(String analysis, double relevanceScore) {
-        this.analysis = analysis;
-        this.relevanceScore = relevanceScore;
+        CommentBatch(List<CommentLocation> comments, Consumer<Map<String, Object>> callback, AIStreamListener listener) {
+            this.comments = comments;
+            this.callback = callback;
+            this.listener = listener;
+        }
     }
-}
\ No newline at end of file
+}
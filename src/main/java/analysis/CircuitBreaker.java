@@ -0,0 +1,113 @@
+package analysis;
+
+import java.time.Duration;
+
+/**
+ * Stops requests to a backend that keeps failing, so callers fall back at once instead of
+ * each waiting for its own timeout.
+ *
+ * The breaker opens after {@link #DEFAULT_FAILURES_TO_OPEN} backend failures in a row. While
+ * open, no request is allowed. Once the open period has passed, one trial request is let
+ * through: if it succeeds the breaker closes, otherwise it opens again for twice as long, up
+ * to {@link #MAX_OPEN}. Every request allowed holds a {@link Permit}, and only the outcome
+ * of the trial's permit decides what happens after the open period; requests let through
+ * before the breaker last opened no longer count once they end.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static final int DEFAULT_FAILURES_TO_OPEN = 5;
+    public static final Duration DEFAULT_OPEN = Duration.ofSeconds(30);
+    public static final Duration MAX_OPEN = Duration.ofMinutes(5);
+
+    private final int failuresToOpen;
+    private final long initialOpenNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openNanos;
+    private long openUntil;
+    // The permit of the trial request while it runs
+    private Permit trial;
+    private long rejected;
+    private int opened;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURES_TO_OPEN, DEFAULT_OPEN);
+    }
+
+    public CircuitBreaker(int failuresToOpen, Duration open) {
+        if (failuresToOpen < 1) {
+            throw new IllegalArgumentException("failuresToOpen must be at least 1: " + failuresToOpen);
+        }
+        this.failuresToOpen = failuresToOpen;
+        this.initialOpenNanos = open.toNanos();
+        this.openNanos = initialOpenNanos;
+    }
+
+    // Null if the request must not be sent; a permit must be followed by a recorded outcome
+    public synchronized Permit tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return new Permit(opened);
+        }
+        if (state == State.HALF_OPEN && trial == null) {
+            trial = new Permit(opened);
+            return trial;
+        }
+        rejected++;
+        return null;
+    }
+
+    public synchronized void recordSuccess(Permit permit) {
+        if (permit == trial) {
+            trial = null;
+            state = State.CLOSED;
+            openNanos = initialOpenNanos;
+            consecutiveFailures = 0;
+        } else if (state == State.CLOSED && permit.opened == opened) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    public synchronized void recordFailure(Permit permit) {
+        if (permit == trial) {
+            trial = null;
+            openNanos = Math.min(openNanos * 2, MAX_OPEN.toNanos());
+            open();
+        } else if (state == State.CLOSED && permit.opened == opened && ++consecutiveFailures >= failuresToOpen) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        consecutiveFailures = 0;
+        openUntil = System.nanoTime() + openNanos;
+        opened++;
+    }
+
+    public synchronized State getState() {
+        return state == State.OPEN && System.nanoTime() - openUntil >= 0 ? State.HALF_OPEN : state;
+    }
+
+    // Requests turned away while open
+    public synchronized long getRejected() { return rejected; }
+    public synchronized int getTimesOpened() { return opened; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("circuit %s, opened %d times, %d requests turned away",
+            getState().name().toLowerCase().replace('_', '-'), opened, rejected);
+    }
+
+    // A request allowed through, and how often the breaker had opened when it was
+    public static final class Permit {
+        private final int opened;
+
+        private Permit(int opened) {
+            this.opened = opened;
+        }
+    }
+}
@@ -2,34 +2,121 @@ package analysis;
 
 import java.util.regex.Pattern;
 
+/**
+ * Scores comments by rules and, optionally, by a language model.
+ *
+ * The analyzer is immutable: the position of a comment comes from the comment itself or
+ * from a {@link FileScoringContext} the caller keeps per file, so one instance can score
+ * any number of files concurrently. Results are memoized in a {@link ScoreCache}, except those
+ * scored by rules alone because the model gave no answer, which are marked degraded.
+ */
 public class CodeQualityAnalyzer {
+    // Bumped whenever classification or scoring changes, so that persisted scores are redone
+    public static final int SCORING_VERSION = 4;
+
+    // Null unless useAI is set
     private final OllamaClient ollamaClient;
     private final CommentTypeAnalyzer typeAnalyzer;
     private final boolean useAI;
-    private String prevCodeLine = "";
-    private boolean isBeforeClass = true;
-    private boolean isAfterClassBeforeFields = false;
-    private boolean isAfterFieldsBeforeMethods = false;
+    private final ScoreCache scoreCache;
 
     public CodeQualityAnalyzer(boolean useAI) {
+        this(useAI, new ScoreCache());
+    }
+
+    public CodeQualityAnalyzer(boolean useAI, ScoreCache scoreCache) {
         this.useAI = useAI;
-        this.ollamaClient = new OllamaClient("http://localhost:11434");
+        this.ollamaClient = useAI ? new OllamaClient() : null;
         this.typeAnalyzer = new CommentTypeAnalyzer();
+        this.scoreCache = scoreCache;
+    }
+
+    public boolean isUsingAI() {
+        return useAI;
+    }
+
+    public ScoreCache getScoreCache() {
+        return scoreCache;
+    }
+
+    // Scores a comment on its own, as if it were the only comment of its file
+    public QualityAnalysisResult analyzeCommentQuality(CommentLocation comment) {
+        return analyzeCommentQuality(comment, new FileScoringContext());
+    }
+
+    // Uses the declaration or surrounding code the parser captured with the comment, and the
+    // file's state only for comments that carry neither
+    public QualityAnalysisResult analyzeCommentQuality(CommentLocation comment, FileScoringContext fileContext) {
+        return analyzeCommentQuality(comment, fileContext, DuplicateIndex.NO_CLUSTER, null);
+    }
+
+    // A comment in a duplicate cluster is scored from the cluster's representative text, once
+    // per classification, so all members get the same result whichever is scored first
+    public QualityAnalysisResult analyzeCommentQuality(CommentLocation comment, FileScoringContext fileContext,
+                                                       long duplicateCluster, String clusterText) {
+        if (comment.getDeclaration() == null && comment.getContext() == null) {
+            return analyzeCommentQuality(comment.getContent(), "", false, fileContext, duplicateCluster, clusterText);
+        }
+        if (comment.getContent() == null || comment.getContent().trim().isEmpty()) {
+            return new QualityAnalysisResult(0.0, "Empty comment");
+        }
+        String nextCodeLine = comment.getContext() != null ? comment.getContext().getNextCodeLine() : "";
+        return scoreCached(comment.getContent(), nextCodeLine, typeAnalyzer.analyzeCommentType(comment),
+            duplicateCluster, clusterText);
     }
 
     public QualityAnalysisResult analyzeCommentQuality(String comment, String nextCodeLine, boolean isFirst) {
+        return analyzeCommentQuality(comment, nextCodeLine, isFirst, new FileScoringContext());
+    }
+
+    public QualityAnalysisResult analyzeCommentQuality(String comment, String nextCodeLine, boolean isFirst,
+                                                       FileScoringContext fileContext) {
+        return analyzeCommentQuality(comment, nextCodeLine, isFirst, fileContext, DuplicateIndex.NO_CLUSTER, null);
+    }
+
+    private QualityAnalysisResult analyzeCommentQuality(String comment, String nextCodeLine, boolean isFirst,
+                                                        FileScoringContext fileContext, long duplicateCluster,
+                                                        String clusterText) {
         if (comment == null || comment.trim().isEmpty()) {
             return new QualityAnalysisResult(0.0, "Empty comment");
         }
 
-        updateContextState(nextCodeLine);
+        fileContext.advance(nextCodeLine);
         
         CommentTypeAnalyzer.CommentAnalysisResult typeResult = typeAnalyzer.analyzeCommentType(
-            comment, prevCodeLine, nextCodeLine, isFirst,
-            isBeforeClass, isAfterClassBeforeFields, isAfterFieldsBeforeMethods
+            comment, fileContext.getPrevCodeLine(), nextCodeLine, isFirst, fileContext.isBeforeClass(),
+            fileContext.isAfterClassBeforeFields(), fileContext.isAfterFieldsBeforeMethods()
         );
 
-        double baseScore = calculateBaseScore(comment, typeResult);
+        return scoreCached(comment, nextCodeLine, typeResult, duplicateCluster, clusterText);
+    }
+
+    // True if the comment's score does not depend on the comments scored before it
+    static boolean isSelfContained(CommentLocation comment) {
+        return comment.getDeclaration() != null || comment.getContext() != null;
+    }
+
+    // A score depends only on the text and its classification; the AI prompt sees only the text
+    private QualityAnalysisResult scoreCached(String comment, String nextCodeLine,
+                                              CommentTypeAnalyzer.CommentAnalysisResult typeResult,
+                                              long duplicateCluster, String clusterText) {
+        boolean clustered = duplicateCluster != DuplicateIndex.NO_CLUSTER && clusterText != null;
+        ScoreCache.Key key = clustered
+            ? ScoreCache.keyOfCluster(duplicateCluster, typeResult)
+            : ScoreCache.keyOf(comment, typeResult);
+        QualityAnalysisResult result = scoreCache.get(key);
+        if (result == null) {
+            result = scoreComment(clustered ? clusterText : comment, nextCodeLine, typeResult);
+            if (!result.isDegraded()) {
+                result = scoreCache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private QualityAnalysisResult scoreComment(String comment, String nextCodeLine,
+                                               CommentTypeAnalyzer.CommentAnalysisResult typeResult) {
+        double baseScore = calculateBaseScore(CommentFeatures.extract(comment), typeResult);
         
         if (useAI) {
             try {
@@ -46,7 +133,7 @@ public class CodeQualityAnalyzer {
                 return new QualityAnalysisResult(baseScore * 5.0,
                     String.format("Type: %s, %s, Score based on rules", 
                         typeResult.getType().getDescription(),
-                        typeResult.getReason()));
+                        typeResult.getReason()), true);
             }
         }
 
@@ -56,100 +143,90 @@ public class CodeQualityAnalyzer {
                 typeResult.getReason()));
     }
 
-    private void updateContextState(String currentLine) {
-        if (currentLine.contains("class ") || currentLine.contains("interface ")) {
-            isBeforeClass = false;
-            isAfterClassBeforeFields = true;
-            isAfterFieldsBeforeMethods = false;
-        } else if (currentLine.matches(".*\\s+\\w+\\s*=.*|.*private.*|.*public.*|.*protected.*")) {
-            isAfterClassBeforeFields = false;
-        } else if (currentLine.contains("(") && currentLine.contains(")")) {
-            isAfterFieldsBeforeMethods = true;
-        }
-        prevCodeLine = currentLine;
-    }
-
-    private double calculateBaseScore(String comment, CommentTypeAnalyzer.CommentAnalysisResult typeResult) {
+    private double calculateBaseScore(CommentFeatures features, CommentTypeAnalyzer.CommentAnalysisResult typeResult) {
         double typeBaseScore = typeResult.getBaseScore();
-        double coherenceScore = evaluateCoherenceAndCompleteness(comment, typeResult.getType()) * 0.4;
-        double consistencyScore = evaluateConsistency(comment) * 0.3;
-        double languageScore = evaluateLanguageQuality(comment) * 0.3;
+        double coherenceScore = evaluateCoherenceAndCompleteness(features, typeResult.getType()) * 0.4;
+        double consistencyScore = evaluateConsistency(features) * 0.3;
+        double languageScore = evaluateLanguageQuality(features) * 0.3;
 
         return (typeBaseScore * 0.4 + coherenceScore + consistencyScore + languageScore) / 2.0;
     }
 
-    private double getAIScore(String comment, String codeContext, CommentTypeAnalyzer.CommentType type) {
+    // Throws if the model gives no answer, so the score falls back to the rules
+    private double getAIScore(String comment, String codeContext, CommentTypeAnalyzer.CommentType type)
+            throws OllamaException {
+        String response = ollamaClient.generateAnalysis(comment);
         try {
-            String response = ollamaClient.generateAnalysis(comment);
-            try {
-                return Double.parseDouble(response.trim()) / 5.0;
-            } catch (NumberFormatException e) {
-                return 0.5;
-            }
-        } catch (Exception e) {
+            return Double.parseDouble(response.trim()) / 5.0;
+        } catch (NumberFormatException e) {
             return 0.5;
         }
     }
 
-    private double evaluateCoherenceAndCompleteness(String comment, CommentTypeAnalyzer.CommentType type) {
+    private double evaluateCoherenceAndCompleteness(CommentFeatures features, CommentTypeAnalyzer.CommentType type) {
         double score = 0.0;
 
         switch (type) {
             case METHOD_COMMENT -> {
-                if (comment.contains("@param")) score += 0.3;
-                if (comment.contains("@return")) score += 0.3;
-                if (comment.contains("@throws")) score += 0.2;
-                if (comment.length() > 10) score += 0.2;
+                if (features.has(CommentFeatures.Keyword.PARAM_TAG)) score += 0.3;
+                if (features.has(CommentFeatures.Keyword.RETURN_TAG)) score += 0.3;
+                if (features.has(CommentFeatures.Keyword.THROWS_TAG)) score += 0.2;
+                if (features.getLength() > 10) score += 0.2;
             }
             case CLASS_COMMENT -> {
-                if (comment.contains("@author")) score += 0.2;
-                if (comment.contains("@version")) score += 0.2;
-                if (comment.length() > 20) score += 0.3;
-                if (comment.contains("class") || comment.contains("interface")) score += 0.3;
+                if (features.has(CommentFeatures.Keyword.AUTHOR_TAG)) score += 0.2;
+                if (features.has(CommentFeatures.Keyword.VERSION_TAG)) score += 0.2;
+                if (features.getLength() > 20) score += 0.3;
+                if (features.has(CommentFeatures.Keyword.CLASS) || features.has(CommentFeatures.Keyword.INTERFACE)) score += 0.3;
             }
             case FILE_COMMENT -> {
-                if (comment.contains("Licensed")) score += 0.4;
-                if (comment.contains("copyright")) score += 0.3;
-                if (comment.length() > 30) score += 0.3;
+                if (features.has(CommentFeatures.Keyword.LICENSED)) score += 0.4;
+                if (features.has(CommentFeatures.Keyword.COPYRIGHT)) score += 0.3;
+                if (features.getLength() > 30) score += 0.3;
             }
             default -> {
-                if (comment.length() > 5) score += 0.5;
-                if (containsTechnicalTerms(comment)) score += 0.5;
+                if (features.getLength() > 5) score += 0.5;
+                // Like the regex this replaced, only counts on a single line
+                if (features.isSingleLine() && features.hasTechnicalTerm()) score += 0.5;
             }
         }
         return Math.min(score, 1.0);
     }
 
-    private double evaluateConsistency(String comment) {
+    private double evaluateConsistency(CommentFeatures features) {
         double score = 0.0;
-        if (comment.startsWith("/*") || comment.startsWith("/**")) score += 0.3;
-        if (comment.endsWith("*/")) score += 0.3;
-        if (!comment.contains("TODO") && !comment.contains("FIXME")) score += 0.4;
+        if (features.startsWithBlockDelimiter()) score += 0.3;
+        if (features.endsWithBlockDelimiter()) score += 0.3;
+        if (!features.hasTodoOrFixme()) score += 0.4;
         return score;
     }
 
-    private double evaluateLanguageQuality(String comment) {
+    private double evaluateLanguageQuality(CommentFeatures features) {
         double score = 0.0;
-        if (comment.matches("[A-Z].*")) score += 0.3;
-        if (!comment.contains("!!!!") && !comment.contains("????")) score += 0.3;
-        if (comment.length() < 200) score += 0.4;
+        if (features.startsWithUppercase() && features.isSingleLine()) score += 0.3;
+        if (features.getExclamationRun() < 4 && features.getQuestionRun() < 4) score += 0.3;
+        if (features.getLength() < 200) score += 0.4;
         return score;
     }
 
-    private boolean containsTechnicalTerms(String comment) {
-        return comment.matches("(?i).*(method|class|function|return|parameter|variable|object|interface).*");
-    }
-
     public static class QualityAnalysisResult {
         private final double score;
         private final String details;
+        // Scored by rules alone because the model gave no answer; never cached or persisted
+        private final boolean degraded;
 
         public QualityAnalysisResult(double score, String details) {
+            this(score, details, false);
+        }
+
+        public QualityAnalysisResult(double score, String details, boolean degraded) {
             this.score = score;
             this.details = details;
+            this.degraded = degraded;
         }
 
         public double getScore() { return score; }
         public String getDetails() { return details; }
+        public boolean isDegraded() { return degraded; }
     }
 }
\ No newline at end of file
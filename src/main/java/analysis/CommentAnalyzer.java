@@ -1,28 +1,44 @@
 package analysis;
 
 import parser.CodeParser;
+import parser.IgnoreRules;
 import parser.LanguageConfig;
+import utils.Threads;
 import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class CommentAnalyzer {
-    private final CodeParser parser;
     private final Map<String, Map<CommentTypeAnalyzer.CommentType, List<CommentLocation>>> categorizedCommentsByLanguage;
     private final BatchProcessor batchProcessor;
     private final ExecutorService aiExecutor;
     private final CommentTypeAnalyzer typeAnalyzer;
+    // Rules only: the model is asked only by the AI analysis stage, within its budget
     private final CodeQualityAnalyzer qualityAnalyzer;
+    private final QualityScoringEngine scoringEngine;
+    private final AIResultStore resultStore;
+    // By the file name the comments carry, which for comments from setComments is the path
+    // relative to the analysis root
+    private final Map<String, Long> lastModifiedByFile = new ConcurrentHashMap<>();
+    private IgnoreRules ignoreRules = IgnoreRules.withDefaults();
+    private volatile AIBudget aiBudget = AIBudget.fromSystemProperties();
+    private volatile AICoverageReport lastCoverage;
+    private volatile DuplicateIndex duplicates;
+    private volatile HeaderIndex headers;
 
     public CommentAnalyzer() {
-        this.parser = new CodeParser();
         this.categorizedCommentsByLanguage = new ConcurrentHashMap<>();
-        this.batchProcessor = new BatchProcessor(20, 50, 2);
-        this.aiExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+        this.batchProcessor = new BatchProcessor(20, 50, new OllamaClient());
+        this.resultStore = AIResultStore.open();
+        batchProcessor.setResultStore(resultStore);
+        this.aiExecutor = Threads.newFixedExecutor("ai-analysis", Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
         this.typeAnalyzer = new CommentTypeAnalyzer();
-        this.qualityAnalyzer = new CodeQualityAnalyzer(true);
+        this.qualityAnalyzer = new CodeQualityAnalyzer(false, new ScoreCache());
+        this.scoringEngine = new QualityScoringEngine(qualityAnalyzer);
     }
 
     public CodeQualityAnalyzer.QualityAnalysisResult getCommentQuality(
@@ -30,6 +46,70 @@ public class CommentAnalyzer {
         return qualityAnalyzer.analyzeCommentQuality(comment, nextCodeLine, isFirstComment);
     }
     
+    public CodeQualityAnalyzer.QualityAnalysisResult getCommentQuality(CommentLocation comment) {
+        return qualityAnalyzer.analyzeCommentQuality(comment);
+    }
+
+    public ScoreCache getScoreCache() {
+        return qualityAnalyzer.getScoreCache();
+    }
+
+    // Every comment with its quality result, per file, scored in parallel
+    public Map<String, List<ScoredComment>> scoreComments(Map<String, List<CommentLocation>> commentsByFile) {
+        return scoringEngine.scoreFiles(commentsByFile, duplicates);
+    }
+
+    // Files analyzed from now on are added to the index, and duplicate clusters are scored
+    // and sent to AI analysis once
+    public void setDuplicateIndex(DuplicateIndex duplicates) {
+        this.duplicates = duplicates;
+        batchProcessor.setDuplicateIndex(duplicates);
+    }
+
+    public DuplicateIndex getDuplicateIndex() {
+        return duplicates;
+    }
+
+    // Files analyzed from now on have their leading comment grouped with identical headers,
+    // and each distinct header goes to AI analysis at most once
+    public void setHeaderIndex(HeaderIndex headers) {
+        this.headers = headers;
+        batchProcessor.setHeaderIndex(headers);
+    }
+
+    public HeaderIndex getHeaderIndex() {
+        return headers;
+    }
+
+    // AI results kept across runs
+    public AIResultStore getResultStore() {
+        return resultStore;
+    }
+
+    // The Ollama endpoints AI analysis is spread over, with their stats
+    public OllamaRouter getOllamaRouter() {
+        return batchProcessor.getOllamaRouter();
+    }
+
+    // AI results kept in memory during this session
+    public AIResultCache getResultCache() {
+        return batchProcessor.getResultCache();
+    }
+
+    // Limits AI analysis runs started from now on
+    public void setAIBudget(AIBudget aiBudget) {
+        this.aiBudget = aiBudget;
+    }
+
+    public AIBudget getAIBudget() {
+        return aiBudget;
+    }
+
+    // What the last AI analysis run covered, or null until one has finished
+    public AICoverageReport getLastCoverage() {
+        return lastCoverage;
+    }
+    
     public void analyzeFile(File file) {
         try {
             String detectedLanguage = LanguageConfig.detectLanguage(file.getName(), null);
@@ -38,8 +118,17 @@ public class CommentAnalyzer {
                 return;
             }
 
-            parser.setLanguage(detectedLanguage);
-            List<CommentLocation> commentLocations = parser.extractCommentsWithLocations(file);
+            // Files are analyzed in parallel, so each gets its own parser
+            List<CommentLocation> commentLocations = new CodeParser(detectedLanguage).extractCommentsWithLocations(file);
+            lastModifiedByFile.merge(file.getName(), file.lastModified(), Math::max);
+            DuplicateIndex index = duplicates;
+            if (index != null) {
+                index.addFile(file.getPath(), commentLocations);
+            }
+            HeaderIndex headerIndex = headers;
+            if (headerIndex != null) {
+                headerIndex.addFile(file.getPath(), commentLocations);
+            }
             
             synchronized (categorizedCommentsByLanguage) {
                 categorizeComments(commentLocations, detectedLanguage);
@@ -58,30 +147,51 @@ public class CommentAnalyzer {
             categorizedCommentsByLanguage.computeIfAbsent(language, _ -> new EnumMap<>(CommentTypeAnalyzer.CommentType.class));
 
         for (CommentLocation comment : comments) {
-            CommentTypeAnalyzer.CommentAnalysisResult analysis = typeAnalyzer.analyzeCommentType(
-                comment.getContent(), "", "", comment.getLineNumber() == 1,
-                true, false, false
-            );
+            CommentTypeAnalyzer.CommentAnalysisResult analysis = typeAnalyzer.analyzeCommentType(comment);
             languageComments.computeIfAbsent(analysis.getType(), _ -> new ArrayList<>())
                            .add(comment);
         }
     }
 
     public void analyzeDirectory(File directory) {
-        if (directory.isDirectory()) {
-            Arrays.stream(directory.listFiles())
-                  .parallel()
-                  .forEach(file -> {
-                      if (file.isFile()) {
-                          String ext = getFileExtension(file.getName());
-                          if (LanguageConfig.isSupportedExtension(ext)) {
-                              analyzeFile(file);
-                          }
-                      } else if (file.isDirectory()) {
-                          analyzeDirectory(file);
-                      }
-                  });
+        if (!directory.isDirectory()) {
+            return;
+        }
+
+        // Collect in one pruned walk so ignored subtrees are never descended into
+        List<File> files = new ArrayList<>();
+        IgnoreRules.Walker ignoreWalker = ignoreRules.newWalker(directory.toPath());
+        try {
+            Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return ignoreWalker.enterDirectory(dir) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String ext = getFileExtension(file.getFileName().toString());
+                    if (LanguageConfig.isSupportedExtension(ext) && !ignoreWalker.isIgnoredFile(file)) {
+                        files.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    ignoreWalker.exitDirectory();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error walking directory: " + directory + ": " + e.getMessage());
         }
+
+        Threads.forEachBlocking(files, this::analyzeFile);
+    }
+
+    public void setIgnoreRules(IgnoreRules ignoreRules) {
+        this.ignoreRules = ignoreRules != null ? ignoreRules : IgnoreRules.none();
     }
 
     private String getFileExtension(String fileName) {
@@ -125,41 +235,108 @@ public class CommentAnalyzer {
 
     private double calculateBasicScore(CommentLocation comment) {
         double score = 0.5;
-        String content = comment.getContent();
+        CommentFeatures features = CommentFeatures.extract(comment.getContent());
         
-        if (content.length() > 10) score += 0.1;
-        if (content.length() > 50) score += 0.1;
-        if (content.matches("^\\s*[A-Z].*")) score += 0.1;
-        if (!content.contains("TODO") && !content.contains("FIXME")) score += 0.1;
-        if (content.contains("@param") || content.contains("@return")) score += 0.1;
+        if (features.getLength() > 10) score += 0.1;
+        if (features.getLength() > 50) score += 0.1;
+        if (features.startsWithUppercaseAfterWhitespace() && features.isSingleLineAfterLeadingWhitespace()) score += 0.1;
+        if (!features.hasTodoOrFixme()) score += 0.1;
+        if (features.has(CommentFeatures.Keyword.PARAM_TAG) || features.has(CommentFeatures.Keyword.RETURN_TAG)) score += 0.1;
 
         return Math.min(score, 1.0) * 5.0; // Convert to 5-point scale
     }
 
-    public void startAIAnalysis(Consumer<Map<String, Object>> callback) {
-        CompletableFuture.runAsync(() -> {
-            for (String language : categorizedCommentsByLanguage.keySet()) {
-                Map<CommentTypeAnalyzer.CommentType, List<CommentLocation>> languageComments = 
-                    categorizedCommentsByLanguage.get(language);
-                
-                for (List<CommentLocation> comments : languageComments.values()) {
-                    List<CommentLocation> highPriorityComments = comments.stream()
-                        .filter(this::isHighPriorityComment)
-                        .collect(Collectors.toList());
-
-                    if (!highPriorityComments.isEmpty()) {
-                        batchProcessor.submitBatch(highPriorityComments, result -> {
-                            callback.accept(createAIAnalysisReport(language, result));
-                        });
+    // Replaces the comments AI analysis runs on with comments extracted elsewhere, such as by
+    // CommentExtractor, instead of by analyzeFile. Keys are paths relative to root, which the
+    // comments are given as their file name so that files of the same name stay apart.
+    public void setComments(Path root, Map<String, List<CommentLocation>> commentsByFile) {
+        synchronized (categorizedCommentsByLanguage) {
+            categorizedCommentsByLanguage.clear();
+            for (Map.Entry<String, List<CommentLocation>> entry : commentsByFile.entrySet()) {
+                String relativePath = entry.getKey();
+                lastModifiedByFile.merge(relativePath, lastModified(root, relativePath), Math::max);
+                String language = LanguageConfig.detectLanguage(relativePath, null);
+                if (language != null) {
+                    List<CommentLocation> comments = new ArrayList<>(entry.getValue().size());
+                    for (CommentLocation comment : entry.getValue()) {
+                        comments.add(comment.withFileName(relativePath));
+                    }
+                    categorizeComments(comments, language);
+                }
+            }
+        }
+    }
+
+    // An entry of an archive, as in "lib.jar!/Foo.java", counts as modified with its archive
+    private static long lastModified(Path root, String relativePath) {
+        int archiveEnd = relativePath.indexOf("!/");
+        Path file = archiveEnd >= 0 ? root.resolve(relativePath.substring(0, archiveEnd)) : root.resolve(relativePath);
+        try {
+            return Files.getLastModifiedTime(Files.isRegularFile(root) ? root : file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public CompletableFuture<AICoverageReport> startAIAnalysis(Consumer<Map<String, Object>> callback) {
+        return startAIAnalysis(callback, null);
+    }
+
+    // With a listener, each analysis is streamed to it while it is generated. Comments go in
+    // the order of -Dcommentanalyzer.ai.order, within the budget set.
+    public CompletableFuture<AICoverageReport> startAIAnalysis(Consumer<Map<String, Object>> callback,
+                                                               AIStreamListener listener) {
+        return startAIAnalysis(callback, listener, AIPriority.fromSystemProperty(qualityAnalyzer, this::lastModified), aiBudget);
+    }
+
+    // Completes with what the run covered once the comments sent have their results
+    public CompletableFuture<AICoverageReport> startAIAnalysis(Consumer<Map<String, Object>> callback, AIStreamListener listener,
+                                                               Comparator<CommentLocation> priority, AIBudget budget) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, String> languageByFile = new HashMap<>();
+            List<CommentLocation> comments = commentsToAnalyze(languageByFile);
+            return batchProcessor.schedule(comments, priority, budget,
+                result -> callback.accept(createAIAnalysisReport(languagesOf(result, languageByFile), result)), listener);
+        }, aiExecutor).thenCompose(coverage -> coverage).thenApply(coverage -> {
+            lastCoverage = coverage;
+            return coverage;
+        });
+    }
+
+    // Every comment categorized, noting the language of each file in languageByFile
+    List<CommentLocation> commentsToAnalyze(Map<String, String> languageByFile) {
+        List<CommentLocation> comments = new ArrayList<>();
+        synchronized (categorizedCommentsByLanguage) {
+            for (Map.Entry<String, Map<CommentTypeAnalyzer.CommentType, List<CommentLocation>>> language
+                    : categorizedCommentsByLanguage.entrySet()) {
+                for (List<CommentLocation> typeComments : language.getValue().values()) {
+                    for (CommentLocation comment : typeComments) {
+                        languageByFile.put(comment.getFileName(), language.getKey());
+                        comments.add(comment);
                     }
                 }
             }
-        }, aiExecutor);
+        }
+        return comments;
+    }
+
+    long lastModified(String fileName) {
+        return lastModifiedByFile.getOrDefault(fileName, 0L);
     }
 
-    private boolean isHighPriorityComment(CommentLocation comment) {
-        return comment.getContent().length() > 100 || // 只分析长注释
-               comment.getFileName().endsWith("Test.java"); // 或测试文件注释
+    // The languages of the files a report's results are from, as results now mix files
+    private static String languagesOf(Map<String, Object> aiResult, Map<String, String> languageByFile) {
+        Set<String> languages = new TreeSet<>();
+        if (aiResult.get("aiAnalysis") instanceof Map<?, ?> results) {
+            for (Object location : results.keySet()) {
+                String name = location.toString();
+                String language = languageByFile.get(name.substring(0, Math.max(0, name.lastIndexOf(':'))));
+                if (language != null) {
+                    languages.add(language);
+                }
+            }
+        }
+        return String.join(", ", languages);
     }
 
     private Map<String, Object> createAIAnalysisReport(String language, Map<String, Object> aiResult) {
@@ -182,6 +359,7 @@ public class CommentAnalyzer {
 
     public void shutdown() {
         batchProcessor.shutdown();
+        resultStore.close();
         aiExecutor.shutdown();
         try {
             if (!aiExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
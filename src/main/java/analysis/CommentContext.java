@@ -0,0 +1,57 @@
+package analysis;
+
+/**
+ * Code surrounding a comment, captured while the comment is extracted so classification
+ * never has to read the source again.
+ *
+ * Holds the nearest non-blank code line before and after the comment and the comment's
+ * structural position in the file. The position and the boolean properties are packed
+ * into a single byte.
+ */
+public class CommentContext {
+    public enum Position {
+        FILE_HEADER("before any code"),
+        BEFORE_TYPE("before the first type declaration"),
+        TYPE_START("after a type declaration, before its members"),
+        AMONG_FIELDS("among fields"),
+        AMONG_METHODS("among methods");
+
+        private final String description;
+        Position(String description) { this.description = description; }
+        public String getDescription() { return description; }
+    }
+
+    private static final int POSITION_MASK = 0x07;
+    private static final int FIRST_IN_FILE = 0x08;
+    private static final int INSIDE_BODY = 0x10;
+    private static final int TRAILING_CODE = 0x20;
+
+    private final String previousCodeLine;
+    private final String nextCodeLine;
+    private final byte flags;
+
+    public CommentContext(String previousCodeLine, String nextCodeLine, Position position,
+                          boolean firstInFile, boolean insideBody, boolean trailingCode) {
+        this(previousCodeLine, nextCodeLine, (byte) (position.ordinal()
+            | (firstInFile ? FIRST_IN_FILE : 0)
+            | (insideBody ? INSIDE_BODY : 0)
+            | (trailingCode ? TRAILING_CODE : 0)));
+    }
+
+    // For restoring a context from its packed form, see getFlags()
+    public CommentContext(String previousCodeLine, String nextCodeLine, byte flags) {
+        this.previousCodeLine = previousCodeLine;
+        this.nextCodeLine = nextCodeLine;
+        this.flags = flags;
+    }
+
+    public String getPreviousCodeLine() { return previousCodeLine; }
+    public String getNextCodeLine() { return nextCodeLine; }
+    public Position getPosition() { return Position.values()[flags & POSITION_MASK]; }
+    public boolean isFirstInFile() { return (flags & FIRST_IN_FILE) != 0; }
+    // Inside a method or other block body rather than between declarations
+    public boolean isInsideBody() { return (flags & INSIDE_BODY) != 0; }
+    // Follows code on the same line
+    public boolean isTrailingCode() { return (flags & TRAILING_CODE) != 0; }
+    public byte getFlags() { return flags; }
+}
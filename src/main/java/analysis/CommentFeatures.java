@@ -0,0 +1,134 @@
+package analysis;
+
+import java.util.*;
+
+/**
+ * Everything the rule-based scorers look at in a comment's text, collected in one pass.
+ *
+ * Keywords and tags are found by a shared {@link KeywordMatcher}; length, capitalization,
+ * line breaks, comment delimiters and runs of repeated punctuation come from the same loop
+ * over the characters. Scorers read the vector instead of scanning the text again.
+ */
+public class CommentFeatures {
+    public enum Keyword {
+        PARAM_TAG("@param", false),
+        RETURN_TAG("@return", false),
+        THROWS_TAG("@throws", false),
+        AUTHOR_TAG("@author", false),
+        VERSION_TAG("@version", false),
+        TODO("TODO", false),
+        FIXME("FIXME", false),
+        CLASS("class", false),
+        INTERFACE("interface", false),
+        LICENSED("Licensed", false),
+        COPYRIGHT("copyright", false),
+        // Technical terms, in any case
+        METHOD_TERM("method", true),
+        CLASS_TERM("class", true),
+        FUNCTION_TERM("function", true),
+        RETURN_TERM("return", true),
+        PARAMETER_TERM("parameter", true),
+        VARIABLE_TERM("variable", true),
+        OBJECT_TERM("object", true),
+        INTERFACE_TERM("interface", true);
+
+        private final String text;
+        private final boolean ignoreCase;
+        Keyword(String text, boolean ignoreCase) {
+            this.text = text;
+            this.ignoreCase = ignoreCase;
+        }
+        public String getText() { return text; }
+        public boolean isIgnoreCase() { return ignoreCase; }
+        long bit() { return 1L << ordinal(); }
+    }
+
+    private static final long TECHNICAL_TERMS = Keyword.METHOD_TERM.bit() | Keyword.CLASS_TERM.bit()
+        | Keyword.FUNCTION_TERM.bit() | Keyword.RETURN_TERM.bit() | Keyword.PARAMETER_TERM.bit()
+        | Keyword.VARIABLE_TERM.bit() | Keyword.OBJECT_TERM.bit() | Keyword.INTERFACE_TERM.bit();
+
+    private static final KeywordMatcher MATCHER = new KeywordMatcher(
+        Arrays.stream(Keyword.values()).map(Keyword::getText).toList(),
+        Arrays.stream(Keyword.values()).map(Keyword::isIgnoreCase).toList());
+
+    private final int length;
+    private final long keywords;
+    private final int firstNonWhitespace;
+    private final int lastLineBreak;
+    private final boolean uppercaseFirst;
+    private final boolean uppercaseAfterWhitespace;
+    private final boolean blockStart;
+    private final boolean blockEnd;
+    private final int exclamationRun;
+    private final int questionRun;
+
+    private CommentFeatures(String comment) {
+        int length = comment.length();
+        int firstNonWhitespace = -1;
+        int lastLineBreak = -1;
+        int exclamationRun = 0;
+        int questionRun = 0;
+        int run = 0;
+        char previous = 0;
+        int state = 0;
+        long keywords = 0;
+        for (int i = 0; i < length; i++) {
+            char c = comment.charAt(i);
+            state = MATCHER.next(state, c);
+            keywords = MATCHER.matchedAt(comment, i, state, keywords);
+            if (firstNonWhitespace < 0 && !isRegexWhitespace(c)) {
+                firstNonWhitespace = i;
+            }
+            // Line terminators, which '.' in java.util.regex does not match
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                lastLineBreak = i;
+            }
+            run = c == previous ? run + 1 : 1;
+            if (c == '!') {
+                exclamationRun = Math.max(exclamationRun, run);
+            } else if (c == '?') {
+                questionRun = Math.max(questionRun, run);
+            }
+            previous = c;
+        }
+
+        this.length = length;
+        this.keywords = keywords;
+        this.firstNonWhitespace = firstNonWhitespace < 0 ? length : firstNonWhitespace;
+        this.lastLineBreak = lastLineBreak;
+        this.uppercaseFirst = length > 0 && isAsciiUppercase(comment.charAt(0));
+        this.uppercaseAfterWhitespace = firstNonWhitespace >= 0 && isAsciiUppercase(comment.charAt(firstNonWhitespace));
+        this.blockStart = comment.startsWith("/*");
+        this.blockEnd = comment.endsWith("*/");
+        this.exclamationRun = exclamationRun;
+        this.questionRun = questionRun;
+    }
+
+    public static CommentFeatures extract(String comment) {
+        return new CommentFeatures(comment);
+    }
+
+    public int getLength() { return length; }
+    public boolean has(Keyword keyword) { return (keywords & keyword.bit()) != 0; }
+    public boolean hasTechnicalTerm() { return (keywords & TECHNICAL_TERMS) != 0; }
+    public boolean hasTodoOrFixme() { return has(Keyword.TODO) || has(Keyword.FIXME); }
+    public boolean startsWithUppercase() { return uppercaseFirst; }
+    public boolean startsWithUppercaseAfterWhitespace() { return uppercaseAfterWhitespace; }
+    // No line break anywhere, or none after the leading whitespace
+    public boolean isSingleLine() { return lastLineBreak < 0; }
+    public boolean isSingleLineAfterLeadingWhitespace() { return lastLineBreak < firstNonWhitespace; }
+    public boolean startsWithBlockDelimiter() { return blockStart; }
+    public boolean endsWithBlockDelimiter() { return blockEnd; }
+    // Longest run of '!' and of '?'
+    public int getExclamationRun() { return exclamationRun; }
+    public int getQuestionRun() { return questionRun; }
+
+    // Same set as \s in java.util.regex
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isAsciiUppercase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+}
@@ -4,19 +4,41 @@ public class CommentLocation {
     private final String fileName;
     private final int lineNumber;
     private final String content;
+    private final DeclarationContext declaration;
+    private final CommentContext context;
 
     public CommentLocation(String fileName, int lineNumber, String content) {
+        this(fileName, lineNumber, content, null);
+    }
+
+    public CommentLocation(String fileName, int lineNumber, String content, DeclarationContext declaration) {
+        this(fileName, lineNumber, content, declaration, null);
+    }
+
+    public CommentLocation(String fileName, int lineNumber, String content,
+                           DeclarationContext declaration, CommentContext context) {
         this.fileName = fileName;
         this.lineNumber = lineNumber;
         this.content = content;
+        this.declaration = declaration;
+        this.context = context;
     }
 
     public String getFileName() { return fileName; }
     public int getLineNumber() { return lineNumber; }
     public String getContent() { return content; }
+    // Only known when the file was parsed into a syntax tree, otherwise null
+    public DeclarationContext getDeclaration() { return declaration; }
+    // Surrounding code captured during extraction, null if it was not captured
+    public CommentContext getContext() { return context; }
+
+    // The same comment under another file name, such as its path relative to the analysis root
+    public CommentLocation withFileName(String fileName) {
+        return fileName.equals(this.fileName) ? this : new CommentLocation(fileName, lineNumber, content, declaration, context);
+    }
 
     @Override
     public String toString() {
         return String.format("[%s:line %d] %s", fileName, lineNumber, content);
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package analysis;
 
+import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CommentTypeAnalyzer {
@@ -15,10 +17,12 @@ public class CommentTypeAnalyzer {
         public String getDescription() { return description; }
     }
 
-    private static final Pattern LICENSE_PATTERN = Pattern.compile(
-        ".*Apache.*License.*|.*Copyright.*|.*Licensed to.*", 
-        Pattern.MULTILINE | Pattern.CASE_INSENSITIVE
-    );
+    // "Apache" followed by "License" on the same line, "Copyright" or "Licensed to", in any case
+    private static final KeywordMatcher LICENSE_KEYWORDS = new KeywordMatcher(
+        List.of("apache", "license", "copyright", "licensed to"), List.of(true, true, true, true));
+    private static final long APACHE = 1L;
+    private static final long LICENSE = 1L << 1;
+    private static final long LICENSE_NOTICE = 1L << 2 | 1L << 3;
 
     private static final Pattern METHOD_PATTERN = Pattern.compile(
         "\\s*(public|private|protected)?\\s*(static)?\\s*[\\w<>\\[\\]]+\\s+\\w+\\s*\\([^)]*\\)\\s*\\{?"
@@ -32,6 +36,20 @@ public class CommentTypeAnalyzer {
         "\\s*(public|private|protected)?\\s*(static)?\\s*(final)?\\s*[\\w<>\\[\\]]+\\s+\\w+\\s*=?"
     );
 
+    private static final Pattern MODIFIERS_PATTERN = Pattern.compile(
+        "\\s*((public|private|protected|static|final|abstract|sealed|non-sealed|default|synchronized"
+            + "|native|transient|volatile|strictfp|export|async)\\s+)*"
+    );
+
+    private static final Pattern TYPE_DECLARATION_PATTERN = Pattern.compile(
+        "(class|interface|enum|record|@interface|struct)\\s+\\w+"
+    );
+
+    // A return type or constructor name followed by a parameter list, before any initializer
+    private static final Pattern CALLABLE_DECLARATION_PATTERN = Pattern.compile(
+        "(<[^=]*>\\s*)?[\\w<>\\[\\]?,. ]*\\w+\\s*\\([^=]*"
+    );
+
     public CommentAnalysisResult analyzeCommentType(
             String comment, 
             String prevCodeLine, 
@@ -90,8 +108,96 @@ public class CommentTypeAnalyzer {
         return new CommentAnalysisResult(type, baseScore, reason);
     }
 
+    // Classifies a comment by the declaration it belongs to in a parsed syntax tree
+    public CommentAnalysisResult analyzeCommentType(DeclarationContext declaration) {
+        if (!declaration.isAttached()) {
+            if (declaration.getKind() == DeclarationContext.Kind.FILE) {
+                return new CommentAnalysisResult(CommentType.FILE_COMMENT, 0.8,
+                    "File level comment (outside any type)");
+            }
+            return new CommentAnalysisResult(CommentType.INLINE_COMMENT, 0.4,
+                "Inline comment (inside " + declaration.getName() + ")");
+        }
+        return switch (declaration.getKind()) {
+            case FILE -> new CommentAnalysisResult(CommentType.FILE_COMMENT, 0.8,
+                "File level comment (before package or imports)");
+            case TYPE -> new CommentAnalysisResult(CommentType.CLASS_COMMENT, 0.6,
+                "Class comment (" + declaration.getName() + ")");
+            case METHOD -> new CommentAnalysisResult(CommentType.METHOD_COMMENT, 0.6,
+                "Method comment (" + declaration.getName() + ")");
+            case FIELD -> new CommentAnalysisResult(CommentType.FIELD_COMMENT, 0.5,
+                "Field comment (" + declaration.getName() + ")");
+        };
+    }
+
+    // Classifies a comment by the code captured around it during extraction
+    public CommentAnalysisResult analyzeCommentType(CommentContext context, String comment) {
+        String nextCodeLine = context.getNextCodeLine();
+        Matcher modifiers = MODIFIERS_PATTERN.matcher(nextCodeLine);
+        String declaration = modifiers.lookingAt() ? nextCodeLine.substring(modifiers.end()) : nextCodeLine;
+        CommentContext.Position position = context.getPosition();
+
+        if (context.isTrailingCode() || context.isInsideBody()) {
+            return new CommentAnalysisResult(CommentType.INLINE_COMMENT, 0.4,
+                context.isTrailingCode() ? "Inline comment (after code)" : "Inline comment (inside a body)");
+        }
+        if (TYPE_DECLARATION_PATTERN.matcher(declaration).lookingAt()) {
+            return new CommentAnalysisResult(CommentType.CLASS_COMMENT, 0.6, "Class comment");
+        }
+        if (position == CommentContext.Position.FILE_HEADER || position == CommentContext.Position.BEFORE_TYPE
+                || isLicenseComment(comment)) {
+            return new CommentAnalysisResult(CommentType.FILE_COMMENT, 0.8,
+                "File level comment (" + position.getDescription() + ")");
+        }
+        if (CALLABLE_DECLARATION_PATTERN.matcher(declaration).matches() || containsMethodTags(comment)) {
+            return new CommentAnalysisResult(CommentType.METHOD_COMMENT, 0.6, "Method comment");
+        }
+        if (FIELD_PATTERN.matcher(nextCodeLine).lookingAt()) {
+            return new CommentAnalysisResult(CommentType.FIELD_COMMENT, 0.5, "Field comment");
+        }
+        if (position == CommentContext.Position.TYPE_START) {
+            return new CommentAnalysisResult(CommentType.FILE_COMMENT, 0.7,
+                "File level comment (after class declaration)");
+        }
+        if (position == CommentContext.Position.AMONG_METHODS) {
+            return new CommentAnalysisResult(CommentType.METHOD_COMMENT, 0.5,
+                "Method comment (among methods)");
+        }
+        return new CommentAnalysisResult(CommentType.INLINE_COMMENT, 0.4, "Inline comment");
+    }
+
+    // Uses the most precise information the parser attached to the comment
+    public CommentAnalysisResult analyzeCommentType(CommentLocation comment) {
+        if (comment.getDeclaration() != null) {
+            return analyzeCommentType(comment.getDeclaration());
+        }
+        if (comment.getContext() != null) {
+            return analyzeCommentType(comment.getContext(), comment.getContent());
+        }
+        return analyzeCommentType(comment.getContent(), "", "", comment.getLineNumber() == 1, true, false, false);
+    }
+
     private boolean isLicenseComment(String comment) {
-        return LICENSE_PATTERN.matcher(comment).find();
+        return mentionsLicense(comment) || KnownLicenses.recognize(comment) != null;
+    }
+
+    // One pass over the text instead of a regular expression that backtracks on long headers
+    private static boolean mentionsLicense(String comment) {
+        boolean apacheOnLine = false;
+        int state = 0;
+        for (int i = 0, n = comment.length(); i < n; i++) {
+            char c = comment.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                apacheOnLine = false;
+            }
+            state = LICENSE_KEYWORDS.next(state, c);
+            long found = LICENSE_KEYWORDS.matchedAt(comment, i, state, 0);
+            if ((found & LICENSE_NOTICE) != 0 || (found & LICENSE) != 0 && apacheOnLine) {
+                return true;
+            }
+            apacheOnLine |= (found & APACHE) != 0;
+        }
+        return false;
     }
 
     private boolean containsMethodTags(String comment) {
@@ -0,0 +1,39 @@
+package analysis;
+
+/**
+ * The declaration a comment belongs to, as resolved from a parsed syntax tree.
+ *
+ * A comment is attached when it directly documents the declaration (for example a Javadoc
+ * block above a method); otherwise it sits somewhere inside the declaration, such as a
+ * comment within a method body.
+ */
+public class DeclarationContext {
+    public enum Kind { FILE, TYPE, METHOD, FIELD }
+
+    private final Kind kind;
+    private final String name;
+    private final boolean attached;
+    private final boolean publicApi;
+
+    public DeclarationContext(Kind kind, String name, boolean attached) {
+        this(kind, name, attached, false);
+    }
+
+    public DeclarationContext(Kind kind, String name, boolean attached, boolean publicApi) {
+        this.kind = kind;
+        this.name = name;
+        this.attached = attached;
+        this.publicApi = publicApi;
+    }
+
+    public Kind getKind() { return kind; }
+    public String getName() { return name; }
+    public boolean isAttached() { return attached; }
+    // Declared public or protected, or public without a modifier as interface members are
+    public boolean isPublicApi() { return publicApi; }
+
+    @Override
+    public String toString() {
+        return (attached ? "" : "inside ") + kind.name().toLowerCase() + " " + name;
+    }
+}
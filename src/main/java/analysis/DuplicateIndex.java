@@ -0,0 +1,633 @@
+package analysis;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups exact and near-duplicate comments across a corpus with MinHash signatures and
+ * locality-sensitive hashing (LSH).
+ *
+ * Comment text is reduced to lowercase words, so comment markers, punctuation and layout do
+ * not matter. Comments with the same words are exact duplicates and are matched by hash
+ * alone. Any other comment gets a MinHash signature over its word 3-shingles, cut into bands;
+ * it joins the first cluster whose representative shares a band with it and agrees on enough
+ * signature positions to estimate a Jaccard similarity of at least the threshold, otherwise
+ * it starts a new cluster. Only representatives are kept in the band tables, so memory grows
+ * with the number of clusters rather than comments (about 400 bytes per cluster and 4 bytes
+ * per comment, besides a reference to each file's list of comments). A cluster whose last
+ * member is removed is retired and its slot reused, so in watch mode the number of clusters
+ * follows the live comments. A cluster whose representative is removed while other members
+ * remain gets one of them as its new representative. The number of clusters is
+ * capped; once full, comments that match no cluster are left unclustered.
+ *
+ * Files are added concurrently from extraction threads, with signatures computed outside the
+ * lock. Which near-duplicates end up together can depend on the order files arrive in; exact
+ * duplicates always do.
+ */
+public class DuplicateIndex {
+    public static final long NO_CLUSTER = -1;
+    private static final int UNCLUSTERED = -1;
+    private static final int HASHES = 32;
+    private static final int BANDS = 8;
+    private static final int ROWS = HASHES / BANDS;
+    private static final int SHINGLE_WORDS = 3;
+    private static final int SAMPLE_FILES = 5;
+    private static final int DEFAULT_MAX_CLUSTERS = 1 << 19;
+    private static final double DEFAULT_THRESHOLD = 0.8;
+    private static final long[] MULTIPLIERS = new long[HASHES];
+    private static final long[] OFFSETS = new long[HASHES];
+    private static final AtomicInteger GENERATIONS = new AtomicInteger();
+
+    static {
+        // Fixed seed so signatures are comparable between runs
+        SplittableRandom random = new SplittableRandom(0x5EED_C0DEL);
+        for (int i = 0; i < HASHES; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            OFFSETS[i] = random.nextLong();
+        }
+    }
+
+    // Tells apart the cluster keys of different indexes in the same process
+    private final long generation = GENERATIONS.incrementAndGet();
+    private final int maxClusters;
+    private final double threshold;
+    private final int minAgreement;
+
+    private final LongIntTable exactClusters = new LongIntTable();
+    private final LongIntTable[] bandClusters = new LongIntTable[BANDS];
+    private int[] signatures = new int[HASHES * 1024];
+    private int[] sizes = new int[1024];
+    private int[] exactSizes = new int[1024];
+    private CommentLocation[] representatives = new CommentLocation[1024];
+    private String[] representativePaths = new String[1024];
+    private long[] clusterExactKeys = new long[1024];
+    // Numbers every cluster ever created, so a reused slot never gets the key of its old cluster
+    private long[] serials = new long[1024];
+    private long nextSerial;
+    // Slots in use or retired; the retired ones are listed in freeClusters
+    private int clusterCount;
+    private final Deque<Integer> freeClusters = new ArrayDeque<>();
+    // Per file, the cluster of every comment: (cluster << 1) | 1 for near-duplicates, or UNCLUSTERED
+    private final Map<String, int[]> clustersByFile = new HashMap<>();
+    private final Map<String, List<CommentLocation>> commentsByFile = new HashMap<>();
+    // Live clusters whose representative was removed, given a new one before they are read
+    private final Set<Integer> orphans = new HashSet<>();
+    private long commentCount;
+
+    public DuplicateIndex() {
+        this(DEFAULT_MAX_CLUSTERS, DEFAULT_THRESHOLD);
+    }
+
+    public DuplicateIndex(int maxClusters, double threshold) {
+        this.maxClusters = maxClusters;
+        this.threshold = threshold;
+        this.minAgreement = (int) Math.ceil(threshold * HASHES);
+        for (int b = 0; b < BANDS; b++) {
+            bandClusters[b] = new LongIntTable();
+        }
+    }
+
+    // Adds or replaces the comments of a file
+    public void addFile(String path, List<CommentLocation> comments) {
+        int count = comments.size();
+        long[][] words = new long[count][];
+        long[] exactKeys = new long[count];
+        for (int i = 0; i < count; i++) {
+            words[i] = wordHashes(comments.get(i).getContent());
+            exactKeys[i] = exactKey(words[i]);
+        }
+
+        boolean[] needsSignature = new boolean[count];
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                needsSignature[i] = words[i].length > 0 && exactClusters.get(exactKeys[i]) < 0;
+            }
+        }
+        int[][] fileSignatures = new int[count][];
+        for (int i = 0; i < count; i++) {
+            if (needsSignature[i]) {
+                fileSignatures[i] = signature(words[i], exactKeys[i]);
+            }
+        }
+
+        int[] clusters = new int[count];
+        synchronized (this) {
+            removeFile(path);
+            for (int i = 0; i < count; i++) {
+                clusters[i] = UNCLUSTERED;
+                if (words[i].length == 0) {
+                    continue;
+                }
+                int cluster = exactClusters.get(exactKeys[i]);
+                if (cluster >= 0) {
+                    clusters[i] = cluster << 1;
+                    exactSizes[cluster]++;
+                } else {
+                    int[] signature = fileSignatures[i] != null ? fileSignatures[i] : signature(words[i], exactKeys[i]);
+                    cluster = findSimilar(signature);
+                    if (cluster >= 0) {
+                        clusters[i] = cluster << 1 | 1;
+                    } else if (liveClusters() < maxClusters) {
+                        cluster = newCluster(signature, exactKeys[i], comments.get(i), path);
+                        clusters[i] = cluster << 1;
+                        exactSizes[cluster]++;
+                    } else {
+                        continue;
+                    }
+                }
+                sizes[cluster]++;
+                if (orphans.remove(cluster)) {
+                    representatives[cluster] = comments.get(i);
+                    representativePaths[cluster] = path;
+                }
+            }
+            clustersByFile.put(path, clusters);
+            commentsByFile.put(path, comments);
+            commentCount += count;
+        }
+    }
+
+    public synchronized void removeFile(String path) {
+        int[] clusters = clustersByFile.remove(path);
+        if (clusters == null) {
+            return;
+        }
+        commentsByFile.remove(path);
+        commentCount -= clusters.length;
+        for (int entry : clusters) {
+            if (entry != UNCLUSTERED) {
+                int cluster = entry >>> 1;
+                if ((entry & 1) == 0) {
+                    exactSizes[cluster]--;
+                }
+                if (--sizes[cluster] == 0) {
+                    retire(cluster);
+                } else if (path.equals(representativePaths[cluster])) {
+                    representatives[cluster] = null;
+                    representativePaths[cluster] = null;
+                    orphans.add(cluster);
+                }
+            }
+        }
+    }
+
+    // Makes a remaining member the representative of every orphaned cluster, in one pass over
+    // the files however many there are
+    private void adoptOrphans() {
+        if (orphans.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, int[]> entry : clustersByFile.entrySet()) {
+            int[] clusters = entry.getValue();
+            for (int i = 0; i < clusters.length; i++) {
+                if (clusters[i] != UNCLUSTERED && orphans.remove(clusters[i] >>> 1)) {
+                    representatives[clusters[i] >>> 1] = commentsByFile.get(entry.getKey()).get(i);
+                    representativePaths[clusters[i] >>> 1] = entry.getKey();
+                    if (orphans.isEmpty()) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // Drops an empty cluster from the lookup tables and frees its slot
+    private void retire(int cluster) {
+        exactClusters.remove(clusterExactKeys[cluster], cluster);
+        for (int b = 0; b < BANDS; b++) {
+            bandClusters[b].remove(bandKey(signatures, cluster * HASHES, b), cluster);
+        }
+        representatives[cluster] = null;
+        representativePaths[cluster] = null;
+        orphans.remove(cluster);
+        freeClusters.push(cluster);
+    }
+
+    private int liveClusters() {
+        return clusterCount - freeClusters.size();
+    }
+
+    public synchronized void clear() {
+        exactClusters.clear();
+        for (LongIntTable table : bandClusters) {
+            table.clear();
+        }
+        Arrays.fill(representatives, 0, clusterCount, null);
+        Arrays.fill(representativePaths, 0, clusterCount, null);
+        clusterCount = 0;
+        freeClusters.clear();
+        orphans.clear();
+        clustersByFile.clear();
+        commentsByFile.clear();
+        commentCount = 0;
+    }
+
+    // Cluster key and representative text of every comment of the file in comment order; null
+    // if the file is not in the index. Keys are unique within the process.
+    public synchronized FileClusters fileClusters(String path) {
+        int[] clusters = clustersByFile.get(path);
+        if (clusters == null) {
+            return null;
+        }
+        adoptOrphans();
+        long[] keys = new long[clusters.length];
+        String[] texts = new String[clusters.length];
+        for (int i = 0; i < clusters.length; i++) {
+            if (clusters[i] == UNCLUSTERED) {
+                keys[i] = NO_CLUSTER;
+            } else {
+                keys[i] = clusterKey(clusters[i] >>> 1);
+                texts[i] = representatives[clusters[i] >>> 1].getContent();
+            }
+        }
+        return new FileClusters(keys, texts);
+    }
+
+    // Cluster key of an exact or near duplicate of the text, without adding it
+    public long findClusterKey(String content) {
+        long[] words = wordHashes(content);
+        if (words.length == 0) {
+            return NO_CLUSTER;
+        }
+        long exactKey = exactKey(words);
+        synchronized (this) {
+            int cluster = exactClusters.get(exactKey);
+            if (cluster >= 0) {
+                return clusterKey(cluster);
+            }
+        }
+        int[] signature = signature(words, exactKey);
+        synchronized (this) {
+            int cluster = findSimilar(signature);
+            return cluster >= 0 ? clusterKey(cluster) : NO_CLUSTER;
+        }
+    }
+
+    // The largest clusters with more than one comment, largest first
+    public synchronized List<Cluster> duplicateClusters(int limit) {
+        adoptOrphans();
+        PriorityQueue<Integer> largest = new PriorityQueue<>(Comparator.comparingInt((Integer c) -> sizes[c]));
+        for (int c = 0; c < clusterCount; c++) {
+            if (sizes[c] > 1) {
+                largest.add(c);
+                if (largest.size() > limit) {
+                    largest.poll();
+                }
+            }
+        }
+        List<Cluster> clusters = new ArrayList<>();
+        while (!largest.isEmpty()) {
+            int c = largest.poll();
+            List<String> files = filesOf(c, SAMPLE_FILES + 1);
+            clusters.add(new Cluster(representatives[c], representativePaths[c], sizes[c], exactSizes[c],
+                files.subList(0, Math.min(files.size(), SAMPLE_FILES)), files.size() > SAMPLE_FILES));
+        }
+        Collections.reverse(clusters);
+        return clusters;
+    }
+
+    public synchronized Stats getStats() {
+        long duplicateComments = 0;
+        int duplicateClusters = 0;
+        long nearDuplicates = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            if (sizes[c] > 1) {
+                duplicateClusters++;
+                duplicateComments += sizes[c] - 1;
+                nearDuplicates += sizes[c] - exactSizes[c];
+            }
+        }
+        return new Stats(commentCount, liveClusters(), duplicateClusters, duplicateComments, nearDuplicates,
+            liveClusters() >= maxClusters);
+    }
+
+    public String formatReport(int limit) {
+        StringBuilder report = new StringBuilder();
+        report.append("Duplicate Comments\n");
+        report.append("==================\n\n");
+        report.append(getStats()).append(String.format(" (similarity threshold %.2f)%n%n", threshold));
+        for (Cluster cluster : duplicateClusters(limit)) {
+            CommentLocation representative = cluster.getRepresentative();
+            report.append(String.format("%d copies (%d exact), first seen in %s line %d%n",
+                cluster.getSize(), cluster.getExactSize(), cluster.getRepresentativePath(),
+                representative.getLineNumber()));
+            report.append("  Files: ").append(String.join(", ", cluster.getSampleFiles()));
+            if (cluster.hasMoreFiles()) {
+                report.append(", ...");
+            }
+            report.append('\n');
+            report.append("  ").append(snippet(representative.getContent())).append("\n\n");
+        }
+        return report.toString();
+    }
+
+    private long clusterKey(int cluster) {
+        return generation << 40 | serials[cluster];
+    }
+
+    private int findSimilar(int[] signature) {
+        for (int b = 0; b < BANDS; b++) {
+            int cluster = bandClusters[b].get(bandKey(signature, b));
+            if (cluster >= 0 && agreement(signature, cluster) >= minAgreement) {
+                return cluster;
+            }
+        }
+        return -1;
+    }
+
+    private int newCluster(int[] signature, long exactKey, CommentLocation representative, String path) {
+        int cluster = !freeClusters.isEmpty() ? freeClusters.pop() : clusterCount++;
+        if (cluster == sizes.length) {
+            int capacity = (int) Math.min((long) sizes.length * 2, maxClusters);
+            signatures = Arrays.copyOf(signatures, capacity * HASHES);
+            sizes = Arrays.copyOf(sizes, capacity);
+            exactSizes = Arrays.copyOf(exactSizes, capacity);
+            representatives = Arrays.copyOf(representatives, capacity);
+            representativePaths = Arrays.copyOf(representativePaths, capacity);
+            clusterExactKeys = Arrays.copyOf(clusterExactKeys, capacity);
+            serials = Arrays.copyOf(serials, capacity);
+        }
+        System.arraycopy(signature, 0, signatures, cluster * HASHES, HASHES);
+        sizes[cluster] = 0;
+        exactSizes[cluster] = 0;
+        representatives[cluster] = representative;
+        representativePaths[cluster] = path;
+        clusterExactKeys[cluster] = exactKey;
+        serials[cluster] = nextSerial++;
+        exactClusters.put(exactKey, cluster);
+        for (int b = 0; b < BANDS; b++) {
+            bandClusters[b].putIfAbsent(bandKey(signature, b), cluster);
+        }
+        return cluster;
+    }
+
+    private int agreement(int[] signature, int cluster) {
+        int equal = 0;
+        int offset = cluster * HASHES;
+        for (int i = 0; i < HASHES; i++) {
+            if (signatures[offset + i] == signature[i]) {
+                equal++;
+            }
+        }
+        return equal;
+    }
+
+    private List<String> filesOf(int cluster, int limit) {
+        List<String> files = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : clustersByFile.entrySet()) {
+            for (int c : entry.getValue()) {
+                if (c != UNCLUSTERED && c >>> 1 == cluster) {
+                    files.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        Collections.sort(files);
+        return files.size() > limit ? new ArrayList<>(files.subList(0, limit)) : files;
+    }
+
+    // Hash of every word: runs of letters and digits, lowercased
+    private static long[] wordHashes(String text) {
+        long[] words = new long[16];
+        int count = 0;
+        long hash = 0;
+        boolean inWord = false;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                hash = (inWord ? hash : 0xcbf29ce484222325L) ^ Character.toLowerCase(c);
+                hash *= 0x100000001b3L;
+                inWord = true;
+            } else if (inWord) {
+                if (count == words.length) {
+                    words = Arrays.copyOf(words, count * 2);
+                }
+                words[count++] = hash;
+                inWord = false;
+            }
+        }
+        return Arrays.copyOf(words, count);
+    }
+
+    private static long exactKey(long[] words) {
+        long hash = words.length;
+        for (long word : words) {
+            hash = mix(hash * 31 + word);
+        }
+        return hash;
+    }
+
+    // MinHash over word shingles; texts shorter than a shingle are one shingle
+    private static int[] signature(long[] words, long exactKey) {
+        int[] signature = new int[HASHES];
+        Arrays.fill(signature, -1);
+        int shingles = Math.max(1, words.length - SHINGLE_WORDS + 1);
+        for (int s = 0; s < shingles; s++) {
+            long shingle = words.length < SHINGLE_WORDS ? exactKey
+                : mix(words[s] * 0x9E3779B97F4A7C15L + words[s + 1] * 0xC2B2AE3D27D4EB4FL + words[s + 2]);
+            for (int i = 0; i < HASHES; i++) {
+                int value = (int) ((MULTIPLIERS[i] * shingle + OFFSETS[i]) >>> 32);
+                if (Integer.compareUnsigned(value, signature[i]) < 0) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        return bandKey(signature, 0, band);
+    }
+
+    private static long bandKey(int[] signatures, int offset, int band) {
+        long hash = band;
+        for (int r = 0; r < ROWS; r++) {
+            hash = mix(hash * 31 + (signatures[offset + band * ROWS + r] & 0xFFFFFFFFL));
+        }
+        return hash;
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+
+    private static String snippet(String content) {
+        String line = content.replaceAll("\\s+", " ").trim();
+        return line.length() > 120 ? line.substring(0, 117) + "..." : line;
+    }
+
+    public static class Cluster {
+        private final CommentLocation representative;
+        private final String representativePath;
+        private final int size;
+        private final int exactSize;
+        private final List<String> sampleFiles;
+        private final boolean moreFiles;
+
+        Cluster(CommentLocation representative, String representativePath, int size, int exactSize,
+                List<String> sampleFiles, boolean moreFiles) {
+            this.representative = representative;
+            this.representativePath = representativePath;
+            this.size = size;
+            this.exactSize = exactSize;
+            this.sampleFiles = sampleFiles;
+            this.moreFiles = moreFiles;
+        }
+
+        public CommentLocation getRepresentative() { return representative; }
+        public String getRepresentativePath() { return representativePath; }
+        public int getSize() { return size; }
+        // Members with the same words as the representative, including it
+        public int getExactSize() { return exactSize; }
+        public List<String> getSampleFiles() { return sampleFiles; }
+        public boolean hasMoreFiles() { return moreFiles; }
+    }
+
+    public static class FileClusters {
+        private final long[] keys;
+        private final String[] representativeTexts;
+
+        FileClusters(long[] keys, String[] representativeTexts) {
+            this.keys = keys;
+            this.representativeTexts = representativeTexts;
+        }
+
+        public int size() { return keys.length; }
+        // NO_CLUSTER for a comment in no cluster
+        public long getKey(int i) { return keys[i]; }
+        // The text the whole cluster is scored from; null for a comment in no cluster
+        public String getRepresentativeText(int i) { return representativeTexts[i]; }
+    }
+
+    public static class Stats {
+        private final long comments;
+        private final int clusters;
+        private final int duplicateClusters;
+        private final long duplicateComments;
+        private final long nearDuplicates;
+        private final boolean full;
+
+        Stats(long comments, int clusters, int duplicateClusters, long duplicateComments, long nearDuplicates, boolean full) {
+            this.comments = comments;
+            this.clusters = clusters;
+            this.duplicateClusters = duplicateClusters;
+            this.duplicateComments = duplicateComments;
+            this.nearDuplicates = nearDuplicates;
+            this.full = full;
+        }
+
+        public long getComments() { return comments; }
+        public int getClusters() { return clusters; }
+        public int getDuplicateClusters() { return duplicateClusters; }
+        // Comments beyond the first of their cluster, which need no scoring of their own
+        public long getDuplicateComments() { return duplicateComments; }
+        public long getNearDuplicates() { return nearDuplicates; }
+        public boolean isFull() { return full; }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d comments are copies (%d near-duplicates) in %d clusters%s",
+                duplicateComments, comments, nearDuplicates, duplicateClusters,
+                full ? ", cluster limit reached" : "");
+        }
+    }
+
+    // Open-addressing map from long to non-negative int; get() returns -1 when absent
+    private static final class LongIntTable {
+        private long[] keys = new long[1024];
+        private int[] values = newValues(1024);
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] < 0) {
+                    return -1;
+                }
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+        }
+
+        void put(long key, int value) {
+            insert(key, value, true);
+        }
+
+        void putIfAbsent(long key, int value) {
+            insert(key, value, false);
+        }
+
+        // Removes the key only while it still maps to value
+        void remove(long key, int value) {
+            int mask = keys.length - 1;
+            int i = (int) mix(key) & mask;
+            while (values[i] >= 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] != value) {
+                return;
+            }
+            // Moves later entries of the probe sequence back into the gap, so they are still found
+            int gap = i;
+            for (int j = (gap + 1) & mask; values[j] >= 0; j = (j + 1) & mask) {
+                int home = (int) mix(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            values[gap] = -1;
+            size--;
+        }
+
+        void clear() {
+            keys = new long[1024];
+            values = newValues(1024);
+            size = 0;
+        }
+
+        private void insert(long key, int value, boolean replace) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+                if (values[i] < 0) {
+                    keys[i] = key;
+                    values[i] = value;
+                    size++;
+                    return;
+                }
+                if (keys[i] == key) {
+                    if (replace) {
+                        values[i] = value;
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = newValues(oldKeys.length * 2);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) {
+                    insert(oldKeys[i], oldValues[i], true);
+                }
+            }
+        }
+
+        private static int[] newValues(int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, -1);
+            return values;
+        }
+    }
+}
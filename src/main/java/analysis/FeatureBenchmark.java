@@ -0,0 +1,131 @@
+package analysis;
+
+import parser.CodeParser;
+import parser.LanguageConfig;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Command line benchmark for the rule checks the scorers make on a comment's text.
+ *
+ * Usage: {@code java analysis.FeatureBenchmark <corpus-dir> [rounds]}
+ *
+ * Compares the per-rule {@code matches()} and {@code contains()} scans the scorers used to
+ * make with one {@link CommentFeatures} pass. Every comment of the corpus is first checked
+ * to give the same rule outcomes both ways, then each way is timed over all comments.
+ */
+public class FeatureBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    // Keeps the results live so the timed loops are not optimized away
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FeatureBenchmark <corpus-dir> [rounds]");
+            System.exit(2);
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<String> comments = collectComments(Paths.get(args[0]));
+        long totalChars = comments.stream().mapToLong(String::length).sum();
+        System.out.printf("Corpus: %d comments, %.1f M chars%n", comments.size(), totalChars / 1e6);
+
+        int mismatches = 0;
+        for (String comment : comments) {
+            if (ruleScans(comment) != featureVector(comment)) {
+                mismatches++;
+            }
+        }
+        System.out.printf("Golden check: %s%n", mismatches == 0 ? "identical" : mismatches + " comment(s) differ");
+
+        double scanSeconds = time(comments, rounds, false);
+        double featureSeconds = time(comments, rounds, true);
+        System.out.printf("%-16s %10.0f comments/s%n", "Rule scans", comments.size() * rounds / scanSeconds);
+        System.out.printf("%-16s %10.0f comments/s%n", "Feature vector", comments.size() * rounds / featureSeconds);
+        System.out.printf("Speedup: %.1fx%n", scanSeconds / featureSeconds);
+
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static double time(List<String> comments, int rounds, boolean features) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(comments, features);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            run(comments, features);
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private static void run(List<String> comments, boolean features) {
+        long sum = 0;
+        for (String comment : comments) {
+            sum += features ? featureVector(comment) : ruleScans(comment);
+        }
+        sink = sum;
+    }
+
+    // Outcome of every text rule of the scorers, one bit each, the way they used to check them
+    private static long ruleScans(String c) {
+        long bits = 0;
+        if (c.contains("@param")) bits |= 1;
+        if (c.contains("@return")) bits |= 1 << 1;
+        if (c.contains("@throws")) bits |= 1 << 2;
+        if (c.contains("@author")) bits |= 1 << 3;
+        if (c.contains("@version")) bits |= 1 << 4;
+        if (c.contains("class") || c.contains("interface")) bits |= 1 << 5;
+        if (c.contains("Licensed")) bits |= 1 << 6;
+        if (c.contains("copyright")) bits |= 1 << 7;
+        if (c.matches("(?i).*(method|class|function|return|parameter|variable|object|interface).*")) bits |= 1 << 8;
+        if (c.startsWith("/*") || c.startsWith("/**")) bits |= 1 << 9;
+        if (c.endsWith("*/")) bits |= 1 << 10;
+        if (!c.contains("TODO") && !c.contains("FIXME")) bits |= 1 << 11;
+        if (c.matches("[A-Z].*")) bits |= 1 << 12;
+        if (!c.contains("!!!!") && !c.contains("????")) bits |= 1 << 13;
+        if (c.matches("^\\s*[A-Z].*")) bits |= 1 << 14;
+        return bits | (long) c.length() << 32;
+    }
+
+    private static long featureVector(String c) {
+        CommentFeatures f = CommentFeatures.extract(c);
+        long bits = 0;
+        if (f.has(CommentFeatures.Keyword.PARAM_TAG)) bits |= 1;
+        if (f.has(CommentFeatures.Keyword.RETURN_TAG)) bits |= 1 << 1;
+        if (f.has(CommentFeatures.Keyword.THROWS_TAG)) bits |= 1 << 2;
+        if (f.has(CommentFeatures.Keyword.AUTHOR_TAG)) bits |= 1 << 3;
+        if (f.has(CommentFeatures.Keyword.VERSION_TAG)) bits |= 1 << 4;
+        if (f.has(CommentFeatures.Keyword.CLASS) || f.has(CommentFeatures.Keyword.INTERFACE)) bits |= 1 << 5;
+        if (f.has(CommentFeatures.Keyword.LICENSED)) bits |= 1 << 6;
+        if (f.has(CommentFeatures.Keyword.COPYRIGHT)) bits |= 1 << 7;
+        if (f.isSingleLine() && f.hasTechnicalTerm()) bits |= 1 << 8;
+        if (f.startsWithBlockDelimiter()) bits |= 1 << 9;
+        if (f.endsWithBlockDelimiter()) bits |= 1 << 10;
+        if (!f.hasTodoOrFixme()) bits |= 1 << 11;
+        if (f.startsWithUppercase() && f.isSingleLine()) bits |= 1 << 12;
+        if (f.getExclamationRun() < 4 && f.getQuestionRun() < 4) bits |= 1 << 13;
+        if (f.startsWithUppercaseAfterWhitespace() && f.isSingleLineAfterLeadingWhitespace()) bits |= 1 << 14;
+        return bits | (long) f.getLength() << 32;
+    }
+
+    private static List<String> collectComments(Path root) throws IOException {
+        List<String> comments = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.filter(Files::isRegularFile).sorted().toList()) {
+                String language = LanguageConfig.detectLanguage(path.getFileName().toString(), null);
+                if (language == null) {
+                    continue;
+                }
+                File file = path.toFile();
+                for (CommentLocation comment : new CodeParser(language).extractCommentsWithLocations(file)) {
+                    comments.add(comment.getContent());
+                }
+            }
+        }
+        return comments;
+    }
+}
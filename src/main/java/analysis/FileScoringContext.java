@@ -0,0 +1,40 @@
+package analysis;
+
+import java.util.regex.Pattern;
+
+/**
+ * Structural state of one file while its comments are scored in order.
+ *
+ * Only comments that carry neither a declaration nor a captured {@link CommentContext} need
+ * it: their position is inferred from the code lines seen so far. Each file gets its own
+ * instance, so {@link CodeQualityAnalyzer} holds no per-file state and is safe to share
+ * between threads. An instance itself belongs to one thread at a time.
+ */
+public class FileScoringContext {
+    // An assignment or an access modifier anywhere in the line; compiled once, not per line
+    private static final Pattern MEMBER_LINE = Pattern.compile("\\s\\w+\\s*=|private|public|protected");
+
+    private String prevCodeLine = "";
+    private boolean beforeClass = true;
+    private boolean afterClassBeforeFields = false;
+    private boolean afterFieldsBeforeMethods = false;
+
+    // Moves past the code line that follows the comment being scored
+    void advance(String currentLine) {
+        if (currentLine.contains("class ") || currentLine.contains("interface ")) {
+            beforeClass = false;
+            afterClassBeforeFields = true;
+            afterFieldsBeforeMethods = false;
+        } else if (MEMBER_LINE.matcher(currentLine).find()) {
+            afterClassBeforeFields = false;
+        } else if (currentLine.contains("(") && currentLine.contains(")")) {
+            afterFieldsBeforeMethods = true;
+        }
+        prevCodeLine = currentLine;
+    }
+
+    public String getPrevCodeLine() { return prevCodeLine; }
+    public boolean isBeforeClass() { return beforeClass; }
+    public boolean isAfterClassBeforeFields() { return afterClassBeforeFields; }
+    public boolean isAfterFieldsBeforeMethods() { return afterFieldsBeforeMethods; }
+}
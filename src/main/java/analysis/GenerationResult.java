@@ -0,0 +1,47 @@
+package analysis;
+
+/**
+ * The answer of one streamed generation with its timings.
+ *
+ * Time to first token counts any token, reasoning included, since that is when the model
+ * started producing. Tokens per second uses the counts Ollama reports when the generation
+ * runs to the end, and the streamed chunks, one token each, when it was stopped early.
+ */
+public class GenerationResult {
+    private final String text;
+    private final long timeToFirstTokenNanos;
+    private final long totalNanos;
+    private final long tokens;
+    private final double tokensPerSecond;
+    private final boolean stoppedEarly;
+
+    GenerationResult(String text, long timeToFirstTokenNanos, long totalNanos, long tokens,
+                     double tokensPerSecond, boolean stoppedEarly) {
+        this.text = text;
+        this.timeToFirstTokenNanos = timeToFirstTokenNanos;
+        this.totalNanos = totalNanos;
+        this.tokens = tokens;
+        this.tokensPerSecond = tokensPerSecond;
+        this.stoppedEarly = stoppedEarly;
+    }
+
+    // The answer without the <think> section
+    public String getText() { return text; }
+    // -1 if no token arrived
+    public long getTimeToFirstTokenMillis() { return timeToFirstTokenNanos < 0 ? -1 : timeToFirstTokenNanos / 1_000_000; }
+    public long getTotalMillis() { return totalNanos / 1_000_000; }
+    public long getTokens() { return tokens; }
+    public double getTokensPerSecond() { return tokensPerSecond; }
+    // True if the stream was closed once the answer was complete, before the model finished
+    public boolean isStoppedEarly() { return stoppedEarly; }
+
+    @Override
+    public String toString() {
+        if (timeToFirstTokenNanos < 0) {
+            return String.format("no tokens in %.1f s", totalNanos / 1e9);
+        }
+        return String.format("first token %.1f s, %.1f tokens/s, %d tokens in %.1f s%s",
+            timeToFirstTokenNanos / 1e9, tokensPerSecond, tokens, totalNanos / 1e9,
+            stoppedEarly ? ", stopped early" : "");
+    }
+}
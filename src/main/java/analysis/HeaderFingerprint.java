@@ -0,0 +1,90 @@
+package analysis;
+
+import java.util.Arrays;
+
+/**
+ * Rolling-hash fingerprint of a comment's words, used to recognize repeated file headers and
+ * known license texts without regular expressions.
+ *
+ * The text is reduced to lowercase words (runs of letters and digits), so comment markers,
+ * line breaks and indentation do not change the fingerprint. The hash covers the whole word
+ * sequence; the window hashes cover every run of {@link #WINDOW} consecutive words and are
+ * kept up to date with a Rabin–Karp rolling hash, one multiply-add per word.
+ */
+public final class HeaderFingerprint {
+    static final int WINDOW = 5;
+    private static final long BASE = 0x9E3779B97F4A7C15L;
+    // BASE to the power WINDOW - 1, the weight of the word that leaves the window
+    private static final long LEAVING_WEIGHT;
+
+    static {
+        long weight = 1;
+        for (int i = 1; i < WINDOW; i++) {
+            weight *= BASE;
+        }
+        LEAVING_WEIGHT = weight;
+    }
+
+    private final long hash;
+    private final int words;
+    private final int length;
+    private final long[] windows;
+
+    private HeaderFingerprint(long hash, int words, int length, long[] windows) {
+        this.hash = hash;
+        this.words = words;
+        this.length = length;
+        this.windows = windows;
+    }
+
+    public static HeaderFingerprint of(String text) {
+        long[] windows = new long[16];
+        int windowCount = 0;
+        long[] recent = new long[WINDOW];
+        long hash = 0;
+        long rolling = 0;
+        long word = 0;
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word = (inWord ? word : 0xcbf29ce484222325L) ^ Character.toLowerCase(c);
+                word *= 0x100000001b3L;
+                inWord = true;
+            } else if (inWord) {
+                inWord = false;
+                hash = hash * BASE + word;
+                int slot = words % WINDOW;
+                if (words >= WINDOW) {
+                    rolling -= recent[slot] * LEAVING_WEIGHT;
+                }
+                rolling = rolling * BASE + word;
+                recent[slot] = word;
+                if (++words >= WINDOW) {
+                    if (windowCount == windows.length) {
+                        windows = Arrays.copyOf(windows, windowCount * 2);
+                    }
+                    windows[windowCount++] = rolling;
+                }
+            }
+        }
+        long mixed = mix(hash + words);
+        return new HeaderFingerprint(mixed != HeaderIndex.NO_HEADER ? mixed : 1, words, text.length(),
+            Arrays.copyOf(windows, windowCount));
+    }
+
+    // Never HeaderIndex.NO_HEADER
+    public long getHash() { return hash; }
+    public int getWords() { return words; }
+    public int getLength() { return length; }
+
+    // Hash of every window of WINDOW consecutive words, in text order
+    long[] getWindows() { return windows; }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return x ^ (x >>> 33);
+    }
+}
@@ -0,0 +1,210 @@
+package analysis;
+
+import java.util.*;
+
+/**
+ * The leading comment of every file, grouped by {@link HeaderFingerprint}, so each distinct
+ * file header is looked at once however many files repeat it.
+ *
+ * Built while files are extracted, like {@link DuplicateIndex}. Each distinct header is
+ * checked against {@link KnownLicenses} once, when it is first seen. Headers that carry a
+ * known license are left out of AI analysis, and any other header is sent once. The report
+ * shows how much of the comment text the repeated headers account for.
+ */
+public class HeaderIndex {
+    public static final long NO_HEADER = 0;
+
+    private final Map<Long, Header> headers = new HashMap<>();
+    private final Map<String, FileEntry> files = new HashMap<>();
+    private long commentChars;
+
+    // Adds or replaces the comments of a file
+    public void addFile(String path, List<CommentLocation> comments) {
+        long chars = 0;
+        for (CommentLocation comment : comments) {
+            chars += comment.getContent().length();
+        }
+        CommentLocation first = leadingComment(comments);
+        HeaderFingerprint fingerprint = first != null ? HeaderFingerprint.of(first.getContent()) : null;
+        String license = null;
+        if (fingerprint != null && !contains(fingerprint.getHash())) {
+            license = KnownLicenses.recognize(fingerprint);
+        }
+
+        synchronized (this) {
+            removeFile(path);
+            long key = NO_HEADER;
+            if (fingerprint != null) {
+                key = fingerprint.getHash();
+                Header header = headers.get(key);
+                if (header == null) {
+                    header = new Header(first, path, fingerprint.getLength(), license);
+                    headers.put(key, header);
+                }
+                header.files++;
+            }
+            files.put(path, new FileEntry(key, chars));
+            commentChars += chars;
+        }
+    }
+
+    public synchronized void removeFile(String path) {
+        FileEntry entry = files.remove(path);
+        if (entry == null) {
+            return;
+        }
+        commentChars -= entry.chars;
+        if (entry.header != NO_HEADER) {
+            Header header = headers.get(entry.header);
+            if (--header.files == 0) {
+                headers.remove(entry.header);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        headers.clear();
+        files.clear();
+        commentChars = 0;
+    }
+
+    // Key of the file's header, or NO_HEADER if it has none or is not in the index
+    public synchronized long headerKey(String path) {
+        FileEntry entry = files.get(path);
+        return entry != null ? entry.header : NO_HEADER;
+    }
+
+    // Key of a header in the index with the same words as the text, or NO_HEADER
+    public long findHeaderKey(String content) {
+        long key = HeaderFingerprint.of(content).getHash();
+        return contains(key) ? key : NO_HEADER;
+    }
+
+    public synchronized Header getHeader(long key) {
+        return headers.get(key);
+    }
+
+    // Headers shared by more than one file, most repeated text first
+    public synchronized List<Header> repeatedHeaders(int limit) {
+        return headers.values().stream()
+            .filter(header -> header.files > 1)
+            .sorted(Comparator.comparingLong(Header::getRepeatedChars).reversed())
+            .limit(limit)
+            .toList();
+    }
+
+    public synchronized Stats getStats() {
+        int filesWithHeader = 0;
+        int licensedFiles = 0;
+        long repeatedChars = 0;
+        for (Header header : headers.values()) {
+            filesWithHeader += header.files;
+            if (header.isKnownLicense()) {
+                licensedFiles += header.files;
+            }
+            repeatedChars += header.getRepeatedChars();
+        }
+        return new Stats(files.size(), filesWithHeader, headers.size(), licensedFiles, commentChars, repeatedChars);
+    }
+
+    public String formatReport(int limit) {
+        StringBuilder report = new StringBuilder();
+        report.append("Repeated File Headers\n");
+        report.append("=====================\n\n");
+        report.append(getStats()).append("\n\n");
+        for (Header header : repeatedHeaders(limit)) {
+            report.append(String.format("%d files%s, first seen in %s%n", header.getFiles(),
+                header.isKnownLicense() ? " (" + header.getLicense() + ")" : "", header.getPath()));
+            String line = header.getRepresentative().getContent().replaceAll("\\s+", " ").trim();
+            report.append("  ").append(line.length() > 120 ? line.substring(0, 117) + "..." : line).append("\n\n");
+        }
+        return report.toString();
+    }
+
+    // The first comment if it comes before any code in the file
+    static CommentLocation leadingComment(List<CommentLocation> comments) {
+        if (comments.isEmpty()) {
+            return null;
+        }
+        CommentLocation first = comments.get(0);
+        if (first.getDeclaration() != null) {
+            return first.getDeclaration().getKind() == DeclarationContext.Kind.FILE ? first : null;
+        }
+        if (first.getContext() != null) {
+            return first.getContext().getPosition() == CommentContext.Position.FILE_HEADER ? first : null;
+        }
+        return first.getLineNumber() == 1 ? first : null;
+    }
+
+    private synchronized boolean contains(long key) {
+        return headers.containsKey(key);
+    }
+
+    public static class Header {
+        private final CommentLocation representative;
+        private final String path;
+        private final int length;
+        private final String license;
+        private int files;
+
+        Header(CommentLocation representative, String path, int length, String license) {
+            this.representative = representative;
+            this.path = path;
+            this.length = length;
+            this.license = license;
+        }
+
+        public CommentLocation getRepresentative() { return representative; }
+        public String getPath() { return path; }
+        public int getLength() { return length; }
+        // SPDX identifier of the license the header carries, or null
+        public String getLicense() { return license; }
+        public boolean isKnownLicense() { return license != null; }
+        public int getFiles() { return files; }
+        // Characters of the copies after the first
+        public long getRepeatedChars() { return (long) length * (files - 1); }
+    }
+
+    public static class Stats {
+        private final int files;
+        private final int filesWithHeader;
+        private final int distinctHeaders;
+        private final int licensedFiles;
+        private final long commentChars;
+        private final long repeatedChars;
+
+        Stats(int files, int filesWithHeader, int distinctHeaders, int licensedFiles, long commentChars, long repeatedChars) {
+            this.files = files;
+            this.filesWithHeader = filesWithHeader;
+            this.distinctHeaders = distinctHeaders;
+            this.licensedFiles = licensedFiles;
+            this.commentChars = commentChars;
+            this.repeatedChars = repeatedChars;
+        }
+
+        public int getFiles() { return files; }
+        public int getFilesWithHeader() { return filesWithHeader; }
+        public int getDistinctHeaders() { return distinctHeaders; }
+        public int getLicensedFiles() { return licensedFiles; }
+        public long getCommentChars() { return commentChars; }
+        public long getRepeatedChars() { return repeatedChars; }
+
+        @Override
+        public String toString() {
+            return String.format("%d distinct headers in %d of %d files, %d with a known license; "
+                    + "repeats are %.1f%% of comment text",
+                distinctHeaders, filesWithHeader, files, licensedFiles,
+                commentChars > 0 ? 100.0 * repeatedChars / commentChars : 0);
+        }
+    }
+
+    private static class FileEntry {
+        final long header;
+        final long chars;
+
+        FileEntry(long header, long chars) {
+            this.header = header;
+            this.chars = chars;
+        }
+    }
+}
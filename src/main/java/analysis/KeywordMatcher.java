@@ -0,0 +1,139 @@
+package analysis;
+
+import java.util.*;
+
+/**
+ * Finds which of up to 64 ASCII keywords occur in a text, in one pass (Aho–Corasick).
+ *
+ * The automaton is built from the lowercased keywords and fully expanded, with uppercase
+ * letters taking the lowercase transitions, so every input character costs one table lookup.
+ * Keywords that are case sensitive are confirmed against the original text when they match.
+ * Characters outside ASCII never continue a match.
+ */
+public class KeywordMatcher {
+    private static final int ALPHABET = 128;
+
+    private final String[] keywords;
+    private final long caseSensitive;
+    private final int[] transitions;
+    private final long[] outputs;
+
+    public KeywordMatcher(List<String> keywords, List<Boolean> ignoreCase) {
+        if (keywords.size() > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " keywords are supported");
+        }
+        this.keywords = keywords.toArray(new String[0]);
+
+        long sensitive = 0;
+        List<int[]> gotos = new ArrayList<>();
+        List<Long> found = new ArrayList<>();
+        gotos.add(newState());
+        found.add(0L);
+        for (int k = 0; k < this.keywords.length; k++) {
+            String keyword = this.keywords[k];
+            if (keyword.isEmpty() || !keyword.chars().allMatch(c -> c < ALPHABET)) {
+                throw new IllegalArgumentException("Keywords must be non-empty ASCII: " + keyword);
+            }
+            if (!ignoreCase.get(k)) {
+                sensitive |= 1L << k;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                int c = lower(keyword.charAt(i));
+                if (gotos.get(state)[c] < 0) {
+                    gotos.get(state)[c] = gotos.size();
+                    gotos.add(newState());
+                    found.add(0L);
+                }
+                state = gotos.get(state)[c];
+            }
+            found.set(state, found.get(state) | 1L << k);
+        }
+        this.caseSensitive = sensitive;
+
+        // Breadth-first over the trie: missing transitions follow the failure link, and every
+        // state also reports the keywords of the state its failure link points to
+        int states = gotos.size();
+        this.transitions = new int[states * ALPHABET];
+        this.outputs = new long[states];
+        int[] failure = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = gotos.get(0)[c];
+            transitions[c] = Math.max(child, 0);
+            if (child > 0) {
+                queue.add(child);
+            }
+        }
+        outputs[0] = found.get(0);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] = found.get(state) | outputs[failure[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = gotos.get(state)[c];
+                if (child >= 0) {
+                    failure[child] = transitions[failure[state] * ALPHABET + c];
+                    transitions[state * ALPHABET + c] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * ALPHABET + c] = transitions[failure[state] * ALPHABET + c];
+                }
+            }
+        }
+        // Uppercase input follows the lowercase transitions, so no folding is needed per character
+        for (int state = 0; state < states; state++) {
+            System.arraycopy(transitions, state * ALPHABET + 'a', transitions, state * ALPHABET + 'A', 26);
+        }
+    }
+
+    // Bit k is set if keyword k occurs in the text
+    public long match(CharSequence text) {
+        long matched = 0;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            matched = matchedAt(text, i, state, matched);
+        }
+        return matched;
+    }
+
+    // For callers that scan the text themselves: start from state 0, feed every character to
+    // next() and pass each resulting state to matchedAt()
+    public int next(int state, char c) {
+        return c < ALPHABET ? transitions[state * ALPHABET + c] : 0;
+    }
+
+    // Adds the keywords that end at position end of the text, reached in the given state
+    public long matchedAt(CharSequence text, int end, int state, long matched) {
+        long output = outputs[state] & ~matched;
+        return output == 0 ? matched : matched | confirm(text, end, output);
+    }
+
+    // Drops case-sensitive keywords whose match ends at end but differs in case
+    private long confirm(CharSequence text, int end, long output) {
+        long sensitive = output & caseSensitive;
+        while (sensitive != 0) {
+            int k = Long.numberOfTrailingZeros(sensitive);
+            sensitive &= sensitive - 1;
+            String keyword = keywords[k];
+            int start = end - keyword.length() + 1;
+            for (int i = 0; i < keyword.length(); i++) {
+                if (text.charAt(start + i) != keyword.charAt(i)) {
+                    output &= ~(1L << k);
+                    break;
+                }
+            }
+        }
+        return output;
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private static int lower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
@@ -0,0 +1,170 @@
+package analysis;
+
+import java.util.Arrays;
+
+/**
+ * Recognizes common license notices from the word windows of a {@link HeaderFingerprint},
+ * looked up in a hash table built once from the notice texts below.
+ *
+ * A text carries a license when it contains at least {@link #MIN_COVERAGE} of that license's
+ * windows, so the copyright lines, years and holders around a notice do not matter. When
+ * several licenses qualify, the one with the most matching windows wins, and on a tie the one
+ * listed first, so a notice listed before its longer variants is not mistaken for them.
+ */
+final class KnownLicenses {
+    private static final double MIN_COVERAGE = 0.6;
+
+    private static final String[][] NOTICES = {
+        {"Apache-2.0", """
+            Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+            file except in compliance with the License. You may obtain a copy of the License at
+            http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law or agreed
+            to in writing, software distributed under the License is distributed on an "AS IS"
+            BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+            License for the specific language governing permissions and limitations under the
+            License."""},
+        {"MIT", """
+            Permission is hereby granted, free of charge, to any person obtaining a copy of this
+            software and associated documentation files (the "Software"), to deal in the Software
+            without restriction, including without limitation the rights to use, copy, modify,
+            merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+            permit persons to whom the Software is furnished to do so, subject to the following
+            conditions: The above copyright notice and this permission notice shall be included in
+            all copies or substantial portions of the Software. THE SOFTWARE IS PROVIDED "AS IS",
+            WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED."""},
+        {"BSD-2-Clause", """
+            Redistribution and use in source and binary forms, with or without modification, are
+            permitted provided that the following conditions are met: Redistributions of source
+            code must retain the above copyright notice, this list of conditions and the following
+            disclaimer. Redistributions in binary form must reproduce the above copyright notice,
+            this list of conditions and the following disclaimer in the documentation and/or other
+            materials provided with the distribution. THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT
+            HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT
+            NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+            PURPOSE ARE DISCLAIMED."""},
+        {"BSD-3-Clause", """
+            Redistribution and use in source and binary forms, with or without modification, are
+            permitted provided that the following conditions are met: Redistributions of source
+            code must retain the above copyright notice, this list of conditions and the following
+            disclaimer. Redistributions in binary form must reproduce the above copyright notice,
+            this list of conditions and the following disclaimer in the documentation and/or other
+            materials provided with the distribution. Neither the name of the copyright holder nor
+            the names of its contributors may be used to endorse or promote products derived from
+            this software without specific prior written permission. THIS SOFTWARE IS PROVIDED BY
+            THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+            INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+            FOR A PARTICULAR PURPOSE ARE DISCLAIMED."""},
+        {"GPL-2.0-only", """
+            This code is free software; you can redistribute it and/or modify it under the terms
+            of the GNU General Public License version 2 only, as published by the Free Software
+            Foundation. This code is distributed in the hope that it will be useful, but WITHOUT
+            ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+            PARTICULAR PURPOSE. See the GNU General Public License version 2 for more details (a
+            copy is included in the LICENSE file that accompanied this code)."""},
+        {"GPL-2.0-with-classpath-exception", """
+            This code is free software; you can redistribute it and/or modify it under the terms
+            of the GNU General Public License version 2 only, as published by the Free Software
+            Foundation. Oracle designates this particular file as subject to the "Classpath"
+            exception as provided by Oracle in the LICENSE file that accompanied this code. This
+            code is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+            without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+            PURPOSE. See the GNU General Public License version 2 for more details (a copy is
+            included in the LICENSE file that accompanied this code)."""},
+        {"GPL-2.0-or-later", """
+            This program is free software; you can redistribute it and/or modify it under the
+            terms of the GNU General Public License as published by the Free Software Foundation;
+            either version 2 of the License, or (at your option) any later version. This program
+            is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+            even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See
+            the GNU General Public License for more details."""},
+        {"GPL-3.0-or-later", """
+            This program is free software: you can redistribute it and/or modify it under the
+            terms of the GNU General Public License as published by the Free Software Foundation,
+            either version 3 of the License, or (at your option) any later version. This program
+            is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+            even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See
+            the GNU General Public License for more details."""},
+        {"LGPL-2.1-or-later", """
+            This library is free software; you can redistribute it and/or modify it under the
+            terms of the GNU Lesser General Public License as published by the Free Software
+            Foundation; either version 2.1 of the License, or (at your option) any later version.
+            This library is distributed in the hope that it will be useful, but WITHOUT ANY
+            WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+            PARTICULAR PURPOSE. See the GNU Lesser General Public License for more details."""},
+        {"MPL-2.0", """
+            This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+            If a copy of the MPL was not distributed with this file, You can obtain one at
+            http://mozilla.org/MPL/2.0/."""},
+        {"EPL-2.0", """
+            This program and the accompanying materials are made available under the terms of the
+            Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0"""},
+    };
+
+    // Open addressing from window hash to the licenses containing it, one bit per license;
+    // a mask of 0 marks an empty slot
+    private static final long[] TABLE_KEYS;
+    private static final long[] TABLE_MASKS;
+    private static final int[] WINDOW_COUNTS = new int[NOTICES.length];
+
+    static {
+        long[][] noticeWindows = new long[NOTICES.length][];
+        int total = 0;
+        for (int l = 0; l < NOTICES.length; l++) {
+            noticeWindows[l] = Arrays.stream(HeaderFingerprint.of(NOTICES[l][1]).getWindows())
+                .distinct().toArray();
+            WINDOW_COUNTS[l] = noticeWindows[l].length;
+            total += WINDOW_COUNTS[l];
+        }
+        int capacity = Integer.highestOneBit(total * 4);
+        TABLE_KEYS = new long[capacity];
+        TABLE_MASKS = new long[capacity];
+        for (int l = 0; l < NOTICES.length; l++) {
+            for (long window : noticeWindows[l]) {
+                int slot = slotOf(window);
+                TABLE_KEYS[slot] = window;
+                TABLE_MASKS[slot] |= 1L << l;
+            }
+        }
+    }
+
+    private KnownLicenses() {
+    }
+
+    // SPDX identifier of the license the text carries, or null
+    static String recognize(String text) {
+        return recognize(HeaderFingerprint.of(text));
+    }
+
+    static String recognize(HeaderFingerprint fingerprint) {
+        long[] windows = fingerprint.getWindows();
+        if (windows.length == 0) {
+            return null;
+        }
+        int[] matches = new int[NOTICES.length];
+        for (long window : windows) {
+            long mask = TABLE_MASKS[slotOf(window)];
+            while (mask != 0) {
+                matches[Long.numberOfTrailingZeros(mask)]++;
+                mask &= mask - 1;
+            }
+        }
+
+        int best = -1;
+        for (int l = 0; l < NOTICES.length; l++) {
+            if (matches[l] >= MIN_COVERAGE * WINDOW_COUNTS[l] && (best < 0 || matches[l] > matches[best])) {
+                best = l;
+            }
+        }
+        return best >= 0 ? NOTICES[best][0] : null;
+    }
+
+    // The slot holding the window, or the empty slot where it would go
+    private static int slotOf(long window) {
+        int mask = TABLE_KEYS.length - 1;
+        int slot = (int) (window ^ (window >>> 32)) & mask;
+        while (TABLE_MASKS[slot] != 0 && TABLE_KEYS[slot] != window) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -1,84 +1,442 @@
 package analysis;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import utils.Threads;
 
+/**
+ * Client for the Ollama generate API.
+ *
+ * Requests are sent with {@link HttpClient#sendAsync}, so no thread waits on the network. A
+ * fixed number of permits caps the requests in flight: the async methods take a permit before
+ * sending and block the caller while none is free, which pauses whatever is feeding comments
+ * in until a response comes back. The permit is returned when the response arrives or the
+ * request fails. Every request goes to the endpoint an {@link OllamaRouter} picks for it.
+ *
+ * The streaming methods ask Ollama for NDJSON chunks and read them line by line as they
+ * arrive (see {@link StreamingGeneration}), passing the answer text on while it is generated
+ * and closing the stream as soon as the answer is complete.
+ *
+ * The packed method analyzes several comments with one prompt, numbered so the JSON array
+ * the model is asked for can be matched back to them. It shares the preamble and the
+ * request overhead between the comments; {@link PromptPacker} decides how many fit.
+ *
+ * Every request has a deadline, {@link #DEFAULT_REQUEST_TIMEOUT} unless given, longer for
+ * packed prompts. A request that times out or finds the endpoint unavailable is sent again,
+ * up to {@link #MAX_ATTEMPTS} times, after a random backoff that doubles with each attempt,
+ * as long as the deadline leaves room; a stream is only sent again if none of its answer was
+ * passed on yet. The outcome is reported to the router's {@link CircuitBreaker}, and while it
+ * is open requests fail at once. Failures complete the futures with an
+ * {@link OllamaException} telling what went wrong.
+ */
 public class OllamaClient {
+    public static final String DEFAULT_BASE_URL = "http://localhost:11434";
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    // Bump whenever the analysis prompts change, single or packed, so results of the old
+    // prompts are not reused
+    public static final int ANALYSIS_PROMPT_VERSION = 1;
+    // Ollama's default context window, assumed if the model's cannot be looked up
+    public static final int DEFAULT_CONTEXT_TOKENS = 2048;
+    // Largest context window asked for with packed prompts, to leave memory to other users
+    public static final int MAX_PACKED_CONTEXT_TOKENS = 8192;
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    // Covers every attempt of a request, not each of them
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(120);
+    public static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 8000;
+    // A packed prompt gets one request timeout per this many comments
+    private static final int PACKED_COMMENTS_PER_TIMEOUT = 4;
+    private static final String MODEL = "deepseek-r1:7b";
+
+    private static final JSONObject PACKED_FORMAT = new JSONObject()
+        .put("type", "array")
+        .put("items", new JSONObject()
+            .put("type", "object")
+            .put("properties", new JSONObject()
+                .put("id", new JSONObject().put("type", "integer"))
+                .put("analysis", new JSONObject().put("type", "string")))
+            .put("required", new JSONArray().put("id").put("analysis")));
+
     private final HttpClient client;
-    private final String baseUrl;
+    private final OllamaRouter router;
+    private final int maxInFlight;
+    private final Duration requestTimeout;
+    private final Semaphore permits;
+    private volatile Integer contextTokens;
+
+    // Uses the default router, with DEFAULT_MAX_IN_FLIGHT requests per endpoint
+    public OllamaClient() {
+        this(OllamaRouter.getDefault(), DEFAULT_MAX_IN_FLIGHT * OllamaRouter.getDefault().size());
+    }
 
     public OllamaClient(String baseUrl) {
-        this.client = HttpClient.newHttpClient();
-        this.baseUrl = baseUrl;
+        this(baseUrl, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public OllamaClient(String baseUrl, int maxInFlight) {
+        this(new OllamaRouter(List.of(baseUrl)), maxInFlight);
+    }
+
+    // maxInFlight caps the requests over all the router's endpoints; with equal weights and
+    // every endpoint up, no endpoint gets more than its share
+    public OllamaClient(OllamaRouter router, int maxInFlight) {
+        this(router, maxInFlight, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    public OllamaClient(OllamaRouter router, int maxInFlight, Duration requestTimeout) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        }
+        if (requestTimeout.isNegative() || requestTimeout.isZero()) {
+            throw new IllegalArgumentException("requestTimeout must be positive: " + requestTimeout);
+        }
+        HttpClient.Builder builder = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT);
+        if (Threads.isVirtual()) {
+            // Response handling and the stages depending on it run on virtual threads
+            builder.executor(Threads.newCachedExecutor("ollama-http"));
+        }
+        this.client = builder.build();
+        this.router = router;
+        this.maxInFlight = maxInFlight;
+        this.requestTimeout = requestTimeout;
+        this.permits = new Semaphore(maxInFlight, true);
+    }
+
+    public String generateAnalysis(String comment) throws OllamaException {
+        return await(generateAnalysisAsync(comment));
+    }
+
+    public String generateComment(String code) throws OllamaException {
+        return await(generateCommentAsync(code));
+    }
+
+    // Completes with the model's response, or with an OllamaException if the request fails
+    public CompletableFuture<String> generateAnalysisAsync(String comment) {
+        return generate(String.format("""
+            Analyze this code comment and provide insights:
+            %s
+
+            Consider:
+            1. Comment clarity and completeness
+            2. Technical accuracy
+            3. Documentation standards
+            4. Suggested improvements
+
+            Provide a concise analysis.
+            """, comment));
+    }
+
+    // onAnswerText receives the answer as it arrives, without the <think> section, on an
+    // HttpClient thread
+    public CompletableFuture<GenerationResult> streamAnalysisAsync(String comment, Consumer<String> onAnswerText) {
+        return stream(String.format("""
+            Analyze this code comment and provide insights:
+            %s
+
+            Consider:
+            1. Comment clarity and completeness
+            2. Technical accuracy
+            3. Documentation standards
+            4. Suggested improvements
+
+            Provide a concise analysis, then a line containing only %s.
+            """, comment, StreamingGeneration.ANSWER_END), onAnswerText);
+    }
+
+    // One analysis per comment, in order, or null where the response had none for it.
+    // Fails with a BAD_RESPONSE OllamaException if the response holds no readable JSON array.
+    public CompletableFuture<List<String>> generatePackedAnalysisAsync(List<String> comments, int contextTokens) {
+        StringBuilder prompt = new StringBuilder("""
+            Analyze each of the numbered code comments below and provide insights on:
+            1. Comment clarity and completeness
+            2. Technical accuracy
+            3. Documentation standards
+            4. Suggested improvements
+
+            Respond with only a JSON array holding one object per comment:
+            [{"id": <comment number>, "analysis": "<concise analysis>"}]
+            """);
+        for (int i = 0; i < comments.size(); i++) {
+            prompt.append("\nComment ").append(i + 1).append(":\n").append(comments.get(i)).append('\n');
+        }
+        JSONObject request = request(prompt.toString(), false)
+            .put("format", PACKED_FORMAT)
+            .put("options", new JSONObject().put("num_ctx", contextTokens));
+        int timeouts = (comments.size() + PACKED_COMMENTS_PER_TIMEOUT - 1) / PACKED_COMMENTS_PER_TIMEOUT;
+        return generate(request, requestTimeout.multipliedBy(Math.max(1, timeouts))).thenApply(response -> {
+            try {
+                return parsePackedAnalyses(response, comments.size());
+            } catch (JSONException e) {
+                throw new CompletionException(OllamaException.of(e));
+            }
+        });
+    }
+
+    // The model's context window, capped at MAX_PACKED_CONTEXT_TOKENS; looked up once
+    public int getContextTokens() {
+        Integer known = contextTokens;
+        if (known == null) {
+            known = lookUpContextTokens();
+            contextTokens = known;
+        }
+        return known;
+    }
+
+    public CompletableFuture<String> generateCommentAsync(String code) {
+        return generate(String.format("""
+            Generate a clear and concise comment for this code:
+            %s
+
+            Focus on:
+            1. Purpose
+            2. Parameters
+            3. Return values
+            4. Important details
+
+            Format as a JavaDoc comment.
+            """, code));
+    }
+
+    public String getModel() { return MODEL; }
+    public OllamaRouter getRouter() { return router; }
+    public int getMaxInFlight() { return maxInFlight; }
+    public Duration getRequestTimeout() { return requestTimeout; }
+    public int getInFlight() { return maxInFlight - permits.availablePermits(); }
+    // Callers blocked waiting for a permit
+    public int getWaiting() { return permits.getQueueLength(); }
+
+    private CompletableFuture<String> generate(String prompt) {
+        return generate(request(prompt, false), requestTimeout);
+    }
+
+    private JSONObject request(String prompt, boolean stream) {
+        return new JSONObject()
+            .put("model", MODEL)
+            .put("prompt", prompt)
+            .put("stream", stream);
+    }
+
+    private CompletableFuture<String> generate(JSONObject body, Duration timeout) {
+        return send(timeout, remaining -> generateOnce(body, remaining), () -> true);
     }
 
-    public String generateAnalysis(String comment) {
+    private CompletableFuture<String> generateOnce(JSONObject body, Duration timeout) {
+        OllamaRouter.Node node = router.acquire();
+        long start = System.nanoTime();
+        CompletableFuture<String> response;
         try {
-            String prompt = String.format("""
-                Analyze this code comment and provide insights:
-                %s
-                
-                Consider:
-                1. Comment clarity and completeness
-                2. Technical accuracy
-                3. Documentation standards
-                4. Suggested improvements
-                
-                Provide a concise analysis.
-                """, comment);
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(node.getBaseUrl() + "/api/generate"))
+                .header("Content-Type", "application/json")
+                .timeout(timeout)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+            response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(result -> {
+                if (result.statusCode() != 200) {
+                    throw new CompletionException(OllamaException.forStatus(result.statusCode(), result.body()));
+                }
+                return new JSONObject(result.body()).getString("response");
+            });
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        return response.whenComplete((text, error) -> router.release(node, System.nanoTime() - start, reachable(error)));
+    }
+
+    private CompletableFuture<GenerationResult> stream(String prompt, Consumer<String> onAnswerText) {
+        AtomicReference<StreamingGeneration> latest = new AtomicReference<>();
+        return send(requestTimeout, remaining -> {
+            StreamingGeneration generation = new StreamingGeneration(onAnswerText, System.nanoTime());
+            latest.set(generation);
+            return streamOnce(prompt, generation, remaining);
+        }, () -> !latest.get().hasEmitted());
+    }
 
+    private CompletableFuture<GenerationResult> streamOnce(String prompt, StreamingGeneration generation, Duration timeout) {
+        OllamaRouter.Node node = router.acquire();
+        long start = System.nanoTime();
+        try {
             HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/api/generate"))
+                .uri(URI.create(node.getBaseUrl() + "/api/generate"))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(new JSONObject()
-                    .put("model", "deepseek-r1:7b")
-                    .put("prompt", prompt)
-                    .put("stream", false)
-                    .toString()))
+                .timeout(timeout)
+                .POST(HttpRequest.BodyPublishers.ofString(request(prompt, true).toString()))
                 .build();
+            client.sendAsync(request, info -> {
+                    if (info.statusCode() != 200) {
+                        generation.fail(OllamaException.forStatus(info.statusCode(), null));
+                    }
+                    return HttpResponse.BodySubscribers.fromLineSubscriber(generation);
+                })
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        generation.fail(error);
+                    }
+                });
+            // The request timeout only covers the wait for the response headers
+            CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS).execute(() ->
+                generation.cancel(new HttpTimeoutException("No complete answer within " + timeout.toMillis() + " ms")));
+        } catch (RuntimeException e) {
+            generation.fail(e);
+        }
+        // The node is released when the answer is complete, not when the stream ends
+        return generation.result().whenComplete((result, error) -> router.release(node, System.nanoTime() - start, reachable(error)));
+    }
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            JSONObject jsonResponse = new JSONObject(response.body());
-            return jsonResponse.getString("response");
-        } catch (Exception e) {
-            return "Failed to analyze comment: " + e.getMessage();
+    // Sends attempts until one succeeds, its failure is not worth retrying, or the deadline
+    // would pass during the backoff. One permit is held over all the attempts, so retries
+    // do not add to the requests in flight.
+    private <T> CompletableFuture<T> send(Duration timeout, Function<Duration, CompletableFuture<T>> attempt,
+                                          BooleanSupplier mayRetry) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        CircuitBreaker breaker = router.getCircuitBreaker();
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            permits.release();
+            return CompletableFuture.failedFuture(
+                new OllamaException(OllamaException.Kind.CIRCUIT_OPEN, "Not sent, Ollama failed too often lately"));
         }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(1, System.nanoTime() + timeout.toNanos(), attempt, mayRetry, result);
+        return result.whenComplete((value, error) -> {
+            if (error != null && OllamaException.of(error).isBackendFailure()) {
+                breaker.recordFailure(permit);
+            } else {
+                breaker.recordSuccess(permit);
+            }
+            permits.release();
+        });
     }
 
+    private <T> void attempt(int number, long deadline, Function<Duration, CompletableFuture<T>> attempt,
+                             BooleanSupplier mayRetry, CompletableFuture<T> result) {
+        CompletableFuture<T> sent;
+        try {
+            // At least a millisecond, as a backoff may end just short of the deadline
+            sent = attempt.apply(Duration.ofNanos(Math.max(deadline - System.nanoTime(), 1_000_000)));
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            OllamaException failure = OllamaException.of(error);
+            long backoff = backoffNanos(number);
+            if (failure.isRetryable() && number < MAX_ATTEMPTS && System.nanoTime() + backoff < deadline
+                    && mayRetry.getAsBoolean()) {
+                CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS)
+                    .execute(() -> attempt(number + 1, deadline, attempt, mayRetry, result));
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+    }
+
+    // Full jitter: anywhere up to the exponential backoff, so clients that failed together
+    // do not retry together
+    private static long backoffNanos(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        return TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
 
-    public String generateComment(String code) {
+    // Whether a failure leaves the node looking healthy
+    private static boolean reachable(Throwable error) {
+        return error == null || !OllamaException.of(error).isBackendFailure();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws OllamaException {
         try {
-            String prompt = String.format("""
-                Generate a clear and concise comment for this code:
-                %s
-                
-                Focus on:
-                1. Purpose
-                2. Parameters
-                3. Return values
-                4. Important details
-                
-                Format as a JavaDoc comment.
-                """, code);
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            throw OllamaException.of(e);
+        }
+    }
 
+    // Asks one endpoint; all of them are expected to serve the same model
+    private int lookUpContextTokens() {
+        OllamaRouter.Node node = router.acquire();
+        long start = System.nanoTime();
+        boolean reachable = false;
+        try {
             HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/api/generate"))
+                .uri(URI.create(node.getBaseUrl() + "/api/show"))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(new JSONObject()
-                    .put("model", "deepseek-r1:7b")
-                    .put("prompt", prompt)
-                    .put("stream", false)
-                    .toString()))
+                .timeout(Duration.ofSeconds(10))
+                .POST(HttpRequest.BodyPublishers.ofString(new JSONObject().put("model", MODEL).toString()))
                 .build();
-
             HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            JSONObject jsonResponse = new JSONObject(response.body());
-            return jsonResponse.getString("response");
-        } catch (Exception e) {
-            return "Failed to generate comment: " + e.getMessage();
+            reachable = response.statusCode() < 500;
+            JSONObject modelInfo = response.statusCode() == 200 ? new JSONObject(response.body()).optJSONObject("model_info") : null;
+            if (modelInfo != null) {
+                for (String key : modelInfo.keySet()) {
+                    if (key.endsWith(".context_length")) {
+                        return Math.min(modelInfo.getInt(key), MAX_PACKED_CONTEXT_TOKENS);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Cannot look up the context window of " + MODEL + ": " + rootMessage(e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            router.release(node, System.nanoTime() - start, reachable);
+        }
+        return DEFAULT_CONTEXT_TOKENS;
+    }
+
+    // The array may follow a <think> section or sit in a code fence
+    static List<String> parsePackedAnalyses(String response, int count) {
+        int thinkEnd = response.indexOf("</think>");
+        int start = response.indexOf('[', thinkEnd < 0 ? 0 : thinkEnd);
+        int end = response.lastIndexOf(']');
+        if (start < 0 || end < start) {
+            throw new JSONException("No JSON array in packed response");
+        }
+        JSONArray items = new JSONArray(response.substring(start, end + 1));
+        String[] analyses = new String[count];
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.optJSONObject(i);
+            int id = item != null ? item.optInt("id", 0) : 0;
+            String analysis = item != null ? item.optString("analysis", "").strip() : "";
+            if (id >= 1 && id <= count && !analysis.isEmpty()) {
+                analyses[id - 1] = analysis;
+            }
+        }
+        return Arrays.asList(analyses);
+    }
+
+    private static String rootMessage(Throwable e) {
+        while (e.getCause() != null) {
+            e = e.getCause();
         }
+        return e.getMessage();
     }
-}
\ No newline at end of file
+}
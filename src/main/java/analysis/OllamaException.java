@@ -0,0 +1,80 @@
+package analysis;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import org.json.JSONException;
+
+/**
+ * A request to Ollama that did not produce an answer, with the kind of failure.
+ */
+public class OllamaException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        // No answer before the deadline
+        TIMEOUT(true),
+        // Could not connect, or the server failed or was overloaded
+        UNAVAILABLE(true),
+        // The server refused the request itself
+        REJECTED(false),
+        // An answer, but not in the expected form
+        BAD_RESPONSE(false),
+        // Not sent, since the backend is considered down
+        CIRCUIT_OPEN(false);
+
+        private final boolean retryable;
+
+        Kind(boolean retryable) {
+            this.retryable = retryable;
+        }
+    }
+
+    private final Kind kind;
+
+    public OllamaException(Kind kind, String message) {
+        super(message);
+        this.kind = kind;
+    }
+
+    public OllamaException(Kind kind, String message, Throwable cause) {
+        super(message, cause);
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isRetryable() {
+        return kind.retryable;
+    }
+
+    // Whether the failure says the server is unhealthy, rather than the request or answer wrong
+    public boolean isBackendFailure() {
+        return kind == Kind.TIMEOUT || kind == Kind.UNAVAILABLE;
+    }
+
+    static OllamaException forStatus(int status, String body) {
+        String message = "Ollama returned HTTP " + status + (body == null || body.isBlank() ? "" : ": " + body.strip());
+        return new OllamaException(status >= 500 || status == 429 ? Kind.UNAVAILABLE : Kind.REJECTED, message);
+    }
+
+    // The failure of a request future as an OllamaException
+    static OllamaException of(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof OllamaException ollama) {
+            return ollama;
+        }
+        if (error instanceof HttpTimeoutException) {
+            return new OllamaException(Kind.TIMEOUT, "Ollama did not answer in time: " + error.getMessage(), error);
+        }
+        if (error instanceof JSONException) {
+            return new OllamaException(Kind.BAD_RESPONSE, "Unreadable answer from Ollama: " + error.getMessage(), error);
+        }
+        return new OllamaException(Kind.UNAVAILABLE, "Cannot reach Ollama: " + error, error);
+    }
+}
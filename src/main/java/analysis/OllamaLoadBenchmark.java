@@ -0,0 +1,134 @@
+package analysis;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Command line benchmark for {@link OllamaClient} against a local {@link OllamaStubServer}.
+ *
+ * Usage: {@code java analysis.OllamaLoadBenchmark [requests] [latency-ms] [token-ms]}
+ *
+ * Sends the same number of requests at several caps on requests in flight, from one thread
+ * as {@link BatchProcessor} does, and prints the throughput of each. With a fixed server
+ * latency the throughput should grow with the cap. Every run is also checked to never have
+ * more requests open on the server than the cap allows.
+ *
+ * Then streams the same requests at the default cap and prints the mean time to the first
+ * token and to the end of each answer, and how many streams were closed before the model
+ * finished.
+ *
+ * Last, it analyzes the same comments with one request in flight, as on a single GPU, first
+ * one per prompt and then packed several to a prompt, and prints the comments analyzed per
+ * second of each. The stub charges the latency once per request and the answer time for
+ * every comment, so packing saves only the per-request overhead.
+ */
+public class OllamaLoadBenchmark {
+    private static final int[] CAPS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws IOException {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        long tokenDelay = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        System.out.printf("%d requests, %d ms server latency, %d ms per streamed token%n", requests, latency, tokenDelay);
+
+        boolean capsRespected = true;
+        try (OllamaStubServer server = new OllamaStubServer(latency, tokenDelay)) {
+            // Warm up the client and server threads
+            run(new OllamaClient(server.getBaseUrl(), CAPS[CAPS.length - 1]), requests);
+
+            for (int cap : CAPS) {
+                server.resetStats();
+                OllamaClient client = new OllamaClient(server.getBaseUrl(), cap);
+                long start = System.nanoTime();
+                int failed = run(client, requests);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                boolean respected = server.getMaxOpen() <= cap;
+                capsRespected &= respected && failed == 0;
+                System.out.printf("cap %2d: %7.1f requests/s, %d open at most%s%s%n", cap, requests / seconds,
+                    server.getMaxOpen(), respected ? "" : " (CAP EXCEEDED)",
+                    failed == 0 ? "" : ", " + failed + " failed");
+            }
+
+            server.resetStats();
+            capsRespected &= stream(new OllamaClient(server.getBaseUrl()), requests, server);
+
+            capsRespected &= pack(server, requests);
+        }
+        if (!capsRespected) {
+            System.exit(1);
+        }
+    }
+
+    // False if any stream failed or went past the end of its answer
+    private static boolean stream(OllamaClient client, int requests, OllamaStubServer server) {
+        List<CompletableFuture<GenerationResult>> generations = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            generations.add(client.streamAnalysisAsync("// comment " + i, text -> {}));
+        }
+        long firstToken = 0, total = 0;
+        int failed = 0, early = 0;
+        for (CompletableFuture<GenerationResult> generation : generations) {
+            try {
+                GenerationResult result = generation.join();
+                firstToken += result.getTimeToFirstTokenMillis();
+                total += result.getTotalMillis();
+                if (result.isStoppedEarly()) {
+                    early++;
+                }
+            } catch (RuntimeException e) {
+                failed++;
+            }
+        }
+        int done = Math.max(1, requests - failed);
+        System.out.printf("streamed: first token after %d ms, answer after %d ms on average, %d of %d stopped early%s%n",
+            firstToken / done, total / done, early, requests, failed == 0 ? "" : ", " + failed + " failed");
+        return failed == 0 && early == requests;
+    }
+
+    // False if any comment failed or the packed run needed as many requests as the other
+    private static boolean pack(OllamaStubServer server, int comments) {
+        List<CommentLocation> batch = new ArrayList<>();
+        for (int i = 0; i < comments; i++) {
+            batch.add(new CommentLocation("Bench.java", i + 1, "// comment " + i));
+        }
+        AIAnalyzer single = new AIAnalyzer(new OllamaClient(server.getBaseUrl(), 1));
+        server.resetStats();
+        long start = System.nanoTime();
+        int failed = 0;
+        for (CommentLocation comment : batch) {
+            failed += single.analyzeCommentAsync(comment).join().failed ? 1 : 0;
+        }
+        double singleRate = comments / ((System.nanoTime() - start) / 1e9);
+        int singleRequests = server.getServed();
+
+        AIAnalyzer packed = new AIAnalyzer(new OllamaClient(server.getBaseUrl(), 1));
+        server.resetStats();
+        start = System.nanoTime();
+        for (CompletableFuture<AIAnalysisResult> result : packed.analyzeCommentsPacked(batch, null)) {
+            failed += result.join().failed ? 1 : 0;
+        }
+        double packedRate = comments / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("one prompt per comment: %7.1f comments/s in %d requests%n", singleRate, singleRequests);
+        System.out.printf("packed prompts:         %7.1f comments/s in %d requests (%.1fx)%s%n", packedRate,
+            server.getServed(), packedRate / singleRate, failed == 0 ? "" : ", " + failed + " failed");
+        return failed == 0 && server.getServed() < singleRequests;
+    }
+
+    // Number of requests that failed
+    private static int run(OllamaClient client, int requests) {
+        List<CompletableFuture<String>> responses = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            responses.add(client.generateAnalysisAsync("// comment " + i));
+        }
+        int failed = 0;
+        for (CompletableFuture<String> response : responses) {
+            try {
+                response.join();
+            } catch (RuntimeException e) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,253 @@
+package analysis;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads Ollama requests over a pool of endpoints.
+ *
+ * Each request goes to the endpoint with the fewest requests outstanding relative to its
+ * weight, taking turns among equals. An endpoint is ejected after
+ * {@link #EJECT_AFTER_FAILURES} requests in a row fail to reach it, or when a health probe
+ * fails, and is admitted again once a probe succeeds; with every endpoint ejected, requests
+ * still go to the least loaded one rather than nowhere. Probes ask each endpoint for its
+ * version at a fixed interval, and only run when there is more than one endpoint.
+ *
+ * The default router is shared by every client. It uses the comma-separated endpoints of the
+ * {@code -Dcommentanalyzer.ollama.endpoints} system property or the {@code OLLAMA_ENDPOINTS} environment
+ * variable, each a base URL optionally followed by {@code =weight}, and otherwise
+ * {@link OllamaClient#DEFAULT_BASE_URL}.
+ *
+ * The router also holds the {@link CircuitBreaker} of the pool as a whole, shared by every
+ * client using it.
+ */
+public final class OllamaRouter implements AutoCloseable {
+    public static final String ENDPOINTS_PROPERTY = "commentanalyzer.ollama.endpoints";
+    public static final int EJECT_AFTER_FAILURES = 3;
+    public static final Duration DEFAULT_PROBE_INTERVAL = Duration.ofSeconds(10);
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(2);
+    // Weight of the latest request in a node's average latency
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static OllamaRouter defaultRouter;
+
+    private final List<Node> nodes;
+    private final AtomicInteger turn = new AtomicInteger();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private final HttpClient probeClient = HttpClient.newBuilder().connectTimeout(PROBE_TIMEOUT).build();
+    private ScheduledExecutorService prober;
+
+    public OllamaRouter(List<String> endpoints) {
+        this(endpoints, DEFAULT_PROBE_INTERVAL);
+    }
+
+    public OllamaRouter(List<String> endpoints, Duration probeInterval) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No Ollama endpoints");
+        }
+        List<Node> parsed = new ArrayList<>();
+        for (String endpoint : endpoints) {
+            parsed.add(Node.parse(endpoint.trim()));
+        }
+        this.nodes = List.copyOf(parsed);
+        if (nodes.size() > 1) {
+            prober = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "ollama-probe");
+                thread.setDaemon(true);
+                return thread;
+            });
+            prober.scheduleWithFixedDelay(this::probeAll, probeInterval.toMillis(), probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static synchronized OllamaRouter getDefault() {
+        if (defaultRouter == null) {
+            String configured = System.getProperty(ENDPOINTS_PROPERTY, System.getenv("OLLAMA_ENDPOINTS"));
+            List<String> endpoints = new ArrayList<>();
+            if (configured != null) {
+                for (String endpoint : configured.split(",")) {
+                    if (!endpoint.isBlank()) {
+                        endpoints.add(endpoint);
+                    }
+                }
+            }
+            defaultRouter = new OllamaRouter(endpoints.isEmpty() ? List.of(OllamaClient.DEFAULT_BASE_URL) : endpoints);
+        }
+        return defaultRouter;
+    }
+
+    // The node for the next request, counted as outstanding until released
+    public Node acquire() {
+        Node best = pick(false);
+        if (best == null) {
+            best = pick(true);
+        }
+        best.outstanding.incrementAndGet();
+        return best;
+    }
+
+    // reachable is false if the node did not answer in time or answered with a server error
+    public void release(Node node, long elapsedNanos, boolean reachable) {
+        node.outstanding.decrementAndGet();
+        node.record(elapsedNanos, reachable);
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public String formatStats() {
+        StringBuilder stats = new StringBuilder();
+        for (Node node : nodes) {
+            stats.append(node).append('\n');
+        }
+        return stats.append(circuitBreaker).append('\n').toString();
+    }
+
+    // Probes every endpoint now, as the scheduled probes do
+    public void probeAll() {
+        for (Node node : nodes) {
+            node.probed(probe(node));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    private Node pick(boolean includeEjected) {
+        int start = Math.floorMod(turn.getAndIncrement(), nodes.size());
+        Node best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get((start + i) % nodes.size());
+            if (node.ejected && !includeEjected) {
+                continue;
+            }
+            double load = (node.outstanding.get() + 1) / node.weight;
+            if (load < bestLoad) {
+                best = node;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private boolean probe(Node node) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(node.baseUrl + "/api/version"))
+                .timeout(PROBE_TIMEOUT)
+                .GET()
+                .build();
+            return probeClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public static final class Node {
+        private final String baseUrl;
+        private final double weight;
+        private final long createdNanos = System.nanoTime();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean ejected;
+        private int consecutiveFailures;
+        private long served;
+        private long failed;
+        private int ejections;
+        private double averageLatencyNanos;
+
+        private Node(String baseUrl, double weight) {
+            this.baseUrl = baseUrl;
+            this.weight = weight;
+        }
+
+        // "url" or "url=weight"
+        static Node parse(String endpoint) {
+            int equals = endpoint.lastIndexOf('=');
+            if (equals < 0) {
+                return new Node(endpoint, 1);
+            }
+            double weight = Double.parseDouble(endpoint.substring(equals + 1).trim());
+            if (!(weight > 0)) {
+                throw new IllegalArgumentException("Endpoint weight must be positive: " + endpoint);
+            }
+            return new Node(endpoint.substring(0, equals).trim(), weight);
+        }
+
+        public String getBaseUrl() { return baseUrl; }
+        public double getWeight() { return weight; }
+        public int getOutstanding() { return outstanding.get(); }
+        public boolean isEjected() { return ejected; }
+        public synchronized long getServed() { return served; }
+        public synchronized long getFailed() { return failed; }
+        public synchronized int getEjections() { return ejections; }
+        public synchronized double getAverageLatencyMillis() { return averageLatencyNanos / 1e6; }
+
+        // Requests answered per second since the router started
+        public synchronized double getThroughput() {
+            return served / ((System.nanoTime() - createdNanos) / 1e9);
+        }
+
+        private synchronized void record(long elapsedNanos, boolean reachable) {
+            if (!reachable) {
+                failed++;
+                if (++consecutiveFailures >= EJECT_AFTER_FAILURES) {
+                    eject();
+                }
+                return;
+            }
+            consecutiveFailures = 0;
+            averageLatencyNanos = served == 0 ? elapsedNanos
+                : averageLatencyNanos + LATENCY_SMOOTHING * (elapsedNanos - averageLatencyNanos);
+            served++;
+        }
+
+        private synchronized void probed(boolean healthy) {
+            if (!healthy) {
+                eject();
+            } else if (ejected) {
+                ejected = false;
+                consecutiveFailures = 0;
+            }
+        }
+
+        private void eject() {
+            if (!ejected) {
+                ejected = true;
+                ejections++;
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s%s: %s, %d in flight, %d served (%.1f/s), %d failed, %.0f ms average, %d ejections",
+                baseUrl, weight != 1 ? " (weight " + weight + ")" : "", ejected ? "ejected" : "up",
+                outstanding.get(), served, getThroughput(), failed, averageLatencyNanos / 1e6, ejections);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package analysis;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Command line benchmark for {@link OllamaRouter} over three local {@link OllamaStubServer}s
+ * with different latencies.
+ *
+ * Usage: {@code java analysis.OllamaRoutingBenchmark [requests]}
+ *
+ * Sends the requests through one client in three rounds and prints each endpoint's stats
+ * after every round: with all endpoints up, where the fastest should serve the most; with one
+ * endpoint down, which should be ejected after a few failures; and with it back up, where a
+ * probe should admit it again.
+ */
+public class OllamaRoutingBenchmark {
+    private static final long[] LATENCIES = {20, 50, 100};
+    private static final Duration PROBE_INTERVAL = Duration.ofMillis(200);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 120;
+        List<OllamaStubServer> servers = new ArrayList<>();
+        boolean ok;
+        try {
+            List<String> endpoints = new ArrayList<>();
+            for (long latency : LATENCIES) {
+                OllamaStubServer server = new OllamaStubServer(latency);
+                servers.add(server);
+                endpoints.add(server.getBaseUrl());
+            }
+            try (OllamaRouter router = new OllamaRouter(endpoints, PROBE_INTERVAL)) {
+                OllamaClient client = new OllamaClient(router, OllamaClient.DEFAULT_MAX_IN_FLIGHT * servers.size());
+                List<OllamaRouter.Node> nodes = router.getNodes();
+
+                int failed = round("all up", client, requests);
+                ok = failed == 0 && nodes.get(0).getServed() > nodes.get(2).getServed();
+
+                OllamaStubServer down = servers.get(1);
+                down.setDown(true);
+                long servedBefore = nodes.get(1).getServed();
+                failed = round("one down", client, requests);
+                ok &= nodes.get(1).isEjected() && nodes.get(1).getServed() == servedBefore
+                    && failed <= OllamaRouter.EJECT_AFTER_FAILURES + client.getMaxInFlight();
+
+                down.setDown(false);
+                Thread.sleep(PROBE_INTERVAL.toMillis() * 3);
+                failed = round("back up", client, requests);
+                ok &= failed == 0 && !nodes.get(1).isEjected() && nodes.get(1).getServed() > servedBefore;
+            }
+        } finally {
+            servers.forEach(OllamaStubServer::close);
+        }
+        System.out.println(ok ? "Routing behaved as expected" : "ROUTING CHECK FAILED");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    // Number of requests that failed
+    private static int round(String name, OllamaClient client, int requests) {
+        long start = System.nanoTime();
+        List<CompletableFuture<String>> responses = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            responses.add(client.generateAnalysisAsync("// comment " + i));
+        }
+        int failed = 0;
+        for (CompletableFuture<String> response : responses) {
+            try {
+                response.join();
+            } catch (RuntimeException e) {
+                failed++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s: %.1f requests/s, %d failed%n%s%n", name, requests / seconds, failed,
+            client.getRouter().formatStats());
+        return failed;
+    }
+}
@@ -0,0 +1,200 @@
+package analysis;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A local stand-in for an Ollama server, for benchmarks.
+ *
+ * Every request is answered after a fixed latency with a short canned response, from as many
+ * threads as there are requests, so the server itself never limits concurrency. It records
+ * how many requests it has served and the most it ever had open at once. With a delay per
+ * token, generating the answer to each comment adds that delay for each of its tokens.
+ *
+ * Packed prompts get a JSON array with the canned answer for every numbered comment, taking
+ * the latency once and the answer time for each comment. The show and version endpoints
+ * answer at once, and a server set down answers everything with 503.
+ *
+ * Streaming requests get the canned response as NDJSON chunks instead, one token per chunk
+ * with a fixed delay between them: a {@code <think>} section, the answer and its end marker,
+ * then more text that a client stopping early never waits for. The latency is then the time
+ * to the first token.
+ */
+public class OllamaStubServer implements AutoCloseable {
+    private static final String ANSWER = "Clear and complete.";
+    private static final int ANSWER_TOKENS = 4;
+    private static final Pattern PACKED_COMMENT = Pattern.compile("Comment (\\d+):");
+    private static final List<String> STREAM_TOKENS = List.of(
+        "<think>", "\n", "The", " comment", " names", " the", " parameter", ".", "\n", "</think>", "\n\n",
+        "Clear", " and", " complete", ".", "\n", "END", "\n",
+        "Further", " notes", " nobody", " reads", ".");
+    private final HttpServer server;
+    // Virtual threads, so the stub adds no platform threads to what a benchmark measures
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger maxOpen = new AtomicInteger();
+    private final AtomicInteger served = new AtomicInteger();
+    private final AtomicInteger streamsCut = new AtomicInteger();
+    private volatile boolean down;
+
+    public OllamaStubServer(long latencyMillis) throws IOException {
+        this(latencyMillis, 0);
+    }
+
+    public OllamaStubServer(long latencyMillis, long tokenMillis) throws IOException {
+        // Without this, delayed acknowledgements add tens of milliseconds to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/generate", exchange -> {
+            try (exchange) {
+                if (refuseWhileDown(exchange)) {
+                    return;
+                }
+                // Open from arrival until the response starts, since the client may see the
+                // end of the response before this handler returns
+                maxOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                boolean stream;
+                int comments;
+                try {
+                    String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    stream = request.contains("\"stream\":true");
+                    comments = packedComments(request);
+                    Thread.sleep(latencyMillis);
+                } finally {
+                    open.decrementAndGet();
+                }
+                if (stream) {
+                    stream(exchange, tokenMillis);
+                    return;
+                }
+                Thread.sleep(Math.max(1, comments) * ANSWER_TOKENS * tokenMillis);
+                String response = ANSWER;
+                if (comments > 0) {
+                    JSONArray answers = new JSONArray();
+                    for (int id = 1; id <= comments; id++) {
+                        answers.put(new JSONObject().put("id", id).put("analysis", ANSWER));
+                    }
+                    response = answers.toString();
+                }
+                byte[] body = new JSONObject().put("response", response).put("done", true).toString().getBytes(StandardCharsets.UTF_8);
+                // Counted first, since the client may have the response before this handler returns
+                served.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.createContext("/api/show", exchange -> {
+            try (exchange) {
+                if (refuseWhileDown(exchange)) {
+                    return;
+                }
+                byte[] body = new JSONObject().put("model_info", new JSONObject().put("qwen2.context_length", 131072))
+                    .toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.createContext("/api/version", exchange -> {
+            try (exchange) {
+                if (refuseWhileDown(exchange)) {
+                    return;
+                }
+                byte[] body = new JSONObject().put("version", "stub").toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // While down, every request is answered 503 at once
+    public void setDown(boolean down) {
+        this.down = down;
+    }
+
+    private boolean refuseWhileDown(HttpExchange exchange) throws IOException {
+        if (!down) {
+            return false;
+        }
+        exchange.sendResponseHeaders(503, -1);
+        return true;
+    }
+
+    // Number of comments in a packed prompt, or 0 for a single one
+    private static int packedComments(String request) {
+        if (!request.contains("JSON array")) {
+            return 0;
+        }
+        int comments = 0;
+        for (Matcher m = PACKED_COMMENT.matcher(request); m.find(); ) {
+            comments = Math.max(comments, Integer.parseInt(m.group(1)));
+        }
+        return comments;
+    }
+
+    private void stream(HttpExchange exchange, long tokenMillis) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (String token : STREAM_TOKENS) {
+                out.write((new JSONObject().put("response", token).put("done", false) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(tokenMillis);
+            }
+            long evalNanos = Math.max(1, tokenMillis) * 1_000_000L * STREAM_TOKENS.size();
+            out.write((new JSONObject().put("response", "").put("done", true)
+                .put("eval_count", STREAM_TOKENS.size()).put("eval_duration", evalNanos) + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The client closed the stream once it had the answer
+            streamsCut.incrementAndGet();
+            return;
+        }
+        served.incrementAndGet();
+    }
+
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public int getServed() { return served.get(); }
+    public int getMaxOpen() { return maxOpen.get(); }
+    // Streams the client closed before the last chunk
+    public int getStreamsCut() { return streamsCut.get(); }
+
+    public void resetStats() {
+        maxOpen.set(0);
+        served.set(0);
+        streamsCut.set(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,90 @@
+package analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the comments to analyze into packs sent as one prompt each.
+ *
+ * A pack holds as many comments as fit the model's context window together with the shared
+ * instructions, an answer for each and room for the model's reasoning, using a rough estimate
+ * of four characters per token. It never holds more than the current limit, which starts at
+ * {@link #MAX_PACK}, is halved whenever a pack's response could not be matched back to all its
+ * comments, and grows by one with every pack answered in full.
+ */
+class PromptPacker {
+    static final int MAX_PACK = 16;
+    private static final int PREAMBLE_TOKENS = 100;
+    // deepseek-r1 thinks before it answers
+    private static final int REASONING_TOKENS = 1024;
+    private static final int ANSWER_TOKENS_PER_COMMENT = 120;
+    private static final int HEADER_TOKENS_PER_COMMENT = 8;
+
+    private final int contextTokens;
+    private int limit = MAX_PACK;
+
+    PromptPacker(int contextTokens) {
+        this.contextTokens = contextTokens;
+    }
+
+    int getContextTokens() {
+        return contextTokens;
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    // Consecutive packs in the given order; a comment too long to share a prompt is alone
+    synchronized List<List<CommentLocation>> pack(List<CommentLocation> comments) {
+        int budget = contextTokens - PREAMBLE_TOKENS - REASONING_TOKENS;
+        List<List<CommentLocation>> packs = new ArrayList<>();
+        List<CommentLocation> current = new ArrayList<>();
+        int used = 0;
+        for (CommentLocation comment : comments) {
+            int cost = estimateTokens(comment.getContent()) + HEADER_TOKENS_PER_COMMENT + ANSWER_TOKENS_PER_COMMENT;
+            if (!current.isEmpty() && (current.size() >= limit || used + cost > budget)) {
+                packs.add(current);
+                current = new ArrayList<>();
+                used = 0;
+            }
+            current.add(comment);
+            used += cost;
+        }
+        if (!current.isEmpty()) {
+            packs.add(current);
+        }
+        return packs;
+    }
+
+    synchronized void answered(int packSize) {
+        if (packSize >= limit) {
+            limit = Math.min(MAX_PACK, limit + 1);
+        }
+    }
+
+    synchronized void malformed(int packSize) {
+        limit = Math.max(1, Math.min(limit, packSize) / 2);
+    }
+
+    // Tokens a comment takes sent on its own: the prompt, the reasoning and the answer
+    static int estimateRequestTokens(String comment) {
+        return PREAMBLE_TOKENS + estimateTokens(comment) + REASONING_TOKENS + ANSWER_TOKENS_PER_COMMENT;
+    }
+
+    // Tokens a pack takes as one prompt; a pack of one is sent on its own
+    static int estimatePackTokens(List<CommentLocation> pack) {
+        if (pack.size() == 1) {
+            return estimateRequestTokens(pack.get(0).getContent());
+        }
+        int tokens = PREAMBLE_TOKENS + REASONING_TOKENS;
+        for (CommentLocation comment : pack) {
+            tokens += estimateTokens(comment.getContent()) + HEADER_TOKENS_PER_COMMENT + ANSWER_TOKENS_PER_COMMENT;
+        }
+        return tokens;
+    }
+
+    static int estimateTokens(String text) {
+        return text.length() / 4 + 1;
+    }
+}
@@ -0,0 +1,84 @@
+package analysis;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Scores the comments of many files in parallel with one shared {@link CodeQualityAnalyzer}.
+ *
+ * Files are scored on the fork/join common pool, each with its own {@link FileScoringContext}.
+ * A large file whose comments are all self-contained (they carry a declaration or a captured
+ * context) is split further, one task per range of comments. Every score is written to a
+ * slot fixed by the file's sorted position and the comment's index, so the result is the
+ * same whatever the number of threads. Each comment comes back with its full quality result.
+ * Given a {@link DuplicateIndex}, each duplicate cluster is scored once per classification,
+ * from the text of its representative, and the result is shared by all its members.
+ *
+ * The analyzer must score by rules alone: a blocking model call per comment would hold
+ * threads of the common pool, which the lexer and the file walk share, for as long as the
+ * model takes. Comments go to the model through the {@link BatchProcessor} instead.
+ */
+public class QualityScoringEngine {
+    // Below this many comments a file is scored by a single task
+    private static final int PARALLEL_COMMENTS = 1024;
+
+    private final CodeQualityAnalyzer analyzer;
+
+    public QualityScoringEngine(CodeQualityAnalyzer analyzer) {
+        if (analyzer.isUsingAI()) {
+            throw new IllegalArgumentException("The scoring engine needs a rules-only analyzer");
+        }
+        this.analyzer = analyzer;
+    }
+
+    // Scored comments in file path order
+    public Map<String, List<ScoredComment>> scoreFiles(Map<String, List<CommentLocation>> files) {
+        return scoreFiles(files, null);
+    }
+
+    public Map<String, List<ScoredComment>> scoreFiles(Map<String, List<CommentLocation>> files, DuplicateIndex duplicates) {
+        String[] paths = files.keySet().toArray(new String[0]);
+        Arrays.sort(paths);
+        List<List<ScoredComment>> scores = new ArrayList<>(Collections.nCopies(paths.length, null));
+        IntStream.range(0, paths.length).parallel()
+            .forEach(i -> scores.set(i, scoreFile(files.get(paths[i]),
+                duplicates != null ? duplicates.fileClusters(paths[i]) : null)));
+
+        Map<String, List<ScoredComment>> result = new LinkedHashMap<>();
+        for (int i = 0; i < paths.length; i++) {
+            result.put(paths[i], scores.get(i));
+        }
+        return result;
+    }
+
+    // Scored comments in comment order
+    public List<ScoredComment> scoreFile(List<CommentLocation> comments) {
+        return scoreFile(comments, null);
+    }
+
+    // fileClusters, if not null, holds the duplicate cluster of every comment
+    private List<ScoredComment> scoreFile(List<CommentLocation> comments, DuplicateIndex.FileClusters fileClusters) {
+        ScoredComment[] scores = new ScoredComment[comments.size()];
+        DuplicateIndex.FileClusters clusters = fileClusters != null && fileClusters.size() == scores.length ? fileClusters : null;
+        if (scores.length >= PARALLEL_COMMENTS && comments.stream().allMatch(CodeQualityAnalyzer::isSelfContained)) {
+            IntStream.range(0, scores.length).parallel()
+                .forEach(i -> scores[i] = score(comments.get(i), new FileScoringContext(), clusters, i));
+            return List.of(scores);
+        }
+
+        FileScoringContext fileContext = new FileScoringContext();
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = score(comments.get(i), fileContext, clusters, i);
+        }
+        return List.of(scores);
+    }
+
+    private ScoredComment score(CommentLocation comment, FileScoringContext fileContext,
+                                DuplicateIndex.FileClusters clusters, int i) {
+        if (clusters == null || clusters.getKey(i) == DuplicateIndex.NO_CLUSTER) {
+            return new ScoredComment(comment, analyzer.analyzeCommentQuality(comment, fileContext));
+        }
+        return new ScoredComment(comment, analyzer.analyzeCommentQuality(comment, fileContext,
+            clusters.getKey(i), clusters.getRepresentativeText(i)));
+    }
+}
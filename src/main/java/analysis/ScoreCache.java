@@ -0,0 +1,97 @@
+package analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Quality results of comments already scored, keyed by a hash of the comment text and the
+ * classification the score was based on.
+ *
+ * Identical comments in the same kind of position, such as license headers or repeated
+ * doc comments, are scored once, and a comment whose file changed elsewhere keeps its score.
+ * Comments grouped by a {@link DuplicateIndex} can share a key for their whole cluster.
+ * One cache is shared by everything that scores comments through the same analyzer. Two
+ * threads that miss on the same key at once may both score the comment; the first result
+ * stored wins.
+ */
+public class ScoreCache {
+    private final Map<Key, CodeQualityAnalyzer.QualityAnalysisResult> results = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public static Key keyOf(String comment, CommentTypeAnalyzer.CommentAnalysisResult typeResult) {
+        ByteBuffer hash = ByteBuffer.wrap(sha256(comment));
+        return new Key(false, hash.getLong(), hash.getLong(), typeResult.getType(), typeResult.getReason());
+    }
+
+    // Shared by all comments of a DuplicateIndex cluster, so near-duplicates are scored once
+    public static Key keyOfCluster(long clusterKey, CommentTypeAnalyzer.CommentAnalysisResult typeResult) {
+        return new Key(true, clusterKey, 0, typeResult.getType(), typeResult.getReason());
+    }
+
+    public CodeQualityAnalyzer.QualityAnalysisResult get(Key key) {
+        CodeQualityAnalyzer.QualityAnalysisResult result = results.get(key);
+        (result != null ? hits : misses).increment();
+        return result;
+    }
+
+    public CodeQualityAnalyzer.QualityAnalysisResult put(Key key, CodeQualityAnalyzer.QualityAnalysisResult result) {
+        CodeQualityAnalyzer.QualityAnalysisResult previous = results.putIfAbsent(key, result);
+        return previous != null ? previous : result;
+    }
+
+    public int size() { return results.size(); }
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+
+    public void clear() {
+        results.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d hits, %d misses", size(), getHits(), getMisses());
+    }
+
+    private static byte[] sha256(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // First 128 bits of the content hash, or a duplicate cluster, plus the type and reason
+    // that went into the score
+    public static final class Key {
+        private final boolean cluster;
+        private final long high;
+        private final long low;
+        private final CommentTypeAnalyzer.CommentType type;
+        private final String reason;
+
+        private Key(boolean cluster, long high, long low, CommentTypeAnalyzer.CommentType type, String reason) {
+            this.cluster = cluster;
+            this.high = high;
+            this.low = low;
+            this.type = type;
+            this.reason = reason;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && cluster == other.cluster && high == other.high && low == other.low
+                && type == other.type && reason.equals(other.reason);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high) * 31 + type.ordinal();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package analysis;
+
+/**
+ * A comment together with its quality result, so everything that shows or exports a score
+ * reads it instead of scoring the comment again.
+ */
+public class ScoredComment {
+    private final CommentLocation comment;
+    private final CodeQualityAnalyzer.QualityAnalysisResult quality;
+
+    public ScoredComment(CommentLocation comment, CodeQualityAnalyzer.QualityAnalysisResult quality) {
+        this.comment = comment;
+        this.quality = quality;
+    }
+
+    public CommentLocation getComment() { return comment; }
+    public CodeQualityAnalyzer.QualityAnalysisResult getQuality() { return quality; }
+    public double getScore() { return quality.getScore(); }
+}
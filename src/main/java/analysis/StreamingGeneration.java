@@ -0,0 +1,208 @@
+package analysis;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+/**
+ * Consumes the NDJSON lines of a streamed Ollama generation as they arrive.
+ *
+ * Each line carries the next piece of the response. A leading {@code <think>} section is held
+ * back, and only the answer after it is passed on. The answer is complete at a line holding
+ * only {@link #ANSWER_END}: the subscription is then cancelled, which closes the connection
+ * and stops the model, and the result completes without waiting for the final line. A
+ * partial line that may turn out to be that marker is not passed on until it is decided.
+ */
+class StreamingGeneration implements Flow.Subscriber<String> {
+    static final String ANSWER_END = "END";
+    private static final String THINK_START = "<think>";
+    private static final String THINK_END = "</think>";
+
+    private final Consumer<String> onAnswerText;
+    private final long startNanos;
+    private final CompletableFuture<GenerationResult> result = new CompletableFuture<>();
+    private final StringBuilder raw = new StringBuilder();
+    private volatile Flow.Subscription subscription;
+    private volatile boolean textEmitted;
+    private long firstTokenNanos = -1;
+    private long chunks;
+    // Where the answer starts in raw, or -1 until that is known
+    private int answerStart = -1;
+    private boolean thinking;
+    // Where to resume looking for the end of the <think> section
+    private int thinkScan;
+    // Start of the answer line not yet checked for the end marker
+    private int lineStart;
+    // End of the answer text already passed on
+    private int emitted;
+
+    StreamingGeneration(Consumer<String> onAnswerText, long startNanos) {
+        this.onAnswerText = onAnswerText;
+        this.startNanos = startNanos;
+    }
+
+    CompletableFuture<GenerationResult> result() {
+        return result;
+    }
+
+    void fail(Throwable error) {
+        result.completeExceptionally(error);
+    }
+
+    // Stops the stream, e.g. at its deadline, unless the result is already known
+    void cancel(Throwable reason) {
+        Flow.Subscription current = subscription;
+        if (result.completeExceptionally(reason) && current != null) {
+            current.cancel();
+        }
+    }
+
+    // True once any answer text has been passed on
+    boolean hasEmitted() {
+        return textEmitted;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (result.isDone()) {
+            subscription.cancel();
+            return;
+        }
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (result.isDone() || line.isBlank()) {
+            return;
+        }
+        try {
+            accept(new JSONObject(line));
+        } catch (RuntimeException e) {
+            subscription.cancel();
+            fail(e);
+        }
+    }
+
+    private void accept(JSONObject chunk) {
+        if (chunk.has("error")) {
+            subscription.cancel();
+            fail(new OllamaException(OllamaException.Kind.UNAVAILABLE, "Ollama error: " + chunk.optString("error")));
+            return;
+        }
+        String piece = chunk.optString("response", "");
+        if (!piece.isEmpty()) {
+            if (firstTokenNanos < 0) {
+                firstTokenNanos = System.nanoTime();
+            }
+            chunks++;
+            raw.append(piece);
+            if (advance()) {
+                subscription.cancel();
+                finish(chunks, true);
+                return;
+            }
+        }
+        if (chunk.optBoolean("done", false)) {
+            long evalCount = chunk.optLong("eval_count", -1);
+            long evalNanos = chunk.optLong("eval_duration", -1);
+            if (evalCount > 0 && evalNanos > 0) {
+                complete(evalCount, evalCount * 1e9 / evalNanos, false);
+            } else {
+                finish(chunks, false);
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        fail(error);
+    }
+
+    @Override
+    public void onComplete() {
+        finish(chunks, false);
+    }
+
+    // Passes on any answer text that is settled; true once the answer is complete
+    private boolean advance() {
+        if (answerStart < 0 && !thinking) {
+            int start = 0;
+            while (start < raw.length() && Character.isWhitespace(raw.charAt(start))) {
+                start++;
+            }
+            String lead = raw.substring(start, Math.min(raw.length(), start + THINK_START.length()));
+            if (lead.equals(THINK_START)) {
+                thinking = true;
+                thinkScan = start + THINK_START.length();
+            } else if (THINK_START.startsWith(lead)) {
+                return false;
+            } else {
+                startAnswer(0);
+            }
+        }
+        if (thinking) {
+            int end = raw.indexOf(THINK_END, thinkScan);
+            if (end < 0) {
+                thinkScan = Math.max(thinkScan, raw.length() - THINK_END.length() + 1);
+                return false;
+            }
+            thinking = false;
+            startAnswer(end + THINK_END.length());
+        }
+        if (emitted == answerStart) {
+            // Blank lines before the answer may arrive in chunks of their own
+            int start = answerStart;
+            while (start < raw.length() && Character.isWhitespace(raw.charAt(start))) {
+                start++;
+            }
+            startAnswer(start);
+        }
+
+        for (int newline; (newline = raw.indexOf("\n", lineStart)) >= 0; lineStart = newline + 1) {
+            if (raw.substring(lineStart, newline).strip().equals(ANSWER_END)) {
+                emit(lineStart);
+                return true;
+            }
+        }
+        // The last line may still become the end marker, so it waits for its newline
+        String lastLine = raw.substring(lineStart).strip();
+        emit(!lastLine.isEmpty() && ANSWER_END.startsWith(lastLine) ? lineStart : raw.length());
+        return false;
+    }
+
+    private void startAnswer(int start) {
+        answerStart = start;
+        lineStart = start;
+        emitted = start;
+    }
+
+    private void emit(int upTo) {
+        if (upTo > emitted) {
+            textEmitted = true;
+            onAnswerText.accept(raw.substring(emitted, upTo));
+            emitted = upTo;
+        }
+    }
+
+    private void finish(long tokens, boolean stoppedEarly) {
+        long elapsed = firstTokenNanos < 0 ? 0 : System.nanoTime() - firstTokenNanos;
+        complete(tokens, elapsed > 0 ? tokens * 1e9 / elapsed : 0, stoppedEarly);
+    }
+
+    private void complete(long tokens, double tokensPerSecond, boolean stoppedEarly) {
+        if (result.isDone()) {
+            return;
+        }
+        if (answerStart >= 0 && !stoppedEarly) {
+            // A last line held back as a possible end marker
+            emit(raw.length());
+        }
+        String answer = answerStart >= 0 ? raw.substring(answerStart, emitted) : "";
+        long now = System.nanoTime();
+        result.complete(new GenerationResult(answer.strip(), firstTokenNanos < 0 ? -1 : firstTokenNanos - startNanos,
+            now - startNanos, tokens, tokensPerSecond, stoppedEarly));
+    }
+}
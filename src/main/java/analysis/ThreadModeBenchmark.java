@@ -0,0 +1,141 @@
+package analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import parser.CommentExtractor;
+import parser.CommentScanner;
+import utils.Threads;
+
+/**
+ * Command line benchmark comparing the thread modes of {@link Threads} on the blocking
+ * stages: comment extraction over a source tree, and AI analysis through a
+ * {@link BatchProcessor} against a local {@link OllamaStubServer}.
+ *
+ * Usage: {@code java analysis.ThreadModeBenchmark <source-dir> [rounds] [comments] [latency-ms]}
+ *
+ * Runs every stage in both modes, alternating, and prints for each the throughput, the most
+ * platform threads alive at once beyond those alive before the stage, and the most heap in
+ * use. Virtual threads run on a few platform carrier threads and are not counted as threads
+ * themselves; the heap covers their stacks. The stub serves on virtual threads, so it adds
+ * no platform threads of its own. The AI stage sends one request per comment with 64 in
+ * flight, so it is bound by the client's permits in either mode.
+ */
+public class ThreadModeBenchmark {
+    private static final int AI_IN_FLIGHT = 64;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: ThreadModeBenchmark <source-dir> [rounds] [comments] [latency-ms]");
+            System.exit(2);
+        }
+        File tree = new File(args[0]);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int comments = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long latency = args.length > 3 ? Long.parseLong(args[3]) : 50;
+        System.out.printf("%d cores, %d files at most open in virtual mode%n",
+            Runtime.getRuntime().availableProcessors(), Threads.getMaxOpenFiles());
+
+        Map<String, List<Sample>> samples = new LinkedHashMap<>();
+        try (OllamaStubServer server = new OllamaStubServer(latency)) {
+            // The first round warms up both modes and is not counted
+            for (int round = 0; round <= rounds; round++) {
+                for (Threads.Mode mode : Threads.Mode.values()) {
+                    Threads.setMode(mode);
+                    Sample extraction = measure(() -> extract(tree));
+                    Sample ai = measure(() -> analyze(server, comments));
+                    if (round > 0) {
+                        samples.computeIfAbsent("extraction, " + mode.name().toLowerCase(), _ -> new ArrayList<>()).add(extraction);
+                        samples.computeIfAbsent("AI analysis, " + mode.name().toLowerCase(), _ -> new ArrayList<>()).add(ai);
+                    }
+                }
+            }
+        } finally {
+            Threads.setMode(Threads.Mode.POOLED);
+        }
+
+        for (Map.Entry<String, List<Sample>> entry : samples.entrySet()) {
+            List<Sample> runs = entry.getValue();
+            System.out.printf("%-24s %9.1f items/s %6d more platform threads %8.1f MB heap%n", entry.getKey(),
+                runs.stream().mapToDouble(Sample::rate).average().orElse(0),
+                runs.stream().mapToInt(sample -> sample.peakThreads).max().orElse(0),
+                runs.stream().mapToLong(sample -> sample.peakHeapBytes).max().orElse(0) / 1048576.0);
+        }
+    }
+
+    // Files parsed
+    private static int extract(File tree) throws IOException {
+        AtomicInteger files = new AtomicInteger();
+        CommentExtractor extractor = new CommentExtractor("", CommentScanner::new);
+        extractor.setIncludeArchives(false);
+        extractor.setResultCallback((path, found) -> files.incrementAndGet());
+        extractor.extractCommentsFromDirectory(tree);
+        return files.get();
+    }
+
+    // Comments analyzed, each with a request of its own
+    private static int analyze(OllamaStubServer server, int comments) throws IOException {
+        List<CommentLocation> batch = new ArrayList<>();
+        // Distinct texts, so none is answered from memory
+        String run = UUID.randomUUID().toString();
+        for (int i = 0; i < comments; i++) {
+            batch.add(new CommentLocation("Bench.java", i + 1, "// comment " + i + " of run " + run));
+        }
+        try (OllamaRouter router = new OllamaRouter(List.of(server.getBaseUrl()))) {
+            BatchProcessor processor = new BatchProcessor(20, 50, new OllamaClient(router, AI_IN_FLIGHT));
+            processor.setPackedPrompts(false);
+            AICoverageReport coverage = processor.schedule(batch, AIPriority.parse("", null, null),
+                AIBudget.unlimited(), report -> {}, null).join();
+            processor.shutdown();
+            if (coverage.getRuleOnly() > 0) {
+                throw new IOException(coverage.getRuleOnly() + " comments got no answer from the stub");
+            }
+            return coverage.getCovered();
+        }
+    }
+
+    private static Sample measure(Stage stage) throws IOException, InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> heap = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP).toList();
+        System.gc();
+        TimeUnit.MILLISECONDS.sleep(100);
+        threads.resetPeakThreadCount();
+        int before = threads.getThreadCount();
+        heap.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long start = System.nanoTime();
+        int items = stage.run();
+        long elapsed = System.nanoTime() - start;
+        long peakHeap = heap.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        return new Sample(items, elapsed, threads.getPeakThreadCount() - before, peakHeap);
+    }
+
+    private interface Stage {
+        int run() throws IOException;
+    }
+
+    private static class Sample {
+        final int items;
+        final long elapsedNanos;
+        final int peakThreads;
+        final long peakHeapBytes;
+
+        Sample(int items, long elapsedNanos, int peakThreads, long peakHeapBytes) {
+            this.items = items;
+            this.elapsedNanos = elapsedNanos;
+            this.peakThreads = peakThreads;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        double rate() {
+            return items / (elapsedNanos / 1e9);
+        }
+    }
+}
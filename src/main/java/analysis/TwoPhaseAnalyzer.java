@@ -7,8 +7,12 @@ public class TwoPhaseAnalyzer {
     public final AIAnalyzer aiAnalyzer;
 
     public TwoPhaseAnalyzer() {
+        this(new OllamaClient());
+    }
+
+    public TwoPhaseAnalyzer(OllamaClient ollamaClient) {
         this.typeAnalyzer = new CommentTypeAnalyzer();
-        this.aiAnalyzer = new AIAnalyzer();
+        this.aiAnalyzer = new AIAnalyzer(ollamaClient);
     }
 
     public Map<String, Object> analyzeBasic(List<CommentLocation> comments) {
@@ -17,8 +21,7 @@ public class TwoPhaseAnalyzer {
             new EnumMap<>(CommentTypeAnalyzer.CommentType.class);
 
         for (CommentLocation comment : comments) {
-            CommentTypeAnalyzer.CommentAnalysisResult analysis = typeAnalyzer.analyzeCommentType(
-                comment.getContent(), "", "", true, true, false, false);
+            CommentTypeAnalyzer.CommentAnalysisResult analysis = typeAnalyzer.analyzeCommentType(comment);
             
             CommentDetail detail = new CommentDetail(
                 comment.getFileName(),
@@ -60,10 +63,11 @@ public class TwoPhaseAnalyzer {
             default -> score += 0.05;
         }
 
-        if (content.length() > 10) score += 0.1;
-        if (content.length() > 50) score += 0.1;
-        if (content.matches("^\\s*[A-Z].*")) score += 0.05;
-        if (!content.contains("TODO") && !content.contains("FIXME")) score += 0.05;
+        CommentFeatures features = CommentFeatures.extract(content);
+        if (features.getLength() > 10) score += 0.1;
+        if (features.getLength() > 50) score += 0.1;
+        if (features.startsWithUppercaseAfterWhitespace() && features.isSingleLineAfterLeadingWhitespace()) score += 0.05;
+        if (!features.hasTodoOrFixme()) score += 0.05;
 
         return Math.min(score, 1.0);
     }
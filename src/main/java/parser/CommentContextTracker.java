@@ -0,0 +1,308 @@
+package parser;
+
+import analysis.CommentContext;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Derives the {@link CommentContext} of every comment from the code between the comments,
+ * in one forward pass over the bytes the lexer has already read.
+ *
+ * Code is looked at one line segment at a time. Segments at declaration level are classified
+ * as type, method or other declarations to follow the structural position; for languages
+ * with brace blocks, braces are counted so that code inside method bodies does not move the
+ * position and comments there are known to be inside a body. Strings, text blocks and other
+ * literals come from the lexer as spans and are skipped as a whole, so braces and keywords
+ * inside them do not count, whichever line they span.
+ */
+final class CommentContextTracker {
+    private static final int MAX_LINE_LENGTH = 160;
+    private static final String[] TYPE_KEYWORDS = {"class", "interface", "enum", "record", "struct", "union", "trait", "module"};
+
+    private final byte[] text;
+    private final int from;
+    private final int length;
+    private final Charset charset;
+    private final boolean braceBlocks;
+    // Tokens the lexer consumed in order, of which only literals lie between comments
+    private final CommentLexer.Spans literals;
+
+    private CommentContext.Position position = CommentContext.Position.FILE_HEADER;
+    private int depth = 0;
+    private boolean pendingType = false;
+    // Member depth of every enclosing type and the position to restore when it closes
+    private final Deque<int[]> enclosingTypes = new ArrayDeque<>();
+    private int lastCodeStart = -1;
+    private int lastCodeEnd = -1;
+    private String lastCodeLine = "";
+
+    CommentContextTracker(byte[] text, int from, int length, Charset charset, boolean braceBlocks,
+                          CommentLexer.Spans literals) {
+        this.text = text;
+        this.from = from;
+        this.length = length;
+        this.charset = charset;
+        this.braceBlocks = braceBlocks;
+        this.literals = literals;
+    }
+
+    CommentContext[] track(CommentLexer.Spans comments) {
+        int count = comments.size();
+        CommentContext[] contexts = new CommentContext[count];
+        String[] nextCodeLines = nextCodeLines(comments);
+
+        int gapStart = from;
+        for (int i = 0; i < count; i++) {
+            int start = comments.start(i);
+            processCode(gapStart, start);
+            boolean insideBody = braceBlocks && depth > memberDepth();
+            contexts[i] = new CommentContext(previousCodeLine(), nextCodeLines[i], position,
+                i == 0, insideBody, followsCodeOnSameLine(gapStart, start));
+            gapStart = comments.end(i);
+        }
+        return contexts;
+    }
+
+    // Next code line of each comment, taken from the following gaps in a backward pass
+    private String[] nextCodeLines(CommentLexer.Spans comments) {
+        int count = comments.size();
+        String[] lines = new String[count];
+        String next = "";
+        for (int i = count - 1; i >= 0; i--) {
+            int gapEnd = i + 1 < count ? comments.start(i + 1) : length;
+            int pos = comments.end(i);
+            while (pos < gapEnd) {
+                int segmentEnd = endOfSegment(pos, gapEnd);
+                int start = skipBlanks(pos, segmentEnd);
+                if (start < segmentEnd && text[start] != '@') {
+                    next = decode(start, segmentEnd);
+                    break;
+                }
+                pos = segmentEnd + 1;
+            }
+            lines[i] = next;
+        }
+        return lines;
+    }
+
+    private void processCode(int start, int end) {
+        int pos = start;
+        while (pos < end) {
+            int literalEnd = literalEnd(pos);
+            if (literalEnd >= 0) {
+                // The rest of a literal opened on an earlier line is not a new line of code
+                int segmentEnd = endOfSegment(literalEnd, end);
+                if (braceBlocks) {
+                    countBraces(literalEnd, segmentEnd);
+                }
+                pos = segmentEnd + 1;
+                continue;
+            }
+            int segmentEnd = endOfSegment(pos, end);
+            int codeStart = skipBlanks(pos, segmentEnd);
+            if (codeStart < segmentEnd) {
+                processSegment(codeStart, segmentEnd);
+            }
+            pos = segmentEnd + 1;
+        }
+    }
+
+    private void processSegment(int start, int end) {
+        lastCodeStart = start;
+        lastCodeEnd = end;
+        lastCodeLine = null;
+
+        if (!braceBlocks || depth == memberDepth()) {
+            if (text[start] == '@' && !startsWithWord(start, end, "@interface")) {
+                // Annotations belong to the declaration that follows them
+            } else if (isTypeDeclaration(start, end)) {
+                if (braceBlocks) {
+                    enclosingTypes.push(new int[]{-1, position.ordinal()});
+                    pendingType = true;
+                }
+                position = CommentContext.Position.TYPE_START;
+            } else if (braceBlocks ? isMethodDeclaration(start, end) : isDefinition(start, end)) {
+                position = CommentContext.Position.AMONG_METHODS;
+            } else if (position == CommentContext.Position.FILE_HEADER) {
+                position = CommentContext.Position.BEFORE_TYPE;
+            } else if (position == CommentContext.Position.TYPE_START) {
+                position = CommentContext.Position.AMONG_FIELDS;
+            }
+        }
+
+        if (braceBlocks) {
+            countBraces(start, end);
+        }
+    }
+
+    private void countBraces(int start, int end) {
+        int literal = firstLiteralEndingAfter(start);
+        for (int i = start; i < end; i++) {
+            if (literal < literals.size() && i >= literals.start(literal)) {
+                i = literals.end(literal++) - 1;
+                continue;
+            }
+            byte c = text[i];
+            if (c == '{') {
+                depth++;
+                if (pendingType) {
+                    enclosingTypes.peek()[0] = depth;
+                    pendingType = false;
+                }
+            } else if (c == '}') {
+                depth = Math.max(0, depth - 1);
+                while (!enclosingTypes.isEmpty() && enclosingTypes.peek()[0] > depth) {
+                    position = CommentContext.Position.values()[enclosingTypes.pop()[1]];
+                }
+            } else if (c == ';' && pendingType) {
+                // A forward declaration such as "class Foo;" has no body
+                pendingType = false;
+                position = CommentContext.Position.values()[enclosingTypes.pop()[1]];
+            }
+        }
+    }
+
+    // Depth at which the current type's members are declared; 0 outside any type
+    private int memberDepth() {
+        for (int[] type : enclosingTypes) {
+            if (type[0] >= 0) {
+                return type[0];
+            }
+        }
+        return 0;
+    }
+
+    private boolean isTypeDeclaration(int start, int end) {
+        for (String keyword : TYPE_KEYWORDS) {
+            if (containsWord(start, end, keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A parameter list that is not part of an initializer, as in "void run() {"
+    private boolean isMethodDeclaration(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text[i] == '=' || text[i] == '"') {
+                return false;
+            }
+            if (text[i] == '(') {
+                return i > start;
+            }
+        }
+        return false;
+    }
+
+    // Without brace blocks a call looks like a declaration at any depth, so only definitions
+    // such as Python's and Ruby's "def run" count
+    private boolean isDefinition(int start, int end) {
+        return startsWithWord(start, end, "def ") || startsWithWord(start, end, "async def ");
+    }
+
+    private boolean containsWord(int start, int end, String word) {
+        int last = end - word.length();
+        for (int i = start; i < last; i++) {
+            if (text[i] == word.charAt(0) && matchesAt(i, word)
+                    && (i == start || !isIdentifierByte(text[i - 1]))
+                    && (text[i + word.length()] == ' ' || text[i + word.length()] == '\t')
+                    && !isInLiteral(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Index of the first literal that ends after pos
+    private int firstLiteralEndingAfter(int pos) {
+        int low = 0;
+        int high = literals.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (literals.end(mid) <= pos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean isInLiteral(int pos) {
+        int literal = firstLiteralEndingAfter(pos);
+        return literal < literals.size() && literals.start(literal) <= pos;
+    }
+
+    // End of the literal pos lies in, if the literal started before pos, otherwise -1
+    private int literalEnd(int pos) {
+        int literal = firstLiteralEndingAfter(pos);
+        return literal < literals.size() && literals.start(literal) < pos ? literals.end(literal) : -1;
+    }
+
+    private boolean startsWithWord(int start, int end, String word) {
+        return end - start >= word.length() && matchesAt(start, word);
+    }
+
+    private boolean matchesAt(int pos, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (text[pos + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIdentifierByte(byte b) {
+        return b < 0 || b == '_' || b == '$' || b == '.' || Character.isLetterOrDigit(b);
+    }
+
+    private boolean followsCodeOnSameLine(int gapStart, int commentStart) {
+        for (int i = commentStart - 1; i >= gapStart; i--) {
+            byte c = text[i];
+            if (c == '\n' || c == '\r') {
+                return false;
+            }
+            if (c != ' ' && c != '\t' && c != '\f') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String previousCodeLine() {
+        if (lastCodeLine == null) {
+            lastCodeLine = decode(lastCodeStart, lastCodeEnd);
+        }
+        return lastCodeLine;
+    }
+
+    private int endOfSegment(int pos, int end) {
+        while (pos < end && text[pos] != '\n' && text[pos] != '\r') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int skipBlanks(int pos, int end) {
+        while (pos < end && (text[pos] == ' ' || text[pos] == '\t' || text[pos] == '\f')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    // Trimmed and capped so contexts stay small; never cuts a UTF-8 sequence in half, and in
+    // the single-byte charsets every byte is a character of its own
+    private String decode(int start, int end) {
+        while (end > start && text[end - 1] >= 0 && text[end - 1] <= ' ') {
+            end--;
+        }
+        if (end - start > MAX_LINE_LENGTH) {
+            end = start + MAX_LINE_LENGTH;
+            while (charset.equals(StandardCharsets.UTF_8) && end > start && (text[end] & 0xC0) == 0x80) {
+                end--;
+            }
+        }
+        return new String(text, start, end - start, charset);
+    }
+}
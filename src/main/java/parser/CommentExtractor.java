@@ -2,114 +2,490 @@ package parser;
 
 import analysis.CommentLocation;
 import ui.ProgressListener;
+import utils.Threads;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 public class CommentExtractor {
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final WorkItem END_OF_WALK = new WorkItem(Paths.get(""), "", 0, 0, null);
+    private static final Set<String> ARCHIVE_EXTENSIONS = Set.of(".zip", ".jar");
+    private static final String SOURCE_ARCHIVE_SUFFIX = "-sources";
+
     private ProgressListener progressListener;
     private BiConsumer<String, List<CommentLocation>> resultCallback;
     private volatile boolean isCancelled = false;
-    private final CodeParser parser;
+    private final Supplier<CommentParser> parserFactory;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private FingerprintIndex index;
+    private IgnoreRules ignoreRules = IgnoreRules.withDefaults();
+    private boolean measurePrunedDirectories = false;
+    private boolean includeArchives = false;
+    private volatile SkipStats lastSkipStats = new SkipStats();
     
     public CommentExtractor(String language) {
-        this.parser = new CodeParser();
+        this(language, CommentScanner::new);
+    }
+
+    public CommentExtractor(String language, Supplier<CommentParser> parserFactory) {
+        this.parserFactory = parserFactory;
     }
 
     public void setProgressListener(ProgressListener listener) {
         this.progressListener = listener;
     }
 
+    // The callback is invoked from the worker threads as soon as each file is parsed
     public void setResultCallback(BiConsumer<String, List<CommentLocation>> callback) {
         this.resultCallback = callback;
     }
 
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    public void setIgnoreRules(IgnoreRules ignoreRules) {
+        this.ignoreRules = ignoreRules != null ? ignoreRules : IgnoreRules.none();
+    }
+
+    // Sizes pruned subtrees with a stat-only walk so the skip statistics include them
+    public void setMeasurePrunedDirectories(boolean measurePrunedDirectories) {
+        this.measurePrunedDirectories = measurePrunedDirectories;
+    }
+
+    // Zip and jar files found during the walk are read in place as additional source trees;
+    // without this only -sources archives are, so binary jars and wrappers are never opened
+    public void setIncludeArchives(boolean includeArchives) {
+        this.includeArchives = includeArchives;
+    }
+
+    public SkipStats getSkipStats() {
+        return lastSkipStats;
+    }
+
+    // Unchanged files are served from the index instead of being parsed again
+    public void setIndex(FingerprintIndex index) {
+        this.index = index;
+    }
+
     public void cancel() {
         isCancelled = true;
     }
 
+    // The directory may also be a single zip or jar archive
     public void extractCommentsFromDirectory(File directory) throws IOException {
         isCancelled = false;
         updateProgress(0, "Starting directory scan...");
-        
-        AtomicInteger totalFiles = countSupportedFiles(directory);
 
-        if (totalFiles.get() == 0) {
+        if (index != null) {
+            index.beginRun();
+        }
+
+        ExtractionRun run = new ExtractionRun(directory.toPath());
+        lastSkipStats = run.skipStats;
+        try {
+            run.start();
+            if (directory.isFile() && isArchive(directory.getName())) {
+                run.walkArchive(directory.toPath(), directory.getName());
+            } else {
+                run.walk();
+            }
+        } finally {
+            run.finish();
+        }
+
+        if (index != null && !isCancelled) {
+            index.removeUnseen();
+        }
+
+        if (run.discoveredFiles.get() == 0) {
             updateProgress(100, "No supported files found to analyze");
-            return;
         }
+    }
+
+    // Re-extracts only the given files, e.g. the ones reported by a DirectoryWatcher
+    public void extractCommentsFromFiles(File directory, Collection<Path> files) throws IOException {
+        isCancelled = false;
 
-        processFiles(directory, totalFiles);
+        ExtractionRun run = new ExtractionRun(directory.toPath());
+        lastSkipStats = run.skipStats;
+        try {
+            run.start();
+            run.submit(files);
+        } finally {
+            run.finish();
+        }
     }
 
-    private AtomicInteger countSupportedFiles(File directory) throws IOException {
-        AtomicInteger totalFiles = new AtomicInteger(0);
-        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                String fileName = file.toString().toLowerCase();
-                if (isSupportedFile(fileName)) {
-                    totalFiles.incrementAndGet();
+    // One walk feeding a bounded queue that is drained by parser workers, or in virtual thread
+    // mode starting a virtual thread per file, with at most Threads.getMaxOpenFiles() files
+    // being read and parsed at once
+    private class ExtractionRun {
+        private final Path basePath;
+        private final BlockingQueue<WorkItem> workQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final WalkProgress walkProgress = new WalkProgress();
+        private final SkipStats skipStats = new SkipStats();
+        private final AtomicInteger discoveredFiles = new AtomicInteger(0);
+        private final AtomicInteger processedFiles = new AtomicInteger(0);
+        private final List<Thread> workers = new ArrayList<>();
+        // Virtual thread mode only
+        private ExecutorService fileThreads;
+        private Semaphore openFiles;
+        private final Queue<CommentParser> idleParsers = new ConcurrentLinkedQueue<>();
+        private volatile boolean walkComplete = false;
+
+        ExtractionRun(Path basePath) {
+            this.basePath = basePath;
+        }
+
+        void start() {
+            if (Threads.isVirtual()) {
+                fileThreads = Threads.newCachedExecutor("comment-extractor");
+                openFiles = new Semaphore(Threads.getMaxOpenFiles());
+                return;
+            }
+            for (int i = 0; i < threadCount; i++) {
+                Thread worker = new Thread(this::drainQueue, "comment-extractor-" + i);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+
+        void walk() throws IOException {
+            IgnoreRules.Walker ignoreWalker = ignoreRules.newWalker(basePath);
+            Files.walkFileTree(basePath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (isCancelled) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (!ignoreWalker.enterDirectory(dir)) {
+                        skipStats.prunedDirectories++;
+                        if (measurePrunedDirectories) {
+                            measurePrunedDirectory(dir);
+                        }
+                        walkProgress.fileDone();
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    walkProgress.enterDirectory(dir);
+                    return FileVisitResult.CONTINUE;
                 }
-                return FileVisitResult.CONTINUE;
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (isCancelled) {
+                        return FileVisitResult.TERMINATE;
+                    }
+
+                    if (isSupportedFile(file.toString())) {
+                        if (ignoreWalker.isIgnoredFile(file)) {
+                            skipStats.skippedFiles++;
+                            skipStats.skippedBytes += attrs.size();
+                        } else {
+                            discoveredFiles.incrementAndGet();
+                            enqueue(new WorkItem(file, getRelativePath(basePath, file),
+                                attrs.size(), attrs.lastModifiedTime().toMillis(), null));
+                        }
+                    } else if (isArchive(file.toString()) && (includeArchives || isSourceArchive(file.toString()))
+                               && !ignoreWalker.isIgnoredFile(file)) {
+                        walkArchive(file, getRelativePath(basePath, file));
+                    }
+                    walkProgress.fileDone();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    ignoreWalker.exitDirectory();
+                    walkProgress.exitDirectory();
+                    return super.postVisitDirectory(dir, exc);
+                }
+            });
+        }
+
+        // Entries are queued like ordinary files, so several archives are parsed in parallel
+        void walkArchive(Path archive, String archivePath) throws IOException {
+            FileSystem zipFileSystem;
+            try {
+                zipFileSystem = FileSystems.newFileSystem(archive);
+            } catch (IOException | ProviderNotFoundException e) {
+                System.err.println("Cannot open archive: " + archive + ": " + e.getMessage());
+                return;
             }
-        });
-        return totalFiles;
-    }
+            OpenArchive openArchive = new OpenArchive(zipFileSystem);
+            try {
+                for (Path root : zipFileSystem.getRootDirectories()) {
+                    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) throws IOException {
+                            if (isCancelled) {
+                                return FileVisitResult.TERMINATE;
+                            }
+                            if (attrs.isRegularFile() && isSupportedFile(entry.toString())) {
+                                discoveredFiles.incrementAndGet();
+                                openArchive.pendingEntries.incrementAndGet();
+                                String entryPath = archivePath + "!/" + root.relativize(entry);
+                                enqueue(new WorkItem(entry, entryPath,
+                                    attrs.size(), attrs.lastModifiedTime().toMillis(), openArchive));
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
 
-    private void processFiles(File directory, AtomicInteger totalFiles) throws IOException {
-        AtomicInteger processedFiles = new AtomicInteger(0);
-        
-        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (isCancelled) {
-                    return FileVisitResult.TERMINATE;
-                }
-                
-                String fileName = file.toString();
-                if (isSupportedFile(fileName)) {
-                    try {
-                        processFile(file, directory.toPath(), processedFiles, totalFiles);
-                    } catch (IOException e) {
-                        System.err.println("Error processing file: " + file + ": " + e.getMessage());
+                        @Override
+                        public FileVisitResult visitFileFailed(Path entry, IOException exc) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+                }
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                System.err.println("Cannot read archive: " + archive + ": " + e.getMessage());
+            } finally {
+                openArchive.release();
+            }
+        }
+
+        private void measurePrunedDirectory(Path dir) {
+            try {
+                Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (isSupportedFile(file.toString())) {
+                            skipStats.skippedFiles++;
+                            skipStats.skippedBytes += attrs.size();
+                        }
+                        return FileVisitResult.CONTINUE;
                     }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Cannot measure pruned directory: " + dir + ": " + e.getMessage());
+            }
+        }
+
+        void submit(Collection<Path> files) throws IOException {
+            for (Path file : files) {
+                if (isCancelled) {
+                    return;
+                }
+                if (!isSupportedFile(file.toString())) {
+                    continue;
+                }
+                if (ignoreRules.isIgnored(basePath, file, false)) {
+                    skipStats.skippedFiles++;
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attrs.isRegularFile()) {
+                    discoveredFiles.incrementAndGet();
+                    enqueue(new WorkItem(file, getRelativePath(basePath, file),
+                        attrs.size(), attrs.lastModifiedTime().toMillis(), null));
                 }
-                return FileVisitResult.CONTINUE;
             }
-        });
-    }
+        }
 
-    private void processFile(Path file, Path basePath, AtomicInteger processedFiles, AtomicInteger totalFiles) throws IOException {
-        String relativePath = getRelativePath(basePath, file);
-        updateProgress(
-            (processedFiles.get() * 100) / totalFiles.get(),
-            String.format("Analyzing file (%d/%d): %s", 
-                processedFiles.get() + 1, 
-                totalFiles.get(),
-                relativePath)
-        );
+        void finish() throws IOException {
+            walkComplete = true;
+            if (fileThreads != null) {
+                // Waits for the files still being parsed; an interrupt cancels them
+                fileThreads.close();
+                if (Thread.currentThread().isInterrupted()) {
+                    isCancelled = true;
+                    throw new InterruptedIOException("Comment extraction interrupted");
+                }
+                return;
+            }
+            try {
+                for (int i = 0; i < workers.size(); i++) {
+                    workQueue.put(END_OF_WALK);
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (InterruptedException e) {
+                // Workers left without an end marker would wait on the queue forever
+                isCancelled = true;
+                workers.forEach(Thread::interrupt);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Comment extraction interrupted");
+            }
+        }
 
-        // Read first line for language detection
-        String firstLine = null;
-        try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
-            firstLine = reader.readLine();
+        private void enqueue(WorkItem item) throws InterruptedIOException {
+            try {
+                if (fileThreads != null) {
+                    openFiles.acquire();
+                    fileThreads.execute(() -> {
+                        CommentParser parser = idleParsers.poll();
+                        try {
+                            process(parser != null ? parser : (parser = parserFactory.get()), item);
+                        } finally {
+                            idleParsers.add(parser);
+                            openFiles.release();
+                        }
+                    });
+                    return;
+                }
+                workQueue.put(item);
+            } catch (InterruptedException e) {
+                isCancelled = true;
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Comment extraction interrupted");
+            }
         }
 
-        // Auto-detect language and set it in parser
-        String detectedLanguage = LanguageConfig.detectLanguage(file.toString(), firstLine);
-        if (detectedLanguage != null) {
-            parser.setLanguage(detectedLanguage);
-            List<CommentLocation> fileComments = parser.extractCommentsWithLocations(file.toFile());
+        private void drainQueue() {
+            CommentParser parser = parserFactory.get();
+            while (true) {
+                WorkItem item;
+                try {
+                    item = workQueue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (item == END_OF_WALK) {
+                    return;
+                }
+                process(parser, item);
+            }
+        }
+
+        private void process(CommentParser parser, WorkItem item) {
+            try {
+                if (!isCancelled) {
+                    processFile(parser, item);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error processing file: " + item.relativePath + ": " + e.getMessage());
+            } finally {
+                if (item.archive != null) {
+                    item.archive.release();
+                }
+            }
+        }
+
+        private void processFile(CommentParser parser, WorkItem item) throws IOException {
+            Path file = item.file;
+            String relativePath = item.relativePath;
+            reportProgress(relativePath);
+
+            // Supported files always carry a known extension, so no first-line sniffing is needed
+            String detectedLanguage = LanguageConfig.detectLanguage(file.toString(), null);
+            if (detectedLanguage == null) {
+                return;
+            }
+
+            List<CommentLocation> fileComments = null;
+            byte[] contentHash = null;
+            if (index != null) {
+                fileComments = index.lookup(relativePath, item.size, item.lastModified);
+                if (fileComments == null) {
+                    contentHash = FingerprintIndex.hashFile(file);
+                    fileComments = index.lookupByHash(relativePath, item.size, item.lastModified, contentHash);
+                }
+            }
+
+            if (fileComments == null) {
+                parser.setLanguage(detectedLanguage);
+                fileComments = parser.extractCommentsWithLocations(file);
+                if (index != null) {
+                    index.put(relativePath, item.size, item.lastModified, contentHash, fileComments);
+                }
+            }
+
             if (resultCallback != null && !fileComments.isEmpty()) {
                 resultCallback.accept(relativePath, fileComments);
             }
         }
-        
-        processedFiles.incrementAndGet();
+
+        private void reportProgress(String relativePath) {
+            int processed = processedFiles.incrementAndGet();
+            int discovered = discoveredFiles.get();
+            String total;
+            int estimatedTotal;
+            if (walkComplete) {
+                estimatedTotal = discovered;
+                total = String.valueOf(discovered);
+            } else {
+                // Extrapolate the final file count from how much of the tree has been walked
+                double walked = walkProgress.walkedFraction();
+                estimatedTotal = walked > 0 ? Math.max(discovered, (int) (discovered / walked)) : discovered;
+                total = "~" + estimatedTotal;
+            }
+            int progress = Math.min(99, (int) (((long) (processed - 1) * 100) / Math.max(1, estimatedTotal)));
+            updateProgress(progress, String.format("Analyzing file (%d/%s): %s", processed, total, relativePath));
+        }
+    }
+
+    // Source files left out by the ignore rules during the last extraction
+    public static class SkipStats {
+        private int prunedDirectories;
+        private int skippedFiles;
+        private long skippedBytes;
+
+        public int getPrunedDirectories() { return prunedDirectories; }
+        public int getSkippedFiles() { return skippedFiles; }
+        public long getSkippedBytes() { return skippedBytes; }
+
+        @Override
+        public String toString() {
+            return String.format("%d pruned directories, %d source files (%.1f MB) skipped",
+                prunedDirectories, skippedFiles, skippedBytes / 1048576.0);
+        }
+    }
+
+    private static class WorkItem {
+        final Path file;
+        final String relativePath;
+        final long size;
+        final long lastModified;
+        final OpenArchive archive;
+
+        WorkItem(Path file, String relativePath, long size, long lastModified, OpenArchive archive) {
+            this.file = file;
+            this.relativePath = relativePath;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.archive = archive;
+        }
+    }
+
+    // Closes an archive's file system once its walk and all of its queued entries are done
+    private static class OpenArchive {
+        final FileSystem fileSystem;
+        final AtomicInteger pendingEntries = new AtomicInteger(1);
+
+        OpenArchive(FileSystem fileSystem) {
+            this.fileSystem = fileSystem;
+        }
+
+        void release() {
+            if (pendingEntries.decrementAndGet() == 0) {
+                try {
+                    fileSystem.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing archive: " + e.getMessage());
+                }
+            }
+        }
     }
 
     private boolean isSupportedFile(String fileName) {
@@ -117,6 +493,17 @@ public class CommentExtractor {
         return LanguageConfig.isSupportedExtension(ext);
     }
 
+    private static boolean isArchive(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex > 0 && ARCHIVE_EXTENSIONS.contains(fileName.substring(dotIndex).toLowerCase());
+    }
+
+    // Such as foo-1.0-sources.jar, as published next to a library's binary jar
+    private static boolean isSourceArchive(String fileName) {
+        int dotIndex = fileName.lastIndexOf('.');
+        return dotIndex > 0 && fileName.substring(0, dotIndex).toLowerCase().endsWith(SOURCE_ARCHIVE_SUFFIX);
+    }
+
     private String getFileExtension(String fileName) {
         int dotIndex = fileName.lastIndexOf('.');
         return dotIndex > 0 ? fileName.substring(dotIndex).toLowerCase() : "";
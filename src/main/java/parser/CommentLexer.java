@@ -0,0 +1,494 @@
+package parser;
+
+import analysis.CommentContext;
+import analysis.CommentLocation;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Finite-state comment lexer compiled once per language from its {@link LanguageSyntax} table.
+ *
+ * The lexer works on raw bytes: every delimiter is ASCII, so in an ASCII-compatible charset
+ * such as UTF-8 delimiters can be matched without decoding, and only comment spans are turned
+ * into strings. Other charsets (UTF-16 or UTF-32 with a byte order mark) are transcoded to
+ * UTF-8 first.
+ *
+ * The text is scanned once, left to right. In the default state a 128-entry dispatch table
+ * says which bytes can open a token; everything else is skipped without further work.
+ * Strings, char literals, raw strings and regex literals are consumed as a whole, so
+ * delimiters inside them are never mistaken for comments, and comments that trail code on
+ * the same line are found. Line numbers are counted lazily up to each comment start, which
+ * keeps the whole scan linear in the length of the text regardless of line length.
+ */
+public final class CommentLexer {
+    private static final Map<String, CommentLexer> LEXERS = new ConcurrentHashMap<>();
+    private static final int MAX_CPP_RAW_DELIMITER = 16;
+    private static final int PARALLEL_THRESHOLD = 16 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    // Words after which a / opens a regex literal rather than a division
+    private static final Set<String> REGEX_KEYWORDS = Set.of(
+        "return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do",
+        "else", "yield", "await");
+    private static final String REGEX_PRECEDERS = "(,=:[!&|?{};+-*%<>~^";
+
+    private final LanguageSyntax.Delimiter[][] dispatch = new LanguageSyntax.Delimiter[128][];
+    private final boolean docStrings;
+    private final boolean braceBlocks;
+    private final boolean digitSeparators;
+
+    private CommentLexer(LanguageSyntax syntax) {
+        Map<Character, List<LanguageSyntax.Delimiter>> byFirstChar = new HashMap<>();
+        for (LanguageSyntax.Delimiter delimiter : syntax.getDelimiters()) {
+            byFirstChar.computeIfAbsent(delimiter.open.charAt(0), c -> new ArrayList<>()).add(delimiter);
+        }
+        for (Map.Entry<Character, List<LanguageSyntax.Delimiter>> entry : byFirstChar.entrySet()) {
+            List<LanguageSyntax.Delimiter> candidates = entry.getValue();
+            // Longest delimiter first so """ wins over " and /* over /
+            candidates.sort((a, b) -> b.open.length() - a.open.length());
+            dispatch[entry.getKey()] = candidates.toArray(new LanguageSyntax.Delimiter[0]);
+        }
+        this.docStrings = syntax.hasDocStrings();
+        this.braceBlocks = syntax.hasBraceBlocks();
+        this.digitSeparators = syntax.hasDigitSeparators();
+    }
+
+    public static CommentLexer forLanguage(String language) {
+        return LEXERS.computeIfAbsent(language.toLowerCase(), lang -> new CommentLexer(LanguageConfig.getSyntax(lang)));
+    }
+
+    List<CommentLocation> scan(String fileName, byte[] text, int length, SourceCharset source) {
+        if (!source.isAsciiCompatible()) {
+            String decoded = new String(text, source.bomLength, length - source.bomLength, source.charset);
+            byte[] utf8 = decoded.getBytes(StandardCharsets.UTF_8);
+            return scan(fileName, utf8, 0, utf8.length, StandardCharsets.UTF_8);
+        }
+        return scan(fileName, text, source.bomLength, length, source.charset);
+    }
+
+    private List<CommentLocation> scan(String fileName, byte[] text, int from, int length, Charset charset) {
+        if (length - from >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            return scanInChunks(fileName, text, from, length, charset);
+        }
+        Spans comments = new Spans();
+        Spans tokens = new Spans();
+        scanRange(text, from, from, length, length, comments, tokens);
+        CommentContext[] contexts = new CommentContextTracker(text, from, length, charset, braceBlocks, tokens).track(comments);
+        List<CommentLocation> locations = new ArrayList<>(comments.size());
+        addLocations(locations, fileName, text, from, length, 1, comments, contexts, 0, charset);
+        return locations;
+    }
+
+    /*
+     * Very large files are split into chunks at line boundaries. Every chunk is first scanned
+     * speculatively, as if it started in the default state, recording the spans of all tokens
+     * it consumed. The chunks are then stitched together in order: the exact scan enters each
+     * chunk where the previous chunk's last token ended, and from any position the speculative
+     * scan also passed through in the default state both scans are identical, so only the few
+     * bytes before that point (e.g. the rest of a comment or string crossing the boundary) are
+     * lexed again. The result is exactly that of a sequential scan.
+     */
+    private List<CommentLocation> scanInChunks(String fileName, byte[] text, int from, int length, Charset charset) {
+        int[] bounds = chunkBoundaries(text, from, length);
+        int chunkCount = bounds.length - 1;
+        ChunkScan[] chunks = new ChunkScan[chunkCount];
+        IntStream.range(0, chunkCount).parallel().forEach(i -> {
+            ChunkScan chunk = new ChunkScan();
+            chunk.stop = scanRange(text, from, bounds[i], bounds[i + 1], length, chunk.comments, chunk.tokens);
+            chunk.lineBreaks = countLineBreaks(text, bounds[i], bounds[i + 1], length);
+            chunks[i] = chunk;
+        });
+
+        Spans[] reconciled = new Spans[chunkCount];
+        int[] firstLines = new int[chunkCount];
+        Spans tokens = new Spans();
+        int pos = from;
+        for (int i = 0; i < chunkCount; i++) {
+            ChunkScan chunk = chunks[i];
+            int end = bounds[i + 1];
+            Spans comments = new Spans();
+            while (pos < end && !chunk.reachedInDefaultState(pos)) {
+                pos = scanRange(text, from, pos, pos + 1, length, comments, tokens);
+            }
+            if (pos < end) {
+                comments.addStartingAt(chunk.comments, pos);
+                tokens.addStartingAt(chunk.tokens, pos);
+                pos = chunk.stop;
+            }
+            reconciled[i] = comments;
+            firstLines[i] = i == 0 ? 1 : firstLines[i - 1] + chunks[i - 1].lineBreaks;
+        }
+
+        // Contexts depend on everything before a comment, so they are tracked in one sequential pass
+        Spans allComments = new Spans();
+        int[] firstComments = new int[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            firstComments[i] = allComments.size();
+            allComments.addStartingAt(reconciled[i], 0);
+        }
+        CommentContext[] contexts = new CommentContextTracker(text, from, length, charset, braceBlocks, tokens).track(allComments);
+
+        List<List<CommentLocation>> chunkLocations = new ArrayList<>(Collections.nCopies(chunkCount, null));
+        IntStream.range(0, chunkCount).parallel().forEach(i -> {
+            List<CommentLocation> locations = new ArrayList<>(reconciled[i].size());
+            addLocations(locations, fileName, text, bounds[i], length, firstLines[i], reconciled[i],
+                contexts, firstComments[i], charset);
+            chunkLocations.set(i, locations);
+        });
+        List<CommentLocation> locations = new ArrayList<>();
+        chunkLocations.forEach(locations::addAll);
+        return locations;
+    }
+
+    // Scans from pos until the first position at or after stopAt that is not inside a token
+    private int scanRange(byte[] text, int from, int pos, int stopAt, int length, Spans comments, Spans tokens) {
+        while (pos < stopAt) {
+            int c = text[pos];
+            LanguageSyntax.Delimiter[] candidates = c >= 0 ? dispatch[c] : null;
+            if (candidates == null) {
+                pos++;
+                continue;
+            }
+            LanguageSyntax.Delimiter token = match(candidates, text, pos, length);
+            if (token == null) {
+                pos++;
+                continue;
+            }
+
+            int start = pos;
+            int bodyStart = pos + token.open.length();
+            switch (token.kind) {
+                case LINE_COMMENT -> {
+                    pos = endOfLine(text, bodyStart, length);
+                    comments.add(start, pos);
+                }
+                case BLOCK_COMMENT -> {
+                    int close = token.lineStartOnly
+                        ? indexOfAtLineStart(text, bodyStart, length, token.close)
+                        : indexOf(text, bodyStart, length, token.close);
+                    pos = close < 0 ? length : close + token.close.length();
+                    if (token.lineStartOnly) {
+                        pos = endOfLine(text, pos, length);
+                    }
+                    comments.add(start, pos);
+                }
+                case STRING, CHAR_LITERAL -> pos = skipQuoted(text, bodyStart, length, token.close, true, false);
+                case MULTI_LINE_STRING -> {
+                    pos = skipQuoted(text, bodyStart, length, token.close, true, true);
+                    if (docStrings && onlyWhitespaceBefore(text, from, start)) {
+                        comments.add(start, pos);
+                    }
+                }
+                case CPP_RAW_STRING -> pos = skipCppRawString(text, start, bodyStart, length);
+                case REGEX_LITERAL -> pos = skipRegex(text, start, bodyStart, length);
+                case CODE -> pos = bodyStart;
+            }
+            if (tokens != null && pos - start > 1) {
+                tokens.add(start, pos);
+            }
+        }
+        return pos;
+    }
+
+    private static void addLocations(List<CommentLocation> locations, String fileName, byte[] text, int lineStart,
+                                     int length, int firstLine, Spans comments, CommentContext[] contexts,
+                                     int firstContext, Charset charset) {
+        LineCounter lines = new LineCounter(text, lineStart, length, firstLine);
+        for (int i = 0; i < comments.size(); i++) {
+            int start = comments.start(i);
+            locations.add(comment(fileName, lines.lineAt(start), text, start, comments.end(i),
+                contexts[firstContext + i], charset));
+        }
+    }
+
+    private static int[] chunkBoundaries(byte[] text, int from, int length) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(from);
+        int pos = from + CHUNK_SIZE;
+        while (pos < length) {
+            // Cut after the next line terminator so a \r\n pair is never split
+            while (pos < length && text[pos - 1] != '\n' && !(text[pos - 1] == '\r' && text[pos] != '\n')) {
+                pos++;
+            }
+            if (pos >= length) {
+                break;
+            }
+            bounds.add(pos);
+            pos += CHUNK_SIZE;
+        }
+        bounds.add(length);
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int countLineBreaks(byte[] text, int start, int end, int length) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            byte c = text[i];
+            if (c == '\n' || (c == '\r' && (i + 1 >= length || text[i + 1] != '\n'))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Decided by the bytes alone, never by the lexer state, so chunk scans stay exact
+    private LanguageSyntax.Delimiter match(LanguageSyntax.Delimiter[] candidates, byte[] text, int pos, int length) {
+        for (LanguageSyntax.Delimiter candidate : candidates) {
+            if (!startsWith(text, pos, length, candidate.open)) {
+                continue;
+            }
+            if (candidate.lineStartOnly && pos > 0 && text[pos - 1] != '\n' && text[pos - 1] != '\r') {
+                continue;
+            }
+            // Word-like openers such as R" must not be the tail of an identifier
+            if (Character.isLetter(candidate.open.charAt(0)) && pos > 0 && isIdentifierByte(text[pos - 1])) {
+                continue;
+            }
+            if (candidate.kind == LanguageSyntax.Kind.REGEX_LITERAL && !regexMayStartAt(text, pos)) {
+                continue;
+            }
+            if (candidate.kind == LanguageSyntax.Kind.CHAR_LITERAL && digitSeparators && isInNumber(text, pos)) {
+                continue;
+            }
+            return candidate;
+        }
+        return null;
+    }
+
+    private static int skipQuoted(byte[] text, int pos, int length, String close, boolean escapes, boolean multiLine) {
+        byte first = (byte) close.charAt(0);
+        while (pos < length) {
+            byte c = text[pos];
+            if (escapes && c == '\\') {
+                pos += 2;
+            } else if (c == first && startsWith(text, pos, length, close)) {
+                return pos + close.length();
+            } else if (!multiLine && (c == '\n' || c == '\r')) {
+                // Unterminated literal: recover at the end of the line
+                return pos;
+            } else {
+                pos++;
+            }
+        }
+        return length;
+    }
+
+    // A / opens a regex after an operator, an opening bracket or a keyword such as return,
+    // and is a division after an operand
+    private static boolean regexMayStartAt(byte[] text, int pos) {
+        int i = pos - 1;
+        while (i >= 0 && (text[i] == ' ' || text[i] == '\t' || text[i] == '\n' || text[i] == '\r' || text[i] == '\f')) {
+            i--;
+        }
+        if (i < 0 || text[i] < 0) {
+            return true;
+        }
+        if (REGEX_PRECEDERS.indexOf(text[i]) >= 0) {
+            return true;
+        }
+        int wordEnd = i + 1;
+        while (i >= 0 && isIdentifierByte(text[i])) {
+            i--;
+        }
+        return wordEnd - i - 1 <= 10 && REGEX_KEYWORDS.contains(new String(text, i + 1, wordEnd - i - 1, StandardCharsets.ISO_8859_1));
+    }
+
+    // True if the quote at pos follows the digits of a number, as in 1'000 or 0xFF'FF, and not
+    // a prefix such as L or u8
+    private static boolean isInNumber(byte[] text, int pos) {
+        int i = pos - 1;
+        while (i >= 0 && (isIdentifierByte(text[i]) || text[i] == '\'' || text[i] == '.')) {
+            i--;
+        }
+        return i + 1 < pos && text[i + 1] >= '0' && text[i + 1] <= '9';
+    }
+
+    // A regex ends at an unescaped / outside a [...] class on the same line; without one the
+    // / was a division after all
+    private static int skipRegex(byte[] text, int start, int pos, int length) {
+        boolean inClass = false;
+        while (pos < length) {
+            byte c = text[pos];
+            if (c == '\\') {
+                pos += 2;
+                continue;
+            }
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+            if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '/') {
+                return pos + 1;
+            }
+            pos++;
+        }
+        return start + 1;
+    }
+
+    private static int skipCppRawString(byte[] text, int start, int pos, int length) {
+        int paren = pos;
+        while (paren < length && paren - pos <= MAX_CPP_RAW_DELIMITER && text[paren] != '(') {
+            byte c = text[paren];
+            if (c == ')' || c == '\\' || c == '"' || c <= ' ') {
+                return start + 1;
+            }
+            paren++;
+        }
+        if (paren >= length || text[paren] != '(') {
+            return start + 1;
+        }
+        String close = ")" + new String(text, pos, paren - pos, StandardCharsets.ISO_8859_1) + "\"";
+        int end = indexOf(text, paren + 1, length, close);
+        return end < 0 ? length : end + close.length();
+    }
+
+    private static boolean onlyWhitespaceBefore(byte[] text, int from, int pos) {
+        for (int i = pos - 1; i >= from; i--) {
+            byte c = text[i];
+            if (c == '\n' || c == '\r') {
+                return true;
+            }
+            if (c != ' ' && c != '\t' && c != '\f') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int endOfLine(byte[] text, int pos, int length) {
+        while (pos < length && text[pos] != '\n' && text[pos] != '\r') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int indexOf(byte[] text, int from, int length, String token) {
+        byte first = (byte) token.charAt(0);
+        for (int i = from; i <= length - token.length(); i++) {
+            if (text[i] == first && startsWith(text, i, length, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifierByte(byte b) {
+        // Bytes of multi-byte characters are treated as letters
+        return b < 0 || Character.isJavaIdentifierPart((char) b);
+    }
+
+    private static int indexOfAtLineStart(byte[] text, int from, int length, String token) {
+        for (int i = indexOf(text, from, length, token); i >= 0; i = indexOf(text, i + 1, length, token)) {
+            if (text[i - 1] == '\n' || text[i - 1] == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] text, int pos, int length, String token) {
+        if (pos + token.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (text[pos + i] != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static CommentLocation comment(String fileName, int line, byte[] text, int start, int end,
+                                           CommentContext context, Charset charset) {
+        while (end > start && text[end - 1] >= 0 && text[end - 1] <= ' ') {
+            end--;
+        }
+        String content = new String(text, start, end - start, charset);
+        if (content.indexOf('\r') >= 0) {
+            content = content.replace("\r\n", "\n").replace('\r', '\n');
+        }
+        return new CommentLocation(fileName, line, content, null, context);
+    }
+
+    // Counts line terminators (\n, \r\n or a lone \r) lazily as positions only move forward
+    private static class LineCounter {
+        private final byte[] text;
+        private final int length;
+        private int position;
+        private int line;
+
+        LineCounter(byte[] text, int from, int length, int firstLine) {
+            this.text = text;
+            this.position = from;
+            this.length = length;
+            this.line = firstLine;
+        }
+
+        int lineAt(int target) {
+            while (position < target) {
+                byte c = text[position];
+                if (c == '\n' || (c == '\r' && (position + 1 >= length || text[position + 1] != '\n'))) {
+                    line++;
+                }
+                position++;
+            }
+            return line;
+        }
+    }
+
+    // Start and end offsets of lexed tokens, in scan order
+    static final class Spans {
+        private int[] offsets = new int[32];
+        private int size = 0;
+
+        void add(int start, int end) {
+            if (size * 2 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[size * 2] = start;
+            offsets[size * 2 + 1] = end;
+            size++;
+        }
+
+        void addStartingAt(Spans other, int position) {
+            for (int i = 0; i < other.size; i++) {
+                if (other.start(i) >= position) {
+                    add(other.start(i), other.end(i));
+                }
+            }
+        }
+
+        int size() { return size; }
+        int start(int i) { return offsets[i * 2]; }
+        int end(int i) { return offsets[i * 2 + 1]; }
+    }
+
+    // Result of scanning one chunk as if it started outside any token
+    private static class ChunkScan {
+        final Spans comments = new Spans();
+        final Spans tokens = new Spans();
+        int stop;
+        int lineBreaks;
+
+        // True if the speculative scan passed through position in the default state
+        boolean reachedInDefaultState(int position) {
+            int low = 0;
+            int high = tokens.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (tokens.start(mid) < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high < 0 || tokens.end(high) <= position;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package parser;
+
+import analysis.CommentLocation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface CommentParser {
+    void setLanguage(String language);
+
+    // Paths may belong to any file system, e.g. entries of a zip or jar archive
+    List<CommentLocation> extractCommentsWithLocations(Path file) throws IOException;
+
+    default List<CommentLocation> extractCommentsWithLocations(File file) throws IOException {
+        return extractCommentsWithLocations(file.toPath());
+    }
+}
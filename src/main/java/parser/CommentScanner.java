@@ -0,0 +1,87 @@
+package parser;
+
+import analysis.CommentLocation;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Buffered front end for the {@link CommentLexer}.
+ *
+ * Each file is read once into a reused byte buffer and scanned without decoding; only
+ * comment spans are decoded, with the charset given by a byte order mark or configured
+ * (UTF-8 by default). The output is identical to {@link CodeParser}, which runs the same
+ * lexer over freshly allocated bytes.
+ *
+ * Instances keep their buffer between files and are therefore not thread-safe.
+ */
+public class CommentScanner implements CommentParser {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private String language;
+    private CommentLexer lexer;
+    private Charset charset = SourceCharset.configured();
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    public CommentScanner() {
+    }
+
+    public CommentScanner(String language) {
+        setLanguage(language);
+    }
+
+    @Override
+    public final void setLanguage(String language) {
+        this.language = language.toLowerCase();
+        this.lexer = CommentLexer.forLanguage(this.language);
+    }
+
+    // Used for files without a byte order mark
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    @Override
+    public List<CommentLocation> extractCommentsWithLocations(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        int length = readFile(file);
+        SourceCharset source = SourceCharset.detect(buffer, length, charset);
+
+        if (language == null) {
+            String detectedLang = LanguageConfig.detectLanguage(fileName, source.firstLine(buffer, length));
+            if (detectedLang == null) {
+                throw new IllegalArgumentException("Unsupported file type: " + fileName);
+            }
+            setLanguage(detectedLang);
+        }
+
+        List<CommentLocation> comments = lexer.scan(fileName, buffer, length, source);
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        return comments;
+    }
+
+    // Reads the whole file into the buffer, growing it if needed, and returns its length
+    private int readFile(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large: " + file);
+            }
+            if (buffer.length < size) {
+                buffer = new byte[(int) size];
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(buffer);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // keep reading until the whole file is buffered
+            }
+            return bytes.position();
+        }
+    }
+}
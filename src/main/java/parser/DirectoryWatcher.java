@@ -0,0 +1,223 @@
+package parser;
+
+import analysis.CommentLocation;
+import utils.Threads;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Watches a directory tree and re-extracts only the files that change.
+ *
+ * Events are coalesced until the tree has been quiet for a short period (or a maximum
+ * delay has passed), so a burst such as a branch checkout is handled as one batch.
+ * Changed files go through a {@link CommentExtractor} backed by the directory's
+ * {@link FingerprintIndex}; files whose content did not actually change are served
+ * from the index. If the watch service overflows, the whole tree is re-extracted.
+ */
+public class DirectoryWatcher implements Closeable {
+    private static final long QUIET_PERIOD_MS = 300;
+    private static final long MAX_DELAY_MS = 3000;
+
+    public interface ChangeListener {
+        // Files mapped to an empty list no longer contain comments; fullRescan replaces all results
+        void onChanges(Map<String, List<CommentLocation>> updated, Set<String> removed, boolean fullRescan);
+    }
+
+    private final Path root;
+    private final FingerprintIndex index;
+    private final ChangeListener listener;
+    private final WatchService watchService;
+    private final IgnoreRules ignoreRules = IgnoreRules.withDefaults();
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private Supplier<CommentParser> parserFactory = CommentScanner::new;
+    private volatile boolean running = false;
+    private Thread watchThread;
+
+    public DirectoryWatcher(File directory, FingerprintIndex index, ChangeListener listener) throws IOException {
+        this.root = directory.toPath().toAbsolutePath().normalize();
+        this.index = index;
+        this.listener = listener;
+        this.watchService = root.getFileSystem().newWatchService();
+    }
+
+    // Should match the parser that filled the index
+    public void setParserFactory(Supplier<CommentParser> parserFactory) {
+        this.parserFactory = parserFactory;
+    }
+
+    public void start() throws IOException {
+        registerTree(root, null);
+        running = true;
+        watchThread = Threads.newThread("directory-watcher", true, this::watchLoop);
+        watchThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        watchService.close();
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+    }
+
+    // Registers every directory below start; files found on the way are added to newFiles
+    private void registerTree(Path start, Set<Path> newFiles) throws IOException {
+        // Rooted at root, so ancestor ignore files and anchored excludes apply below start too
+        IgnoreRules.Walker ignoreWalker = ignoreRules.newWalker(root, start);
+        if (ignoreWalker == null) {
+            return;
+        }
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!ignoreWalker.enterDirectory(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                try {
+                    WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchedDirectories.put(key, dir);
+                } catch (IOException e) {
+                    System.err.println("Cannot watch directory: " + dir + ": " + e.getMessage());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                ignoreWalker.exitDirectory();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (newFiles != null && attrs.isRegularFile()) {
+                    newFiles.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        Set<Path> pending = new LinkedHashSet<>();
+        boolean overflow = false;
+        long firstEventAt = 0;
+
+        while (running) {
+            try {
+                WatchKey key = pending.isEmpty() && !overflow
+                    ? watchService.take()
+                    : watchService.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    overflow |= collectEvents(key, pending);
+                    if (firstEventAt == 0) {
+                        firstEventAt = System.currentTimeMillis();
+                    }
+                    if (System.currentTimeMillis() - firstEventAt < MAX_DELAY_MS) {
+                        continue;
+                    }
+                }
+
+                if (!pending.isEmpty() || overflow) {
+                    flush(pending, overflow);
+                }
+                pending.clear();
+                overflow = false;
+                firstEventAt = 0;
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error re-analyzing changed files: " + e.getMessage());
+                pending.clear();
+                overflow = false;
+                firstEventAt = 0;
+            }
+        }
+    }
+
+    private boolean collectEvents(WatchKey key, Set<Path> pending) {
+        boolean overflow = false;
+        Path dir = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // New directories may already hold files created before the watch was registered
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    try {
+                        registerTree(child, pending);
+                    } catch (IOException e) {
+                        System.err.println("Cannot watch directory: " + child + ": " + e.getMessage());
+                    }
+                }
+                continue;
+            }
+            pending.add(child);
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void flush(Set<Path> pending, boolean overflow) throws IOException {
+        Map<String, List<CommentLocation>> updated = new ConcurrentHashMap<>();
+        CommentExtractor extractor = new CommentExtractor("", parserFactory);
+        extractor.setIndex(index);
+        extractor.setIgnoreRules(ignoreRules);
+        extractor.setResultCallback(updated::put);
+
+        if (overflow) {
+            extractor.extractCommentsFromDirectory(root.toFile());
+            listener.onChanges(updated, Collections.emptySet(), true);
+            return;
+        }
+
+        List<Path> changedFiles = new ArrayList<>();
+        List<String> deletedPaths = new ArrayList<>();
+        for (Path path : pending) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                continue;
+            } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                changedFiles.add(path);
+            } else {
+                deletedPaths.add(relativize(path));
+            }
+        }
+
+        extractor.extractCommentsFromFiles(root.toFile(), changedFiles);
+        for (Path file : changedFiles) {
+            String relativePath = relativize(file);
+            if (index.getComments(relativePath) != null) {
+                updated.putIfAbsent(relativePath, List.of());
+            }
+        }
+
+        Set<String> removed = deletedPaths.isEmpty() ? Collections.emptySet() : index.remove(deletedPaths);
+        if (!updated.isEmpty() || !removed.isEmpty()) {
+            listener.onChanges(updated, removed, false);
+        }
+    }
+
+    private String relativize(Path path) {
+        return root.relativize(path).toString();
+    }
+}
@@ -0,0 +1,299 @@
+package parser;
+
+import analysis.CodeQualityAnalyzer;
+import analysis.CommentLocation;
+import analysis.CommentContext;
+import analysis.DeclarationContext;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent per-directory index of file fingerprints and the comments extracted from them.
+ *
+ * Every file is recorded by relative path with its size, modification time and content hash,
+ * together with its extracted comments and, once computed, their quality results. A file whose
+ * size and mtime are unchanged is served from the index without being opened; a file whose
+ * mtime changed but whose content hash did not (for example after a branch switch) is served
+ * after hashing only. Entries for files that were not seen during a complete walk are dropped.
+ *
+ * Quality results are kept only while {@link CodeQualityAnalyzer#SCORING_VERSION} is the one
+ * they were computed with; after a change to the scoring the comments are still reused and
+ * only rescored.
+ *
+ * Index files live under {@code ~/.commentanalyzer/index}, one per analyzed directory and
+ * parser variant, since different parsers may attach different information to comments.
+ */
+public class FingerprintIndex {
+    private static final int MAGIC = 0x43414958; // "CAIX"
+    // Also bumped when the lexer finds different comments or contexts, so that stale entries are
+    // parsed again
+    private static final int VERSION = 10;
+    private static final Path INDEX_DIR = Paths.get(System.getProperty("user.home"), ".commentanalyzer", "index");
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    private FingerprintIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public static FingerprintIndex open(File directory) {
+        return open(directory, "");
+    }
+
+    public static FingerprintIndex open(File directory, String variant) {
+        String root = directory.getAbsoluteFile().toPath().normalize().toString();
+        if (!variant.isEmpty()) {
+            root += "#" + variant;
+        }
+        FingerprintIndex index = new FingerprintIndex(INDEX_DIR.resolve(toHex(sha256(root.getBytes(StandardCharsets.UTF_8))) + ".idx"));
+        if (Files.isRegularFile(index.indexFile)) {
+            try {
+                index.load();
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable index " + index.indexFile + ": " + e.getMessage());
+                index.entries.clear();
+            }
+        }
+        return index;
+    }
+
+    public void beginRun() {
+        seen.clear();
+    }
+
+    // Returns the cached comments if size and mtime still match, otherwise null
+    public List<CommentLocation> lookup(String path, long size, long lastModified) {
+        seen.add(path);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry.comments;
+        }
+        return null;
+    }
+
+    // Returns the cached comments if the content is unchanged, refreshing size and mtime
+    public List<CommentLocation> lookupByHash(String path, long size, long lastModified, byte[] contentHash) {
+        Entry entry = entries.get(path);
+        if (entry != null && Arrays.equals(entry.contentHash, contentHash)) {
+            entries.put(path, new Entry(size, lastModified, contentHash, entry.comments, entry.quality));
+            return entry.comments;
+        }
+        return null;
+    }
+
+    public void put(String path, long size, long lastModified, byte[] contentHash, List<CommentLocation> comments) {
+        seen.add(path);
+        entries.put(path, new Entry(size, lastModified, contentHash, List.copyOf(comments), null));
+    }
+
+    public List<CommentLocation> getComments(String path) {
+        Entry entry = entries.get(path);
+        return entry != null ? entry.comments : null;
+    }
+
+    // Quality results in comment order, or null if the file's comments were not scored yet
+    public List<CodeQualityAnalyzer.QualityAnalysisResult> getQuality(String path) {
+        Entry entry = entries.get(path);
+        return entry != null ? entry.quality : null;
+    }
+
+    // Ignored if any result is degraded, so the file is scored again next run
+    public void putQuality(String path, List<CodeQualityAnalyzer.QualityAnalysisResult> quality) {
+        if (quality.stream().anyMatch(CodeQualityAnalyzer.QualityAnalysisResult::isDegraded)) {
+            return;
+        }
+        entries.computeIfPresent(path, (key, entry) ->
+            new Entry(entry.size, entry.lastModified, entry.contentHash, entry.comments, List.copyOf(quality)));
+    }
+
+    // Drops entries for files that were not visited since beginRun(); only valid after a complete walk
+    public int removeUnseen() {
+        int before = entries.size();
+        entries.keySet().retainAll(seen);
+        return before - entries.size();
+    }
+
+    // Removes the given paths and, for directories and archives, every entry below them; returns
+    // the removed files
+    public Set<String> remove(Collection<String> paths) {
+        Set<String> roots = new HashSet<>(paths);
+        Set<String> removed = new HashSet<>();
+        entries.keySet().removeIf(key -> isAtOrBelow(key, roots) && removed.add(key));
+        return removed;
+    }
+
+    private static boolean isAtOrBelow(String path, Set<String> roots) {
+        // Entries read from an archive, such as lib/x.jar!/a/B.java, go with the archive
+        int archiveEnd = path.indexOf("!/");
+        for (Path p = Paths.get(archiveEnd >= 0 ? path.substring(0, archiveEnd) : path); p != null; p = p.getParent()) {
+            if (roots.contains(p.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public synchronized void save() throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(CodeQualityAnalyzer.SCORING_VERSION);
+            List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> e : snapshot) {
+                Entry entry = e.getValue();
+                writeString(out, e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeShort(entry.contentHash.length);
+                out.write(entry.contentHash);
+                out.writeInt(entry.comments.size());
+                for (CommentLocation comment : entry.comments) {
+                    writeString(out, comment.getFileName());
+                    out.writeInt(comment.getLineNumber());
+                    writeString(out, comment.getContent());
+                    DeclarationContext declaration = comment.getDeclaration();
+                    out.writeBoolean(declaration != null);
+                    if (declaration != null) {
+                        out.writeByte(declaration.getKind().ordinal());
+                        writeString(out, declaration.getName());
+                        out.writeBoolean(declaration.isAttached());
+                        out.writeBoolean(declaration.isPublicApi());
+                    }
+                    CommentContext context = comment.getContext();
+                    out.writeBoolean(context != null);
+                    if (context != null) {
+                        writeString(out, context.getPreviousCodeLine());
+                        writeString(out, context.getNextCodeLine());
+                        out.writeByte(context.getFlags());
+                    }
+                }
+                out.writeBoolean(entry.quality != null);
+                if (entry.quality != null) {
+                    for (CodeQualityAnalyzer.QualityAnalysisResult result : entry.quality) {
+                        out.writeDouble(result.getScore());
+                        writeString(out, result.getDetails());
+                    }
+                }
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown index format");
+            }
+            boolean currentScoring = in.readInt() == CodeQualityAnalyzer.SCORING_VERSION;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = readString(in);
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                byte[] contentHash = new byte[in.readUnsignedShort()];
+                in.readFully(contentHash);
+                int commentCount = in.readInt();
+                List<CommentLocation> comments = new ArrayList<>(commentCount);
+                for (int j = 0; j < commentCount; j++) {
+                    String fileName = readString(in);
+                    int lineNumber = in.readInt();
+                    String content = readString(in);
+                    DeclarationContext declaration = null;
+                    if (in.readBoolean()) {
+                        DeclarationContext.Kind kind = DeclarationContext.Kind.values()[in.readUnsignedByte()];
+                        declaration = new DeclarationContext(kind, readString(in), in.readBoolean(), in.readBoolean());
+                    }
+                    CommentContext context = null;
+                    if (in.readBoolean()) {
+                        context = new CommentContext(readString(in), readString(in), in.readByte());
+                    }
+                    comments.add(new CommentLocation(fileName, lineNumber, content, declaration, context));
+                }
+                List<CodeQualityAnalyzer.QualityAnalysisResult> quality = null;
+                if (in.readBoolean()) {
+                    CodeQualityAnalyzer.QualityAnalysisResult[] results = new CodeQualityAnalyzer.QualityAnalysisResult[commentCount];
+                    for (int j = 0; j < commentCount; j++) {
+                        results[j] = new CodeQualityAnalyzer.QualityAnalysisResult(in.readDouble(), readString(in));
+                    }
+                    quality = currentScoring ? List.of(results) : null;
+                }
+                entries.put(path, new Entry(size, lastModified, contentHash, List.copyOf(comments), quality));
+            }
+        }
+    }
+
+    public static byte[] hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return newDigest().digest(data);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final byte[] contentHash;
+        final List<CommentLocation> comments;
+        final List<CodeQualityAnalyzer.QualityAnalysisResult> quality;
+
+        Entry(long size, long lastModified, byte[] contentHash, List<CommentLocation> comments,
+              List<CodeQualityAnalyzer.QualityAnalysisResult> quality) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+            this.comments = comments;
+            this.quality = quality;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * {@code .gitignore}-style exclusion rules for the directory walk.
+ *
+ * A configurable exclude list applies at the root of every walk, and {@code .gitignore} /
+ * {@code .ignore} files found in a directory apply to that directory's subtree, with the
+ * usual gitignore semantics: {@code #} comments, {@code !} negation, trailing {@code /} for
+ * directories only, leading or inner {@code /} to anchor a pattern, and {@code *}, {@code ?},
+ * {@code [...]} and {@code **} wildcards. The last matching rule wins.
+ *
+ * Ignored directories are meant to be pruned as a whole rather than filtered file by file.
+ */
+public class IgnoreRules {
+    public static final List<String> DEFAULT_EXCLUDES = List.of(
+        ".git/", ".hg/", ".svn/", "node_modules/", "bower_components/",
+        "target/", "build/", "dist/", "vendor/", "third_party/", ".gradle/", ".idea/");
+    private static final String EXCLUDES_PROPERTY = "commentanalyzer.excludes";
+    private static final List<String> IGNORE_FILE_NAMES = List.of(".gitignore", ".ignore");
+
+    private final List<Rule> excludeRules;
+    private final boolean readIgnoreFiles;
+
+    public IgnoreRules(Collection<String> excludes, boolean readIgnoreFiles) {
+        this.excludeRules = new ArrayList<>();
+        for (String exclude : excludes) {
+            Rule rule = Rule.parse(exclude, "");
+            if (rule != null) {
+                excludeRules.add(rule);
+            }
+        }
+        this.readIgnoreFiles = readIgnoreFiles;
+    }
+
+    // Default excludes plus any comma-separated patterns from -Dcommentanalyzer.excludes
+    public static IgnoreRules withDefaults() {
+        List<String> excludes = new ArrayList<>(DEFAULT_EXCLUDES);
+        String configured = System.getProperty(EXCLUDES_PROPERTY);
+        if (configured != null) {
+            for (String pattern : configured.split(",")) {
+                if (!pattern.isBlank()) {
+                    excludes.add(pattern.trim());
+                }
+            }
+        }
+        return new IgnoreRules(excludes, true);
+    }
+
+    public static IgnoreRules none() {
+        return new IgnoreRules(List.of(), false);
+    }
+
+    public Walker newWalker(Path root) {
+        return new Walker(root);
+    }
+
+    // A walker for a walk of start, a path below root, with the rules of root and of every
+    // directory in between already in effect; null if one of those directories is ignored
+    public Walker newWalker(Path root, Path start) {
+        Walker walker = new Walker(root);
+        if (start.equals(root)) {
+            return walker;
+        }
+        Path relative = root.relativize(start);
+        Path dir = root;
+        walker.enterDirectory(dir);
+        for (int i = 0; i < relative.getNameCount() - 1; i++) {
+            dir = dir.resolve(relative.getName(i));
+            if (!walker.enterDirectory(dir)) {
+                return null;
+            }
+        }
+        return walker;
+    }
+
+    // Checks a single path outside of a walk, e.g. for file system events
+    public boolean isIgnored(Path root, Path path, boolean directory) {
+        Walker walker = newWalker(root, path);
+        return walker == null || walker.matches(path, directory);
+    }
+
+    // Per-walk state: the stack of ignore files in effect for the current directory
+    public class Walker {
+        private final Path root;
+        private final Deque<List<Rule>> scopes = new ArrayDeque<>();
+
+        private Walker(Path root) {
+            this.root = root;
+        }
+
+        // Returns false if the directory is ignored and its subtree should be skipped
+        public boolean enterDirectory(Path dir) {
+            if (!scopes.isEmpty() && matches(dir, true)) {
+                return false;
+            }
+            List<Rule> rules = scopes.isEmpty() ? new ArrayList<>(excludeRules) : new ArrayList<>();
+            if (readIgnoreFiles) {
+                String base = relativePath(dir);
+                for (String name : IGNORE_FILE_NAMES) {
+                    rules.addAll(loadRules(dir.resolve(name), base));
+                }
+            }
+            scopes.addLast(rules);
+            return true;
+        }
+
+        public void exitDirectory() {
+            scopes.pollLast();
+        }
+
+        public boolean isIgnoredFile(Path file) {
+            return matches(file, false);
+        }
+
+        private boolean matches(Path path, boolean directory) {
+            String relative = relativePath(path);
+            boolean ignored = false;
+            for (List<Rule> scope : scopes) {
+                for (Rule rule : scope) {
+                    if (rule.matches(relative, directory)) {
+                        ignored = !rule.negate;
+                    }
+                }
+            }
+            return ignored;
+        }
+
+        private String relativePath(Path path) {
+            String relative = root.relativize(path).toString();
+            return path.getFileSystem().getSeparator().equals("/") ? relative : relative.replace('\\', '/');
+        }
+    }
+
+    private static List<Rule> loadRules(Path ignoreFile, String base) {
+        if (!Files.isRegularFile(ignoreFile)) {
+            return List.of();
+        }
+        List<Rule> rules = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(ignoreFile, StandardCharsets.UTF_8)) {
+                Rule rule = Rule.parse(line, base);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read ignore file: " + ignoreFile + ": " + e.getMessage());
+        }
+        return rules;
+    }
+
+    private static class Rule {
+        private static final Map<String, String> POSIX_CLASSES = Map.ofEntries(
+            Map.entry("alnum", "\\p{Alnum}"), Map.entry("alpha", "\\p{Alpha}"), Map.entry("blank", "\\p{Blank}"),
+            Map.entry("cntrl", "\\p{Cntrl}"), Map.entry("digit", "\\p{Digit}"), Map.entry("graph", "\\p{Graph}"),
+            Map.entry("lower", "\\p{Lower}"), Map.entry("print", "\\p{Print}"), Map.entry("punct", "\\p{Punct}"),
+            Map.entry("space", "\\p{Space}"), Map.entry("upper", "\\p{Upper}"), Map.entry("xdigit", "\\p{XDigit}"));
+
+        final Pattern pattern;
+        final String base;
+        final boolean negate;
+        final boolean directoryOnly;
+
+        Rule(Pattern pattern, String base, boolean negate, boolean directoryOnly) {
+            this.pattern = pattern;
+            this.base = base;
+            this.negate = negate;
+            this.directoryOnly = directoryOnly;
+        }
+
+        static Rule parse(String line, String base) {
+            String text = line.stripTrailing();
+            if (text.isEmpty() || text.startsWith("#")) {
+                return null;
+            }
+            boolean negate = text.startsWith("!");
+            if (negate) {
+                text = text.substring(1);
+            } else if (text.startsWith("\\#") || text.startsWith("\\!")) {
+                text = text.substring(1);
+            }
+            boolean directoryOnly = text.endsWith("/");
+            if (directoryOnly) {
+                text = text.substring(0, text.length() - 1);
+            }
+            boolean anchored = text.contains("/");
+            if (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            if (text.isEmpty()) {
+                return null;
+            }
+            try {
+                String regex = (anchored ? "" : "(?:.*/)?") + globToRegex(text);
+                return new Rule(Pattern.compile(regex), base, negate, directoryOnly);
+            } catch (PatternSyntaxException e) {
+                // Like an unreadable ignore file, a pattern that cannot be used is left out
+                System.err.println("Skipping ignore pattern " + line + ": " + e.getDescription());
+                return null;
+            }
+        }
+
+        boolean matches(String relativePath, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            String path = relativePath;
+            if (!base.isEmpty()) {
+                if (!relativePath.startsWith(base + "/")) {
+                    return false;
+                }
+                path = relativePath.substring(base.length() + 1);
+            }
+            return pattern.matcher(path).matches();
+        }
+
+        private static String globToRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            int i = 0;
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (glob.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?");
+                    i += 3;
+                    continue;
+                }
+                if (glob.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 2;
+                    continue;
+                }
+                switch (c) {
+                    case '*' -> regex.append("[^/]*");
+                    case '?' -> regex.append("[^/]");
+                    case '[' -> {
+                        int close = setEnd(glob, i);
+                        if (close < 0) {
+                            regex.append("\\[");
+                        } else {
+                            regex.append(setToRegex(glob.substring(i + 1, close)));
+                            i = close;
+                        }
+                    }
+                    case '\\' -> {
+                        if (i + 1 < glob.length()) {
+                            regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                        }
+                    }
+                    default -> regex.append(Pattern.quote(String.valueOf(c)));
+                }
+                i++;
+            }
+            return regex.toString();
+        }
+
+        // Index of the ] closing the set opened at start, or -1. A ] right after the [ or
+        // its negation is part of the set, as are the brackets of [:class:] names.
+        private static int setEnd(String glob, int start) {
+            int i = start + 1;
+            if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+                i++;
+            }
+            if (i < glob.length() && glob.charAt(i) == ']') {
+                i++;
+            }
+            while (i < glob.length()) {
+                char c = glob.charAt(i);
+                if (c == ']') {
+                    return i;
+                }
+                if (c == '\\') {
+                    i++;
+                } else if (c == '[' && glob.startsWith(":", i + 1)) {
+                    int classEnd = glob.indexOf(":]", i + 2);
+                    if (classEnd >= 0) {
+                        i = classEnd + 1;
+                    }
+                }
+                i++;
+            }
+            return -1;
+        }
+
+        // A set never matches /. Every member is quoted, so regex syntax such as [, && or a
+        // reversed range cannot reach the pattern; a reversed range matches nothing, as in git.
+        private static String setToRegex(String set) {
+            boolean negated = !set.isEmpty() && (set.charAt(0) == '!' || set.charAt(0) == '^');
+            int i = negated ? 1 : 0;
+            StringBuilder members = new StringBuilder();
+            while (i < set.length()) {
+                if (set.charAt(i) == '[' && set.startsWith(":", i + 1) && set.indexOf(":]", i + 2) >= 0) {
+                    int classEnd = set.indexOf(":]", i + 2);
+                    String posixClass = POSIX_CLASSES.get(set.substring(i + 2, classEnd));
+                    if (posixClass == null) {
+                        throw new PatternSyntaxException("Unknown character class", set, i);
+                    }
+                    members.append(posixClass);
+                    i = classEnd + 2;
+                    continue;
+                }
+                char low = set.charAt(i) == '\\' && i + 1 < set.length() ? set.charAt(++i) : set.charAt(i);
+                i++;
+                char high = low;
+                if (i + 1 < set.length() && set.charAt(i) == '-') {
+                    high = set.charAt(i + 1) == '\\' && i + 2 < set.length() ? set.charAt(i + 2) : set.charAt(i + 1);
+                    i += set.charAt(i + 1) == '\\' && i + 2 < set.length() ? 3 : 2;
+                }
+                if (low < high) {
+                    members.append(quoteInSet(low)).append('-').append(quoteInSet(high));
+                } else if (low == high) {
+                    members.append(quoteInSet(low));
+                }
+            }
+            if (members.length() == 0) {
+                return negated ? "[^/]" : "(?!)";
+            }
+            return negated ? "[^/" + members + "]" : "(?:(?!/)[" + members + "])";
+        }
+
+        private static String quoteInSet(char c) {
+            return Character.isLetterOrDigit(c) ? String.valueOf(c) : String.format("\\x{%x}", (int) c);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package parser;
+
+import analysis.CommentContext;
+import analysis.CommentLocation;
+import analysis.DeclarationContext;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Modifier;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.PackageDeclaration;
+import com.github.javaparser.ast.body.*;
+import com.github.javaparser.ast.comments.Comment;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.LiteralStringValueExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithModifiers;
+import com.github.javaparser.ast.stmt.Statement;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Comment parser that parses Java files into a syntax tree with JavaParser and attaches every
+ * comment to the declaration that owns it.
+ *
+ * Each file is parsed once; the comment text is taken from the source by the comment's range,
+ * so it is identical to what {@link CommentLexer} reports, but every {@link CommentLocation}
+ * also carries a {@link DeclarationContext}. The {@link CommentContext} is tracked as in the
+ * lexer, from the ranges of the comments and string literals in the tree, except that whether
+ * a comment is inside a body is read from the tree itself. Other languages, and Java files
+ * that do not parse, go through the lexer. JavaParser instances are kept one per thread.
+ */
+public class JavaAstParser implements CommentParser {
+    private static final ThreadLocal<JavaParser> PARSERS = ThreadLocal.withInitial(() -> new JavaParser(
+        new ParserConfiguration()
+            .setLanguageLevel(ParserConfiguration.LanguageLevel.BLEEDING_EDGE)
+            .setAttributeComments(true)));
+
+    private final CommentScanner fallback = new CommentScanner();
+    private String language;
+    private Charset charset = SourceCharset.configured();
+
+    public JavaAstParser() {
+    }
+
+    public JavaAstParser(String language) {
+        setLanguage(language);
+    }
+
+    @Override
+    public final void setLanguage(String language) {
+        this.language = language.toLowerCase();
+        fallback.setLanguage(this.language);
+    }
+
+    // Used for files without a byte order mark
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+        fallback.setCharset(charset);
+    }
+
+    @Override
+    public List<CommentLocation> extractCommentsWithLocations(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        if (language == null) {
+            setLanguage(Objects.requireNonNullElse(LanguageConfig.detectLanguage(fileName, null), "java"));
+        }
+        if (!language.equals("java")) {
+            return fallback.extractCommentsWithLocations(file);
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        SourceCharset sourceCharset = SourceCharset.detect(bytes, bytes.length, charset);
+        String source = new String(bytes, sourceCharset.bomLength, bytes.length - sourceCharset.bomLength, sourceCharset.charset);
+
+        ParseResult<CompilationUnit> result = PARSERS.get().parse(source);
+        if (!result.isSuccessful() || result.getResult().isEmpty()) {
+            return CommentLexer.forLanguage("java").scan(fileName, bytes, bytes.length, sourceCharset);
+        }
+
+        CompilationUnit unit = result.getResult().get();
+        int[] lineOffsets = lineOffsets(source);
+        List<Comment> comments = new ArrayList<>(unit.getAllComments());
+        comments.sort(Comparator.comparing(comment -> comment.getRange().map(range -> range.begin).orElse(null),
+            Comparator.nullsLast(Comparator.naturalOrder())));
+
+        List<Comment> distinct = new ArrayList<>(comments.size());
+        CommentLexer.Spans spans = new CommentLexer.Spans();
+        Range previous = null;
+        for (Comment comment : comments) {
+            Optional<Range> range = comment.getRange();
+            // Comments inside some nested constructs are reported by more than one node
+            if (range.isEmpty() || range.get().equals(previous)) {
+                continue;
+            }
+            previous = range.get();
+            distinct.add(comment);
+            spans.add(startOf(previous, lineOffsets), endOf(previous, lineOffsets, source));
+        }
+
+        CommentContext[] contexts = contexts(unit, source, lineOffsets, spans);
+        List<CommentLocation> locations = new ArrayList<>(distinct.size());
+        for (int i = 0; i < distinct.size(); i++) {
+            Comment comment = distinct.get(i);
+            CommentContext context = contexts[i];
+            boolean insideBody = isInsideBody(comment);
+            if (context.isInsideBody() != insideBody) {
+                context = new CommentContext(context.getPreviousCodeLine(), context.getNextCodeLine(),
+                    context.getPosition(), context.isFirstInFile(), insideBody, context.isTrailingCode());
+            }
+            locations.add(new CommentLocation(fileName, comment.getRange().get().begin.line,
+                commentText(source, spans.start(i), spans.end(i)), declarationOf(comment, unit, fileName), context));
+        }
+        return locations;
+    }
+
+    // Tracked over the UTF-8 form of the source, with the comments and literals at their tree ranges
+    private static CommentContext[] contexts(CompilationUnit unit, String source, int[] lineOffsets, CommentLexer.Spans comments) {
+        List<Range> literalRanges = new ArrayList<>();
+        for (LiteralStringValueExpr literal : unit.findAll(LiteralStringValueExpr.class)) {
+            literal.getRange().ifPresent(literalRanges::add);
+        }
+        literalRanges.sort(Comparator.comparing(range -> range.begin));
+        byte[] utf8 = source.getBytes(StandardCharsets.UTF_8);
+        int[] byteOffsets = utf8.length == source.length() ? null : byteOffsets(source);
+        CommentLexer.Spans literals = new CommentLexer.Spans();
+        for (Range range : literalRanges) {
+            literals.add(byteOffset(byteOffsets, startOf(range, lineOffsets)),
+                byteOffset(byteOffsets, endOf(range, lineOffsets, source)));
+        }
+        CommentLexer.Spans commentBytes = new CommentLexer.Spans();
+        for (int i = 0; i < comments.size(); i++) {
+            commentBytes.add(byteOffset(byteOffsets, comments.start(i)), byteOffset(byteOffsets, comments.end(i)));
+        }
+        return new CommentContextTracker(utf8, 0, utf8.length, StandardCharsets.UTF_8, true, literals).track(commentBytes);
+    }
+
+    // Within a statement or expression, such as a method body or a lambda, rather than between declarations
+    private static boolean isInsideBody(Comment comment) {
+        Node node = comment.getCommentedNode().orElse(comment.getParentNode().orElse(null));
+        for (; node != null; node = node.getParentNode().orElse(null)) {
+            if (node instanceof Statement || node instanceof Expression) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int startOf(Range range, int[] lineOffsets) {
+        return lineOffsets[range.begin.line - 1] + range.begin.column - 1;
+    }
+
+    private static int endOf(Range range, int[] lineOffsets, String source) {
+        return Math.min(lineOffsets[range.end.line - 1] + range.end.column, source.length());
+    }
+
+    // UTF-8 offset of every char offset of the source, with one more for its end
+    private static int[] byteOffsets(String source) {
+        int[] offsets = new int[source.length() + 1];
+        int bytes = 0;
+        for (int i = 0; i < source.length(); i++) {
+            offsets[i] = bytes;
+            char c = source.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < source.length() && Character.isLowSurrogate(source.charAt(i + 1))) {
+                offsets[++i] = bytes + 2;
+                bytes += 4;
+            } else {
+                // Unpaired surrogates are encoded as a single ?
+                bytes += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        offsets[source.length()] = bytes;
+        return offsets;
+    }
+
+    private static int byteOffset(int[] byteOffsets, int charOffset) {
+        return byteOffsets == null ? charOffset : byteOffsets[charOffset];
+    }
+
+    private static DeclarationContext declarationOf(Comment comment, CompilationUnit unit, String fileName) {
+        Optional<Node> commented = comment.getCommentedNode();
+        Node node = commented.orElse(comment.getParentNode().orElse(unit));
+        for (; node != null; node = node.getParentNode().orElse(null)) {
+            DeclarationContext.Kind kind = kindOf(node);
+            if (kind != null) {
+                boolean attached = commented.isPresent() && commented.get() == node;
+                return new DeclarationContext(kind, nameOf(node, unit, fileName), attached, isPublicApi(node));
+            }
+        }
+        return new DeclarationContext(DeclarationContext.Kind.FILE, fileName, false);
+    }
+
+    private static DeclarationContext.Kind kindOf(Node node) {
+        if (node instanceof TypeDeclaration<?>) {
+            return DeclarationContext.Kind.TYPE;
+        }
+        if (node instanceof CallableDeclaration<?> || node instanceof AnnotationMemberDeclaration
+                || node instanceof InitializerDeclaration) {
+            return DeclarationContext.Kind.METHOD;
+        }
+        if (node instanceof FieldDeclaration || node instanceof EnumConstantDeclaration) {
+            return DeclarationContext.Kind.FIELD;
+        }
+        if (node instanceof CompilationUnit || node instanceof PackageDeclaration
+                || node instanceof ImportDeclaration) {
+            return DeclarationContext.Kind.FILE;
+        }
+        return null;
+    }
+
+    // Members of interfaces and annotation types, and enum constants, are public without a
+    // modifier
+    private static boolean isPublicApi(Node node) {
+        if (node instanceof NodeWithModifiers<?> declared) {
+            if (declared.hasModifier(Modifier.Keyword.PUBLIC) || declared.hasModifier(Modifier.Keyword.PROTECTED)) {
+                return true;
+            }
+            if (declared.hasModifier(Modifier.Keyword.PRIVATE)) {
+                return false;
+            }
+        }
+        Node owner = node.getParentNode().orElse(null);
+        return node instanceof EnumConstantDeclaration
+            || (node instanceof BodyDeclaration<?> && !(node instanceof InitializerDeclaration)
+                && (owner instanceof AnnotationDeclaration
+                    || (owner instanceof ClassOrInterfaceDeclaration type && type.isInterface())));
+    }
+
+    private static String nameOf(Node node, CompilationUnit unit, String fileName) {
+        String owner = ownerPrefix(node);
+        if (node instanceof TypeDeclaration<?> type) {
+            return type.getFullyQualifiedName().orElse(type.getNameAsString());
+        }
+        if (node instanceof CallableDeclaration<?> callable) {
+            return owner + callable.getSignature().asString();
+        }
+        if (node instanceof AnnotationMemberDeclaration member) {
+            return owner + member.getNameAsString() + "()";
+        }
+        if (node instanceof InitializerDeclaration initializer) {
+            return owner + (initializer.isStatic() ? "<clinit>" : "<init>");
+        }
+        if (node instanceof FieldDeclaration field) {
+            return owner + field.getVariables().stream().map(VariableDeclarator::getNameAsString).collect(Collectors.joining(", "));
+        }
+        if (node instanceof EnumConstantDeclaration constant) {
+            return owner + constant.getNameAsString();
+        }
+        return unit.getPackageDeclaration().map(p -> p.getNameAsString() + "/").orElse("") + fileName;
+    }
+
+    private static String ownerPrefix(Node node) {
+        for (Node parent = node.getParentNode().orElse(null); parent != null; parent = parent.getParentNode().orElse(null)) {
+            if (parent instanceof TypeDeclaration<?> type) {
+                return type.getNameAsString() + ".";
+            }
+        }
+        return "";
+    }
+
+    // Same normalization as the lexer: trailing whitespace removed, line breaks as \n
+    private static String commentText(String source, int start, int end) {
+        end = Math.min(end, source.length());
+        while (end > start && source.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        String text = source.substring(start, end);
+        if (text.indexOf('\r') >= 0) {
+            text = text.replace("\r\n", "\n").replace('\r', '\n');
+        }
+        return text;
+    }
+
+    // Offset of the first character of every line, with \n, \r\n and a lone \r as terminators
+    private static int[] lineOffsets(String source) {
+        int[] offsets = new int[64];
+        int lines = 1;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 >= source.length() || source.charAt(i + 1) != '\n'))) {
+                if (lines == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, lines * 2);
+                }
+                offsets[lines++] = i + 1;
+            }
+        }
+        return offsets;
+    }
+}
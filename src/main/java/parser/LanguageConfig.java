@@ -3,19 +3,13 @@ package parser;
 import java.util.*;
 
 public class LanguageConfig {
-    private static final Map<String, String[]> commentSymbols = new HashMap<>();
     private static final Map<String, Set<String>> fileExtensions = new HashMap<>();
     private static final Map<String, String> shebangPatterns = new HashMap<>();
+    private static final Map<String, LanguageSyntax> syntaxTables = new HashMap<>();
+    // Languages without a table have no comments
+    private static final LanguageSyntax NO_SYNTAX = new LanguageSyntax();
 
     static {
-        commentSymbols.put("java", new String[]{"//", "/*", "*/"});
-        commentSymbols.put("c", new String[]{"//", "/*", "*/"});
-        commentSymbols.put("cpp", new String[]{"//", "/*", "*/"});
-        commentSymbols.put("python", new String[]{"#", "\"\"\"", "\"\"\""});
-        commentSymbols.put("javascript", new String[]{"//", "/*", "*/"});
-        commentSymbols.put("ruby", new String[]{"#", "=begin", "=end"});
-        commentSymbols.put("php", new String[]{"//", "/*", "*/"});
-        
         addExtensions("java", ".java");
         addExtensions("c", ".c", ".h");
         addExtensions("cpp", ".cpp", ".hpp", ".cc", ".hh");
@@ -27,6 +21,34 @@ public class LanguageConfig {
         shebangPatterns.put("python", "^#!.*python");
         shebangPatterns.put("ruby", "^#!.*ruby");
         shebangPatterns.put("php", "^#!.*php");
+
+        syntaxTables.put("java", new LanguageSyntax()
+            .lineComment("//").blockComment("/*", "*/")
+            .multiLineString("\"\"\"").string("\"").charLiteral("'")
+            .braceBlocks());
+        syntaxTables.put("c", new LanguageSyntax()
+            .lineComment("//").blockComment("/*", "*/")
+            .string("\"").charLiteral("'").digitSeparators()
+            .braceBlocks());
+        syntaxTables.put("cpp", new LanguageSyntax()
+            .lineComment("//").blockComment("/*", "*/")
+            .cppRawStrings().string("\"").charLiteral("'").digitSeparators()
+            .braceBlocks());
+        syntaxTables.put("python", new LanguageSyntax()
+            .lineComment("#")
+            .multiLineString("\"\"\"").multiLineString("'''").string("\"").string("'")
+            .docStrings());
+        syntaxTables.put("javascript", new LanguageSyntax()
+            .lineComment("//").blockComment("/*", "*/")
+            .multiLineString("`").string("\"").string("'").regexLiterals()
+            .braceBlocks());
+        syntaxTables.put("ruby", new LanguageSyntax()
+            .lineComment("#").lineStartBlockComment("=begin", "=end")
+            .string("\"").string("'"));
+        syntaxTables.put("php", new LanguageSyntax()
+            .lineComment("//").lineComment("#").notComment("#[").blockComment("/*", "*/")
+            .string("\"").string("'")
+            .braceBlocks());
     }
 
     private static void addExtensions(String language, String... exts) {
@@ -63,8 +85,8 @@ public class LanguageConfig {
         return null;
     }
 
-    public static String[] getCommentSymbols(String language) {
-        return commentSymbols.getOrDefault(language, new String[]{"//", "/*", "*/"});
+    public static LanguageSyntax getSyntax(String language) {
+        return syntaxTables.getOrDefault(language, NO_SYNTAX);
     }
 
     public static Set<String> getSupportedExtensions(String language) {
@@ -72,6 +94,6 @@ public class LanguageConfig {
     }
 
     public static boolean isLanguageSupported(String language) {
-        return commentSymbols.containsKey(language.toLowerCase());
+        return syntaxTables.containsKey(language.toLowerCase());
     }
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+package parser;
+
+import java.util.*;
+
+/**
+ * Lexical table for one language: every delimiter the comment lexer has to know about.
+ *
+ * Strings and char literals end at an unescaped closing delimiter or at the end of the
+ * line; multi-line strings (text blocks, template strings, triple quotes) may span lines;
+ * C++ raw strings ignore backslash escapes. Regex literals are told apart from division by
+ * the code before them. A new language is a new table in {@link LanguageConfig}, not new
+ * lexer code.
+ */
+public class LanguageSyntax {
+    public enum Kind {
+        LINE_COMMENT, BLOCK_COMMENT, STRING, CHAR_LITERAL, MULTI_LINE_STRING, CPP_RAW_STRING, REGEX_LITERAL, CODE
+    }
+
+    public static class Delimiter {
+        public final Kind kind;
+        public final String open;
+        public final String close;
+        public final boolean lineStartOnly;
+
+        Delimiter(Kind kind, String open, String close, boolean lineStartOnly) {
+            this.kind = kind;
+            this.open = open;
+            this.close = close;
+            this.lineStartOnly = lineStartOnly;
+        }
+    }
+
+    private final List<Delimiter> delimiters = new ArrayList<>();
+    private boolean docStrings = false;
+    private boolean braceBlocks = false;
+    private boolean digitSeparators = false;
+
+    public LanguageSyntax lineComment(String open) {
+        delimiters.add(new Delimiter(Kind.LINE_COMMENT, open, null, false));
+        return this;
+    }
+
+    public LanguageSyntax blockComment(String open, String close) {
+        delimiters.add(new Delimiter(Kind.BLOCK_COMMENT, open, close, false));
+        return this;
+    }
+
+    // Block comments whose delimiters only count in the first column, like Ruby's =begin/=end
+    public LanguageSyntax lineStartBlockComment(String open, String close) {
+        delimiters.add(new Delimiter(Kind.BLOCK_COMMENT, open, close, true));
+        return this;
+    }
+
+    public LanguageSyntax string(String quote) {
+        delimiters.add(new Delimiter(Kind.STRING, quote, quote, false));
+        return this;
+    }
+
+    public LanguageSyntax charLiteral(String quote) {
+        delimiters.add(new Delimiter(Kind.CHAR_LITERAL, quote, quote, false));
+        return this;
+    }
+
+    public LanguageSyntax multiLineString(String quote) {
+        delimiters.add(new Delimiter(Kind.MULTI_LINE_STRING, quote, quote, false));
+        return this;
+    }
+
+    // JavaScript /.../ literals, which only open where a division cannot stand
+    public LanguageSyntax regexLiterals() {
+        delimiters.add(new Delimiter(Kind.REGEX_LITERAL, "/", "/", false));
+        return this;
+    }
+
+    // Code that starts like a comment, such as PHP 8's #[ attributes
+    public LanguageSyntax notComment(String open) {
+        delimiters.add(new Delimiter(Kind.CODE, open, null, false));
+        return this;
+    }
+
+    // C++11 R"delim( ... )delim" strings, whose closing delimiter depends on the opening one
+    public LanguageSyntax cppRawStrings() {
+        delimiters.add(new Delimiter(Kind.CPP_RAW_STRING, "R\"", null, false));
+        return this;
+    }
+
+    // Multi-line strings that open a line are documentation, as with Python docstrings
+    public LanguageSyntax docStrings() {
+        this.docStrings = true;
+        return this;
+    }
+
+    // Declarations and bodies are delimited by { and }, so nesting can be tracked by counting braces
+    public LanguageSyntax braceBlocks() {
+        this.braceBlocks = true;
+        return this;
+    }
+
+    // A quote inside a number separates digits, as in C++14's 1'000, instead of opening a char literal
+    public LanguageSyntax digitSeparators() {
+        this.digitSeparators = true;
+        return this;
+    }
+
+    public List<Delimiter> getDelimiters() {
+        return Collections.unmodifiableList(delimiters);
+    }
+
+    public boolean hasDocStrings() {
+        return docStrings;
+    }
+
+    public boolean hasBraceBlocks() {
+        return braceBlocks;
+    }
+
+    public boolean hasDigitSeparators() {
+        return digitSeparators;
+    }
+}
@@ -0,0 +1,138 @@
+package parser;
+
+import analysis.CommentLocation;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Command line throughput benchmark for the comment parsers.
+ *
+ * Usage: {@code java parser.ParserBenchmark <corpus-dir> [rounds]}
+ *
+ * A corpus file with a {@code <name>.comments} file beside it is a golden file: every parser
+ * is first checked to find exactly the comments listed there, then each one is timed over
+ * the whole corpus. The lists are written and reviewed by hand, never generated by one of the
+ * parsers under test, so a lexer regression shows up as a mismatch. Each comment is a
+ * {@code --- <line>} header followed by the comment's text.
+ */
+public class ParserBenchmark {
+    private static final int WARMUP_ROUNDS = 2;
+    static final String EXPECTED_SUFFIX = ".comments";
+    private static final String COMMENT_HEADER = "--- ";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ParserBenchmark <corpus-dir> [rounds]");
+            System.exit(2);
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<File> corpus = collectCorpus(Paths.get(args[0]));
+        long totalBytes = corpus.stream().mapToLong(File::length).sum();
+        System.out.printf("Corpus: %d files, %.1f MB%n", corpus.size(), totalBytes / 1048576.0);
+
+        Map<String, Supplier<CommentParser>> parsers = new LinkedHashMap<>();
+        parsers.put("CodeParser", CodeParser::new);
+        parsers.put("CommentScanner", CommentScanner::new);
+        parsers.put("JavaAstParser", JavaAstParser::new);
+
+        Map<File, List<String>> golden = new HashMap<>();
+        for (File file : corpus) {
+            List<String> expected = readExpected(file.toPath());
+            if (expected != null) {
+                golden.put(file, expected);
+            }
+        }
+        boolean identical = true;
+        if (golden.isEmpty()) {
+            System.out.println("No " + EXPECTED_SUFFIX + " files in the corpus, golden check skipped");
+        } else {
+            for (Map.Entry<String, Supplier<CommentParser>> entry : parsers.entrySet()) {
+                int mismatches = compare(golden, parseAll(corpus, entry.getValue().get()));
+                System.out.printf("%-16s golden check on %d file(s): %s%n", entry.getKey(), golden.size(),
+                    mismatches == 0 ? "identical" : mismatches + " file(s) differ");
+                identical &= mismatches == 0;
+            }
+        }
+
+        for (Map.Entry<String, Supplier<CommentParser>> entry : parsers.entrySet()) {
+            CommentParser parser = entry.getValue().get();
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                parseAll(corpus, parser);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                parseAll(corpus, parser);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-16s %8.1f MB/s %10.0f files/s%n", entry.getKey(),
+                totalBytes * rounds / 1048576.0 / seconds, corpus.size() * rounds / seconds);
+        }
+
+        if (!identical) {
+            System.exit(1);
+        }
+    }
+
+    private static List<File> collectCorpus(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                .filter(p -> LanguageConfig.detectLanguage(p.getFileName().toString(), null) != null)
+                .map(Path::toFile)
+                .sorted()
+                .toList();
+        }
+    }
+
+    private static Map<File, List<CommentLocation>> parseAll(List<File> corpus, CommentParser parser) throws IOException {
+        Map<File, List<CommentLocation>> results = new HashMap<>();
+        for (File file : corpus) {
+            parser.setLanguage(LanguageConfig.detectLanguage(file.getName(), null));
+            results.put(file, parser.extractCommentsWithLocations(file));
+        }
+        return results;
+    }
+
+    private static int compare(Map<File, List<String>> expected, Map<File, List<CommentLocation>> actual) {
+        int mismatches = 0;
+        for (Map.Entry<File, List<String>> entry : expected.entrySet()) {
+            if (!entry.getValue().equals(describe(actual.get(entry.getKey())))) {
+                mismatches++;
+                System.err.println("Mismatch: " + entry.getKey());
+            }
+        }
+        return mismatches;
+    }
+
+    // The comments listed in the file's .comments file, as describe() puts them, or null if it has none
+    static List<String> readExpected(Path sourceFile) throws IOException {
+        Path listFile = sourceFile.resolveSibling(sourceFile.getFileName() + EXPECTED_SUFFIX);
+        if (!Files.isRegularFile(listFile)) {
+            return null;
+        }
+        List<String> comments = new ArrayList<>();
+        StringBuilder comment = null;
+        for (String line : Files.readAllLines(listFile)) {
+            if (line.startsWith(COMMENT_HEADER)) {
+                if (comment != null) {
+                    comments.add(comment.toString());
+                }
+                comment = new StringBuilder(line.substring(COMMENT_HEADER.length()).trim()).append(':');
+            } else if (comment != null) {
+                comment.append('\n').append(line);
+            }
+        }
+        if (comment != null) {
+            comments.add(comment.toString());
+        }
+        return comments;
+    }
+
+    // Line number and text of each comment, the text starting on a line of its own
+    static List<String> describe(List<CommentLocation> comments) {
+        return comments.stream().map(comment -> comment.getLineNumber() + ":\n" + comment.getContent()).toList();
+    }
+}
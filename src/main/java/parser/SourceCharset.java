@@ -0,0 +1,78 @@
+package parser;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Charset of a source file: a byte order mark if there is one, otherwise the configured
+ * charset ({@code -Dcommentanalyzer.charset}), which defaults to UTF-8 rather than the
+ * platform default so results do not depend on the machine running the analysis.
+ */
+final class SourceCharset {
+    private static final String CHARSET_PROPERTY = "commentanalyzer.charset";
+    private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+    private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+
+    final Charset charset;
+    final int bomLength;
+
+    private SourceCharset(Charset charset, int bomLength) {
+        this.charset = charset;
+        this.bomLength = bomLength;
+    }
+
+    static Charset configured() {
+        String name = System.getProperty(CHARSET_PROPERTY);
+        return name == null || name.isBlank() ? StandardCharsets.UTF_8 : Charset.forName(name.trim());
+    }
+
+    static SourceCharset detect(byte[] bytes, int length, Charset fallback) {
+        if (startsWith(bytes, length, 0xEF, 0xBB, 0xBF)) {
+            return new SourceCharset(StandardCharsets.UTF_8, 3);
+        }
+        if (startsWith(bytes, length, 0x00, 0x00, 0xFE, 0xFF)) {
+            return new SourceCharset(UTF_32BE, 4);
+        }
+        if (startsWith(bytes, length, 0xFF, 0xFE, 0x00, 0x00)) {
+            return new SourceCharset(UTF_32LE, 4);
+        }
+        if (startsWith(bytes, length, 0xFE, 0xFF)) {
+            return new SourceCharset(StandardCharsets.UTF_16BE, 2);
+        }
+        if (startsWith(bytes, length, 0xFF, 0xFE)) {
+            return new SourceCharset(StandardCharsets.UTF_16LE, 2);
+        }
+        return new SourceCharset(fallback, 0);
+    }
+
+    // True if every ASCII character is encoded as itself and no other character uses a byte
+    // below 0x80, so ASCII delimiters can be matched on the raw bytes
+    boolean isAsciiCompatible() {
+        String name = charset.name();
+        return name.equals("UTF-8") || name.equals("US-ASCII")
+            || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+    }
+
+    // The first line, decoded, for detecting the language of files without a known extension
+    String firstLine(byte[] bytes, int length) {
+        String text = new String(bytes, bomLength, Math.min(length, 1024) - bomLength, charset);
+        if (text.isEmpty()) {
+            return null;
+        }
+        int end = 0;
+        while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != '\r') end++;
+        return text.substring(0, end);
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int... prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Estimates how much of a directory tree has been walked without a separate counting pass.
+ *
+ * The entries of the top few directory levels are counted as they are entered; the walked
+ * fraction is then the share of completed siblings at each level, weighted by depth.
+ * Deeper levels are not counted so the extra directory listings stay bounded.
+ */
+class WalkProgress {
+    private static final int TRACKED_DEPTH = 3;
+
+    private final Deque<int[]> frames = new ArrayDeque<>();
+    private int depth = 0;
+
+    synchronized void enterDirectory(Path dir) {
+        depth++;
+        if (depth <= TRACKED_DEPTH) {
+            frames.push(new int[]{countEntries(dir), 0});
+        }
+    }
+
+    synchronized void exitDirectory() {
+        if (depth <= TRACKED_DEPTH) {
+            frames.pop();
+        }
+        depth--;
+        entryDone();
+    }
+
+    synchronized void fileDone() {
+        entryDone();
+    }
+
+    synchronized double walkedFraction() {
+        double fraction = 0.0;
+        double scale = 1.0;
+        Iterator<int[]> levels = frames.descendingIterator();
+        while (levels.hasNext()) {
+            int[] level = levels.next();
+            if (level[0] <= 0) {
+                break;
+            }
+            fraction += scale * Math.min(level[1], level[0]) / level[0];
+            scale /= level[0];
+        }
+        return Math.min(fraction, 1.0);
+    }
+
+    private void entryDone() {
+        if (depth <= TRACKED_DEPTH && !frames.isEmpty()) {
+            frames.peek()[1]++;
+        }
+    }
+
+    private static int countEntries(Path dir) {
+        int count = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path ignored : entries) {
+                count++;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+        return count;
+    }
+}
@@ -1,18 +1,37 @@
 package ui;
 
+import analysis.AICoverageReport;
+import analysis.AIStreamListener;
+import analysis.CircuitBreaker;
 import analysis.CommentAnalyzer;
 import analysis.CommentLocation;
+import analysis.DuplicateIndex;
+import analysis.GenerationResult;
+import analysis.HeaderIndex;
+import analysis.ScoredComment;
 import parser.CommentExtractor;
+import parser.CommentParser;
+import parser.CommentScanner;
+import parser.DirectoryWatcher;
+import parser.FingerprintIndex;
+import parser.JavaAstParser;
 import analysis.CodeQualityAnalyzer;
+import utils.Threads;
 
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Position;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -26,13 +45,31 @@ public class MainUI {
     private File currentDirectory;
     private final ExecutorService executorService;
     private final Map<String, List<CommentLocation>> allResults;
+    private volatile FingerprintIndex index;
+    private volatile File indexDirectory;
+    private volatile boolean indexAstMode;
+    private final JToggleButton watchButton;
+    private final JCheckBox astModeBox;
+    private DirectoryWatcher watcher;
+
+    // Running totals, only touched on the event dispatch thread
+    private final Map<String, List<ScoredComment>> scoredResults = new HashMap<>();
+    private int totalComments;
+    private double totalQuality;
+    private int summaryLength;
+    private volatile CommentExtractor.SkipStats skipStats;
+    private volatile DuplicateIndex duplicates;
+    private volatile HeaderIndex headers;
+    // Where each comment's streamed AI analysis continues, for the current run only
+    private final Map<String, Position> aiSections = new HashMap<>();
+    private int aiRun;
 
     private static final int BATCH_SIZE = 100;
     private static final int TEXT_BUFFER_LIMIT = 1000000;
 
     public MainUI() {
         analyzer = new CommentAnalyzer(); // Updated constructor call
-        executorService = Executors.newFixedThreadPool(6);
+        executorService = Threads.newFixedExecutor("ui-task", 6);
         allResults = new ConcurrentHashMap<>();
         
         frame = new JFrame("Multi-Language Comment Analyzer");
@@ -42,12 +79,18 @@ public class MainUI {
         JPanel buttonPanel = new JPanel();
         JButton selectButton = new JButton("Select Directory");
         JButton exportButton = new JButton("Export Report");
+        watchButton = new JToggleButton("Watch Changes");
+        astModeBox = new JCheckBox("Java AST Mode");
+        astModeBox.setToolTipText("Parse Java files into a syntax tree and classify comments by their declaration");
         
         selectButton.addActionListener(event -> selectDirectory());
         exportButton.addActionListener(event -> exportReport());
+        watchButton.addActionListener(event -> toggleWatch());
         
         buttonPanel.add(selectButton);
         buttonPanel.add(exportButton);
+        buttonPanel.add(watchButton);
+        buttonPanel.add(astModeBox);
         
         outputArea = new JTextArea();
         outputArea.setEditable(false);
@@ -81,7 +124,9 @@ public class MainUI {
     // Method for selecting directory to analyze
     private void selectDirectory() {
         JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        // Source archives such as -sources.jar files are analyzed in place
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Source directories and archives (zip, jar)", "zip", "jar"));
         
         if (fileChooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
             currentDirectory = fileChooser.getSelectedFile();
@@ -91,15 +136,35 @@ public class MainUI {
 
     // Method to start the analysis process
     private void startAnalysis(File directory) {
+        stopWatching();
         allResults.clear();
         outputArea.setText("Analysis in progress...\n");
         reportProgressBar.setValue(0);
         progressBar.setValue(0);
+        boolean astMode = astModeBox.isSelected();
         
         CompletableFuture.runAsync(() -> {
             try {
+                // Load the fingerprint index so unchanged files are not parsed again
+                if (index == null || !directory.equals(indexDirectory) || astMode != indexAstMode) {
+                    index = FingerprintIndex.open(directory, astMode ? "ast" : "");
+                    indexDirectory = directory;
+                    indexAstMode = astMode;
+                }
+
+                // Duplicates are grouped while files are extracted, so each cluster is scored once
+                DuplicateIndex runDuplicates = new DuplicateIndex();
+                duplicates = runDuplicates;
+                analyzer.setDuplicateIndex(runDuplicates);
+                HeaderIndex runHeaders = new HeaderIndex();
+                headers = runHeaders;
+                analyzer.setHeaderIndex(runHeaders);
+
                 // Create an extractor that auto-detects language
-                CommentExtractor extractor = new CommentExtractor("");
+                CommentExtractor extractor = new CommentExtractor("", parserFactory(astMode));
+                extractor.setIndex(index);
+                // So the skipped totals include what node_modules, target and the like hold
+                extractor.setMeasurePrunedDirectories(true);
                 extractor.setProgressListener((progress, status) -> {
                     SwingUtilities.invokeLater(() -> {
                         progressBar.setValue(progress);
@@ -110,11 +175,14 @@ public class MainUI {
                 extractor.setResultCallback((filePath, comments) -> {
                     if (!comments.isEmpty()) {
                         allResults.put(filePath, comments);
+                        runDuplicates.addFile(filePath, comments);
+                        runHeaders.addFile(filePath, comments);
                     }
                 });
                 
                 extractor.extractCommentsFromDirectory(directory);
-                generateAndDisplayReport();
+                skipStats = extractor.getSkipStats();
+                generateAndDisplayReport(directory.toPath());
                 
             } catch (IOException e) {
                 SwingUtilities.invokeLater(() -> {
@@ -127,51 +195,292 @@ public class MainUI {
         }, executorService);
     }
 
-    private void generateAndDisplayReport() {
+    private void generateAndDisplayReport(Path root) {
+        SwingUtilities.invokeLater(() -> statusLabel.setText("Generating basic report..."));
+
+        // Scored on this worker thread, in parallel, before the totals are built on the EDT
+        Map<String, List<CommentLocation>> results = new TreeMap<>(allResults);
+        Map<String, List<ScoredComment>> scored = scoreComments(results);
+        analyzer.setComments(root, results);
+
         SwingUtilities.invokeLater(() -> {
-            statusLabel.setText("Generating basic report...");
-            
             // First generate basic report
-            StringBuilder report = new StringBuilder();
-            report.append("Basic Analysis Report\n");
-            report.append("====================\n\n");
+            scoredResults.clear();
+            totalComments = 0;
+            totalQuality = 0;
             
-            int totalComments = 0;
-            double totalQuality = 0;
+            for (Map.Entry<String, List<CommentLocation>> entry : results.entrySet()) {
+                applyFileResult(entry.getKey(), entry.getValue(), scored.get(entry.getKey()));
+            }
+            saveIndex();
+            
+            String summary = buildSummary();
+            summaryLength = summary.length();
+            outputArea.setText(summary);
             
-            for (List<CommentLocation> comments : allResults.values()) {
-                for (CommentLocation comment : comments) {
-                    totalComments++;
-                    totalQuality += analyzer.getCommentQuality(
-                        comment.getContent(), "", false).getScore();
+            // Then start AI analysis, each analysis shown while it is generated
+            statusLabel.setText("Starting AI analysis...");
+            outputArea.append("\nAI Analysis Results\n");
+            outputArea.append("==================\n");
+            aiSections.clear();
+            int run = ++aiRun;
+            analyzer.startAIAnalysis(aiReport -> SwingUtilities.invokeLater(() -> {
+                if (run == aiRun) {
+                    showAIReport(aiReport);
+                    boolean backendDown = analyzer.getOllamaRouter().getCircuitBreaker().getState() != CircuitBreaker.State.CLOSED;
+                    statusLabel.setText(String.format("AI analysis in progress; %.0f%% answered from memory, %d results on disk%s",
+                        analyzer.getResultCache().getHitRate() * 100, analyzer.getResultStore().size(),
+                        backendDown ? "; Ollama unavailable, scoring by rules" : ""));
+                }
+            }), new AIStreamListener() {
+                @Override
+                public void onText(CommentLocation comment, String text) {
+                    SwingUtilities.invokeLater(() -> {
+                        if (run == aiRun) {
+                            appendAIText(comment.getFileName() + ":" + comment.getLineNumber(), text);
+                        }
+                    });
+                }
+
+                @Override
+                public void onComplete(CommentLocation comment, GenerationResult generation) {
+                    SwingUtilities.invokeLater(() -> {
+                        if (run == aiRun) {
+                            appendAIText(comment.getFileName() + ":" + comment.getLineNumber(),
+                                "\n[" + (generation != null ? generation : "no answer from the model, scored by rules") + "]");
+                        }
+                    });
+                }
+            }).thenAccept(coverage -> SwingUtilities.invokeLater(() -> {
+                if (run == aiRun) {
+                    outputArea.append("\n" + coverage.formatReport(10));
+                    statusLabel.setText("AI analysis complete: " + coverage);
                 }
+            }));
+        });
+    }
+
+    // Adds text to the end of a comment's AI section, starting the section if needed
+    private void appendAIText(String location, String text) {
+        Document document = outputArea.getDocument();
+        try {
+            Position section = aiSections.get(location);
+            if (section == null) {
+                document.insertString(document.getLength(), "\n" + location + "\n\n", null);
+                // Before the section's trailing newline, so later sections go after it
+                section = document.createPosition(document.getLength() - 1);
+                aiSections.put(location, section);
+            }
+            document.insertString(section.getOffset(), text, null);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Shows the results of a batch that were not streamed, such as ones found in the cache
+    private void showAIReport(Map<String, Object> aiReport) {
+        if (!(aiReport.get("aiAnalysis") instanceof Map<?, ?> report) || !(report.get("aiAnalysis") instanceof Map<?, ?> results)) {
+            return;
+        }
+        for (Map.Entry<?, ?> entry : results.entrySet()) {
+            String location = entry.getKey().toString();
+            if (!aiSections.containsKey(location)) {
+                appendAIText(location, entry.getValue().toString());
             }
+        }
+    }
+
+    private String buildSummary() {
+        StringBuilder report = new StringBuilder();
+        report.append("Basic Analysis Report\n");
+        report.append("====================\n\n");
+        report.append(String.format("""
+            Summary:
+            Total files with comments: %d
+            Total comments: %d
+            Average quality score: %.2f
             
-            report.append(String.format("""
-                Summary:
-                Total files with comments: %d
-                Total comments: %d
-                Average quality score: %.2f
-                
-                Base Directory: %s
-                
-                """, allResults.size(), totalComments,
-                totalComments > 0 ? totalQuality / totalComments : 0,
-                currentDirectory.getAbsolutePath()));
+            Skipped by ignore rules: %s
+            Duplicate comments: %s
+            File headers: %s
             
-            outputArea.setText(report.toString());
+            Base Directory: %s
             
-            // Then start AI analysis
-            statusLabel.setText("Starting AI analysis...");
-            analyzer.startAIAnalysis(aiReport -> {
-                SwingUtilities.invokeLater(() -> {
-                    outputArea.append("\nAI Analysis Results\n");
-                    outputArea.append("==================\n\n");
-                    outputArea.append("Language: " + aiReport.get("language") + "\n");
-                    outputArea.append(aiReport.get("aiAnalysis").toString() + "\n\n");
-                });
-            });
+            """, allResults.size(), totalComments,
+            totalComments > 0 ? totalQuality / totalComments : 0,
+            skipStats != null ? skipStats : "nothing",
+            duplicates != null ? duplicates.getStats() : "not indexed",
+            headers != null ? headers.getStats() : "not indexed",
+            currentDirectory.getAbsolutePath()));
+        return report.toString();
+    }
+
+    // Replaces a file's contribution to the running totals; empty comments remove the file
+    private void applyFileResult(String filePath, List<CommentLocation> comments, List<ScoredComment> scored) {
+        List<ScoredComment> previous = scoredResults.remove(filePath);
+        if (previous != null) {
+            totalComments -= previous.size();
+            for (ScoredComment comment : previous) {
+                totalQuality -= comment.getScore();
+            }
+        }
+
+        if (comments == null || comments.isEmpty()) {
+            allResults.remove(filePath);
+            return;
+        }
+        allResults.put(filePath, comments);
+        scoredResults.put(filePath, scored);
+        totalComments += scored.size();
+        for (ScoredComment comment : scored) {
+            totalQuality += comment.getScore();
+        }
+    }
+
+    private void toggleWatch() {
+        if (!watchButton.isSelected()) {
+            stopWatching();
+            statusLabel.setText("Stopped watching for changes");
+            return;
+        }
+        if (currentDirectory == null || index == null || !currentDirectory.equals(indexDirectory)) {
+            watchButton.setSelected(false);
+            JOptionPane.showMessageDialog(frame, "Analyze a directory before watching it");
+            return;
+        }
+        if (!currentDirectory.isDirectory()) {
+            watchButton.setSelected(false);
+            JOptionPane.showMessageDialog(frame, "Only directories can be watched, not archives");
+            return;
+        }
+
+        try {
+            watcher = new DirectoryWatcher(currentDirectory, index, this::onFilesChanged);
+            watcher.setParserFactory(parserFactory(indexAstMode));
+            watcher.start();
+            statusLabel.setText("Watching " + currentDirectory.getAbsolutePath() + " for changes");
+        } catch (IOException e) {
+            watcher = null;
+            watchButton.setSelected(false);
+            JOptionPane.showMessageDialog(frame, "Cannot watch directory: " + e.getMessage());
+        }
+    }
+
+    private void stopWatching() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("Error stopping directory watcher: " + e.getMessage());
+            }
+            watcher = null;
+        }
+        watchButton.setSelected(false);
+    }
+
+    // Called on the watcher thread; only the changed files are scored before the totals are patched
+    private void onFilesChanged(Map<String, List<CommentLocation>> updated, Set<String> removed, boolean fullRescan) {
+        Map<String, List<CommentLocation>> nonEmpty = new HashMap<>(updated);
+        nonEmpty.values().removeIf(List::isEmpty);
+        updateIndexes(updated, removed, fullRescan);
+        Map<String, List<ScoredComment>> updatedScores = scoreComments(nonEmpty);
+
+        SwingUtilities.invokeLater(() -> {
+            if (fullRescan) {
+                for (String filePath : new ArrayList<>(allResults.keySet())) {
+                    if (!updated.containsKey(filePath)) {
+                        applyFileResult(filePath, null, null);
+                    }
+                }
+            }
+            for (String filePath : removed) {
+                applyFileResult(filePath, null, null);
+            }
+            for (Map.Entry<String, List<CommentLocation>> entry : updated.entrySet()) {
+                applyFileResult(entry.getKey(), entry.getValue(), updatedScores.get(entry.getKey()));
+            }
+
+            String summary = buildSummary();
+            outputArea.replaceRange(summary, 0, Math.min(summaryLength, outputArea.getDocument().getLength()));
+            summaryLength = summary.length();
+            statusLabel.setText(String.format("Updated %d changed file(s) at %tT",
+                updated.size() + removed.size(), new Date()));
         });
+        saveIndex();
+    }
+
+    // Keeps the duplicate and header indexes in step with the watcher's changes
+    private void updateIndexes(Map<String, List<CommentLocation>> updated, Set<String> removed, boolean fullRescan) {
+        DuplicateIndex currentDuplicates = duplicates;
+        HeaderIndex currentHeaders = headers;
+        if (currentDuplicates == null || currentHeaders == null) {
+            return;
+        }
+        if (fullRescan) {
+            currentDuplicates.clear();
+            currentHeaders.clear();
+        }
+        for (String filePath : removed) {
+            currentDuplicates.removeFile(filePath);
+            currentHeaders.removeFile(filePath);
+        }
+        for (Map.Entry<String, List<CommentLocation>> entry : updated.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                currentDuplicates.removeFile(entry.getKey());
+                currentHeaders.removeFile(entry.getKey());
+            } else {
+                currentDuplicates.addFile(entry.getKey(), entry.getValue());
+                currentHeaders.addFile(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static Supplier<CommentParser> parserFactory(boolean astMode) {
+        return astMode ? JavaAstParser::new : CommentScanner::new;
+    }
+
+    // Quality results come from the fingerprint index for files unchanged since the last run;
+    // the others are scored in parallel. Returned in file path order.
+    private Map<String, List<ScoredComment>> scoreComments(Map<String, List<CommentLocation>> commentsByFile) {
+        FingerprintIndex currentIndex = index;
+        Map<String, List<ScoredComment>> scored = new TreeMap<>();
+        Map<String, List<CommentLocation>> unscored = new HashMap<>();
+        for (Map.Entry<String, List<CommentLocation>> entry : commentsByFile.entrySet()) {
+            List<CodeQualityAnalyzer.QualityAnalysisResult> cached =
+                currentIndex != null ? currentIndex.getQuality(entry.getKey()) : null;
+            List<CommentLocation> comments = entry.getValue();
+            if (cached != null && cached.size() == comments.size()) {
+                List<ScoredComment> fileScored = new ArrayList<>(comments.size());
+                for (int i = 0; i < comments.size(); i++) {
+                    fileScored.add(new ScoredComment(comments.get(i), cached.get(i)));
+                }
+                scored.put(entry.getKey(), fileScored);
+            } else {
+                unscored.put(entry.getKey(), comments);
+            }
+        }
+
+        for (Map.Entry<String, List<ScoredComment>> entry : analyzer.scoreComments(unscored).entrySet()) {
+            scored.put(entry.getKey(), entry.getValue());
+            if (currentIndex != null) {
+                currentIndex.putQuality(entry.getKey(), entry.getValue().stream().map(ScoredComment::getQuality).toList());
+            }
+        }
+        return scored;
+    }
+
+    private void saveIndex() {
+        FingerprintIndex currentIndex = index;
+        if (currentIndex == null) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                currentIndex.save();
+            } catch (IOException e) {
+                System.err.println("Error saving fingerprint index: " + e.getMessage());
+            }
+        }, executorService);
     }
 
     // Inner class for storing report statistics
@@ -199,31 +508,44 @@ public class MainUI {
         
         if (fileChooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
             statusLabel.setText("Exporting report...");
+            // Exports the scores already shown, without scoring anything again
+            String header = outputArea.getText().split("\\.\\.\\.")[0];
+            Map<String, List<ScoredComment>> results = new TreeMap<>(scoredResults);
+            DuplicateIndex currentDuplicates = duplicates;
+            HeaderIndex currentHeaders = headers;
             CompletableFuture.runAsync(() -> {
                 try (PrintWriter writer = new PrintWriter(fileChooser.getSelectedFile())) {
                     // Write header and summary
-                    writer.print(outputArea.getText().split("\\.\\.\\.")[0]);
-                    
-                    List<String> sortedPaths = new ArrayList<>(allResults.keySet());
-                    Collections.sort(sortedPaths);
+                    writer.print(header);
                     
-                    for (String filePath : sortedPaths) {
-                        List<CommentLocation> comments = allResults.get(filePath);
-                        if (comments == null || comments.isEmpty()) continue;
+                    for (Map.Entry<String, List<ScoredComment>> entry : results.entrySet()) {
+                        String filePath = entry.getKey();
+                        List<ScoredComment> comments = entry.getValue();
 
                         writer.println("File: " + filePath);
                         writer.println("Number of comments: " + comments.size() + "\n");
 
-                        for (CommentLocation comment : comments) {
-                            double quality = analyzer.getCommentQuality(
-                                comment.getContent(), "", false).getScore();
+                        for (ScoredComment scored : comments) {
                             writer.printf("Line %d: (Quality Score: %.2f)%n",
-                                comment.getLineNumber(),
-                                quality);
-                            writer.println(comment.getContent() + "\n");
+                                scored.getComment().getLineNumber(),
+                                scored.getScore());
+                            writer.println(scored.getComment().getContent() + "\n");
                         }
                         writer.println("-------------------\n");
                     }
+                    if (currentDuplicates != null) {
+                        writer.print(currentDuplicates.formatReport(20));
+                    }
+                    if (currentHeaders != null) {
+                        writer.print(currentHeaders.formatReport(10));
+                    }
+                    writer.println("AI results in memory: " + analyzer.getResultCache());
+                    writer.println("AI results on disk: " + analyzer.getResultStore());
+                    AICoverageReport coverage = analyzer.getLastCoverage();
+                    if (coverage != null) {
+                        writer.print(coverage.formatReport(50));
+                    }
+                    writer.print("\nOllama endpoints:\n" + analyzer.getOllamaRouter().formatStats());
                     
                     SwingUtilities.invokeLater(() -> {
                         statusLabel.setText("Report exported successfully");
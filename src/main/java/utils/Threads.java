@@ -0,0 +1,116 @@
+package utils;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * How the application runs its blocking work: on pools of platform threads sized up front,
+ * or on a virtual thread per task, with concurrency bounded by explicit limits instead of
+ * by the size of a pool.
+ *
+ * The mode is read from {@code -Dcommentanalyzer.threads}, {@code pooled} (the default) or
+ * {@code virtual}, and applies to the executors and threads created after it is set. In
+ * virtual mode at most {@code -Dcommentanalyzer.maxOpenFiles} files, by default
+ * {@link #DEFAULT_MAX_OPEN_FILES}, are read at once; the AI requests in flight are bounded
+ * by the permits of the Ollama client in either mode.
+ */
+public final class Threads {
+    public enum Mode { POOLED, VIRTUAL }
+
+    public static final String MODE_PROPERTY = "commentanalyzer.threads";
+    public static final String MAX_OPEN_FILES_PROPERTY = "commentanalyzer.maxOpenFiles";
+    public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+    private static volatile Mode mode = parseMode(System.getProperty(MODE_PROPERTY));
+
+    private Threads() {
+    }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+    // For components created from now on, e.g. to compare the modes in one process
+    public static void setMode(Mode newMode) {
+        mode = newMode;
+    }
+
+    public static boolean isVirtual() {
+        return mode == Mode.VIRTUAL;
+    }
+
+    public static int getMaxOpenFiles() {
+        return Math.max(1, Integer.getInteger(MAX_OPEN_FILES_PROPERTY, DEFAULT_MAX_OPEN_FILES));
+    }
+
+    // poolSize platform threads, or a virtual thread per task
+    public static ExecutorService newFixedExecutor(String name, int poolSize) {
+        return isVirtual() ? Executors.newThreadPerTaskExecutor(factory(name, true))
+            : Executors.newFixedThreadPool(poolSize, factory(name, false));
+    }
+
+    // Platform threads created as needed and kept for a minute when idle, or a virtual thread
+    // per task; daemon threads either way
+    public static ExecutorService newCachedExecutor(String name) {
+        return isVirtual() ? Executors.newThreadPerTaskExecutor(factory(name, true))
+            : Executors.newCachedThreadPool(factory(name, true));
+    }
+
+    // An unstarted thread for a long-running loop
+    public static Thread newThread(String name, boolean daemon, Runnable task) {
+        if (isVirtual()) {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(daemon);
+        return thread;
+    }
+
+    // Runs the action for every item and returns once all are done: on the common fork-join
+    // pool, or on a virtual thread each with at most maxOpenFiles running at once
+    public static <T> void forEachBlocking(Collection<T> items, Consumer<T> action) {
+        if (!isVirtual()) {
+            items.parallelStream().forEach(action);
+            return;
+        }
+        int limit = getMaxOpenFiles();
+        Semaphore running = new Semaphore(limit);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (T item : items) {
+                running.acquireUninterruptibly();
+                executor.execute(() -> {
+                    try {
+                        action.accept(item);
+                    } finally {
+                        running.release();
+                    }
+                });
+            }
+        }
+    }
+
+    // Threads named name-0, name-1 and so on; virtual threads are always daemons
+    private static ThreadFactory factory(String name, boolean daemon) {
+        if (mode == Mode.VIRTUAL) {
+            return Thread.ofVirtual().name(name + "-", 0).factory();
+        }
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    private static Mode parseMode(String value) {
+        if (value == null || value.isBlank()) {
+            return Mode.POOLED;
+        }
+        return Mode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,53 @@
+package analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import parser.JavaAstParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AIPriorityTest {
+
+    @Test
+    void astModeCommentsGoPublicApiFirst(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("Shapes.java");
+        Files.writeString(file, """
+            /** Shapes and what they cover. */
+            public class Shapes {
+                /** Logged on every draw. */
+                void draw() {
+                    log("public draw");
+                }
+
+                /** The area covered. */
+                public double area() {
+                    return 0;
+                }
+
+                /** Scales every point. */
+                private void scale() {
+                }
+
+                /** Something that can be drawn. */
+                interface Drawable {
+                    /** Draws onto the canvas. */
+                    void drawOn(Object canvas);
+                }
+            }
+            """);
+        List<CommentLocation> comments = new ArrayList<>(new JavaAstParser("java").extractCommentsWithLocations(file));
+        comments.sort(AIPriority.parse("public", null, _ -> 0));
+
+        List<Integer> lines = new ArrayList<>();
+        for (CommentLocation comment : comments) {
+            lines.add(comment.getLineNumber());
+        }
+        assertEquals(List.of(1, 8, 19, 3, 13, 17), lines);
+    }
+}
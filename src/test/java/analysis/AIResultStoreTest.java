@@ -0,0 +1,50 @@
+package analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AIResultStoreTest {
+    private static final AIResultStore.Key FIRST = AIResultStore.keyOf("// first", "model", 1);
+    private static final AIResultStore.Key SECOND = AIResultStore.keyOf("// second", "model", 1);
+
+    @Test
+    void aStoreOpenedWhileTheLogIsLockedKeepsItsResultsInMemory(@TempDir Path dir) {
+        Path logFile = dir.resolve("cache").resolve("ai-cache.log");
+        try (AIResultStore owner = AIResultStore.open(logFile, 1 << 20)) {
+            owner.put(FIRST, new AIAnalysisResult("owner", 0.5));
+            try (AIResultStore other = AIResultStore.open(logFile, 1 << 20)) {
+                assertNull(other.get(FIRST));
+                other.put(SECOND, new AIAnalysisResult("other", 0.5));
+                assertEquals("other", other.get(SECOND).analysis);
+            }
+            owner.put(SECOND, new AIAnalysisResult("owner", 0.7));
+        }
+        try (AIResultStore reopened = AIResultStore.open(logFile, 1 << 20)) {
+            assertEquals(2, reopened.size());
+            assertEquals("owner", reopened.get(SECOND).analysis);
+        }
+    }
+
+    @Test
+    void aMalformedSizeFallsBackToTheDefault() {
+        String previous = System.getProperty(AIResultStore.MAX_BYTES_PROPERTY);
+        try {
+            System.setProperty(AIResultStore.MAX_BYTES_PROPERTY, "64MB");
+            assertEquals(AIResultStore.DEFAULT_MAX_BYTES, AIResultStore.maxBytesFromSystemProperty());
+            System.setProperty(AIResultStore.MAX_BYTES_PROPERTY, "0");
+            assertEquals(AIResultStore.DEFAULT_MAX_BYTES, AIResultStore.maxBytesFromSystemProperty());
+            System.setProperty(AIResultStore.MAX_BYTES_PROPERTY, " 4096 ");
+            assertEquals(4096, AIResultStore.maxBytesFromSystemProperty());
+        } finally {
+            if (previous == null) {
+                System.clearProperty(AIResultStore.MAX_BYTES_PROPERTY);
+            } else {
+                System.setProperty(AIResultStore.MAX_BYTES_PROPERTY, previous);
+            }
+        }
+    }
+}
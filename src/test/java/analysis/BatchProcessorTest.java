@@ -0,0 +1,36 @@
+package analysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchProcessorTest {
+
+    @Test
+    void packedPromptsAreChargedOneRequestEach() throws Exception {
+        try (OllamaStubServer server = new OllamaStubServer(0)) {
+            BatchProcessor processor = new BatchProcessor(PromptPacker.MAX_PACK, 50, new OllamaClient(server.getBaseUrl()));
+            processor.setPackedPrompts(true);
+            List<CommentLocation> comments = new ArrayList<>();
+            for (int i = 1; i <= 40; i++) {
+                comments.add(new CommentLocation("Steps.java", i * 2, "// Step " + i + " of reading the input"));
+            }
+            try {
+                AICoverageReport coverage = processor.schedule(comments, Comparator.comparingInt(CommentLocation::getLineNumber),
+                    AIBudget.unlimited().withMaxRequests(2), _ -> { }, null).get();
+
+                assertEquals(2, coverage.getRequests());
+                assertEquals(2 * PromptPacker.MAX_PACK, coverage.getAnalyzed());
+                assertEquals(2, server.getServed());
+                assertEquals(AIBudget.Limit.REQUESTS, coverage.getStoppedBy());
+                assertEquals(40 - 2 * PromptPacker.MAX_PACK, coverage.getNotCovered().size());
+            } finally {
+                processor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package analysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void onlyTheTrialDecidesAfterTheOpenPeriod() {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ZERO);
+        CircuitBreaker.Permit early = breaker.tryAcquire();
+        CircuitBreaker.Permit late = breaker.tryAcquire();
+        breaker.recordFailure(early);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+        assertNotNull(trial);
+        assertNull(breaker.tryAcquire());
+        // A request from before the breaker opened ends while the trial runs
+        breaker.recordSuccess(late);
+        assertNull(breaker.tryAcquire());
+        assertEquals(1, breaker.getTimesOpened());
+
+        breaker.recordFailure(trial);
+        assertEquals(2, breaker.getTimesOpened());
+        trial = breaker.tryAcquire();
+        breaker.recordSuccess(trial);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void failuresFromBeforeTheBreakerOpenedDoNotReopenIt() {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ZERO);
+        CircuitBreaker.Permit early = breaker.tryAcquire();
+        CircuitBreaker.Permit late = breaker.tryAcquire();
+        breaker.recordFailure(early);
+        CircuitBreaker.Permit trial = breaker.tryAcquire();
+
+        breaker.recordFailure(late);
+        assertEquals(1, breaker.getTimesOpened());
+        breaker.recordSuccess(trial);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNotNull(breaker.tryAcquire());
+    }
+}
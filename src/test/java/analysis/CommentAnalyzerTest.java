@@ -0,0 +1,53 @@
+package analysis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommentAnalyzerTest {
+
+    @Test
+    void recentlyChangedFilesGoFirstEvenWithTheSameName(@TempDir Path dir) throws IOException {
+        Path older = write(dir.resolve("a").resolve("Util.java"), 1_000_000_000_000L);
+        Path newer = write(dir.resolve("b").resolve("Util.java"), 1_500_000_000_000L);
+        Map<String, List<CommentLocation>> commentsByFile = new TreeMap<>();
+        for (Path file : List.of(older, newer)) {
+            commentsByFile.put(dir.relativize(file).toString(),
+                List.of(new CommentLocation("Util.java", 1, "// Helpers shared by the module")));
+        }
+
+        String previous = System.getProperty(AIResultStore.FILE_PROPERTY);
+        System.setProperty(AIResultStore.FILE_PROPERTY, dir.resolve("ai-cache.log").toString());
+        CommentAnalyzer analyzer = new CommentAnalyzer();
+        try {
+            analyzer.setComments(dir, commentsByFile);
+            List<CommentLocation> comments = analyzer.commentsToAnalyze(new HashMap<>());
+            comments.sort(AIPriority.recentlyChangedFirst(analyzer::lastModified));
+
+            assertEquals(dir.relativize(newer).toString(), comments.get(0).getFileName());
+            assertEquals(dir.relativize(older).toString(), comments.get(1).getFileName());
+            assertEquals(1_000_000_000_000L, analyzer.lastModified(comments.get(1).getFileName()));
+        } finally {
+            analyzer.shutdown();
+            if (previous == null) {
+                System.clearProperty(AIResultStore.FILE_PROPERTY);
+            } else {
+                System.setProperty(AIResultStore.FILE_PROPERTY, previous);
+            }
+        }
+    }
+
+    private static Path write(Path file, long lastModified) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "// Helpers shared by the module\nclass Util {}\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+        return file;
+    }
+}
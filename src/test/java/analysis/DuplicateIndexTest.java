@@ -0,0 +1,56 @@
+package analysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateIndexTest {
+    private static final String TEXT = "// Returns the value of the field";
+
+    @Test
+    void removingTheRepresentativePromotesAMember() {
+        DuplicateIndex index = new DuplicateIndex();
+        index.addFile("A.java", List.of(new CommentLocation("A.java", 3, TEXT)));
+        index.addFile("B.java", List.of(new CommentLocation("B.java", 7, "/** Returns the value of the field. */")));
+        long key = index.fileClusters("B.java").getKey(0);
+
+        index.removeFile("A.java");
+        DuplicateIndex.FileClusters clusters = index.fileClusters("B.java");
+        assertEquals(key, clusters.getKey(0));
+        assertEquals("/** Returns the value of the field. */", clusters.getRepresentativeText(0));
+        index.addFile("C.java", List.of(new CommentLocation("C.java", 1, TEXT)));
+        List<DuplicateIndex.Cluster> duplicates = index.duplicateClusters(10);
+        assertEquals(1, duplicates.size());
+        assertEquals("B.java", duplicates.get(0).getRepresentativePath());
+        assertEquals(7, duplicates.get(0).getRepresentative().getLineNumber());
+    }
+
+    @Test
+    void readdingTheRepresentativeFileUsesTheNewComment() {
+        DuplicateIndex index = new DuplicateIndex();
+        index.addFile("A.java", List.of(new CommentLocation("A.java", 3, TEXT)));
+        index.addFile("B.java", List.of(new CommentLocation("B.java", 7, TEXT)));
+        index.addFile("A.java", List.of(new CommentLocation("A.java", 12, TEXT)));
+        DuplicateIndex.Cluster cluster = index.duplicateClusters(10).get(0);
+        assertEquals(2, cluster.getSize());
+        assertNotEquals(3, cluster.getRepresentative().getLineNumber());
+    }
+
+    @Test
+    void emptyClustersAreRetired() {
+        DuplicateIndex index = new DuplicateIndex(100, 0.8);
+        for (int round = 0; round < 500; round++) {
+            index.addFile("F.java", List.of(new CommentLocation("F.java", 1, "// round " + round + " only"),
+                new CommentLocation("F.java", 2, TEXT)));
+            index.addFile("G.java", List.of(new CommentLocation("G.java", 1, TEXT)));
+            DuplicateIndex.FileClusters clusters = index.fileClusters("F.java");
+            assertNotEquals(DuplicateIndex.NO_CLUSTER, clusters.getKey(0));
+            assertEquals(clusters.getKey(1), index.fileClusters("G.java").getKey(0));
+            index.removeFile("F.java");
+            index.removeFile("G.java");
+        }
+        assertEquals(0, index.getStats().getClusters());
+    }
+}
@@ -0,0 +1,130 @@
+package parser;
+
+import analysis.CommentContext;
+import analysis.CommentLocation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommentContextTest {
+    @TempDir
+    Path dir;
+
+    private List<CommentLocation> lex(String fileName, String source) throws IOException {
+        Path file = Files.writeString(dir.resolve(fileName), source);
+        return new CodeParser(LanguageConfig.detectLanguage(fileName, null)).extractCommentsWithLocations(file);
+    }
+
+    private static String describe(CommentContext context) {
+        return String.join(" | ", context.getPreviousCodeLine(), context.getNextCodeLine(), context.getPosition().name(),
+            "first=" + context.isFirstInFile(), "body=" + context.isInsideBody(), "trailing=" + context.isTrailingCode());
+    }
+
+    private static CommentContext contextOf(List<CommentLocation> comments, String content) {
+        return comments.stream().filter(c -> c.getContent().equals(content)).findFirst().orElseThrow().getContext();
+    }
+
+    @Test
+    void bracesInTextBlocksAreNotCounted() throws IOException {
+        List<CommentLocation> comments = lex("Blocks.java", """
+            class Blocks {
+                static final String JSON = \"""
+                    { "open": {
+                    \""";
+
+                // Between methods
+                void run() {
+                    // In the body
+                }
+            }
+            """);
+        CommentContext between = contextOf(comments, "// Between methods");
+        assertFalse(between.isInsideBody());
+        assertEquals(CommentContext.Position.AMONG_FIELDS, between.getPosition());
+        assertTrue(contextOf(comments, "// In the body").isInsideBody());
+    }
+
+    @Test
+    void bracesInTemplateLiteralsAreNotCounted() throws IOException {
+        List<CommentLocation> comments = lex("templates.js", """
+            class Page {
+                render() {
+                    return `<div>{{
+                        ${user.name}</div>`;
+                }
+
+                // Between methods
+                close() {
+                }
+            }
+            """);
+        assertFalse(contextOf(comments, "// Between methods").isInsideBody());
+    }
+
+    @Test
+    void keywordsInStringsAreNotDeclarations() throws IOException {
+        List<CommentLocation> comments = lex("Strings.java", """
+            // Header
+            String label = "class Fake {";
+
+            // After the field
+            """);
+        assertEquals(CommentContext.Position.BEFORE_TYPE, contextOf(comments, "// After the field").getPosition());
+    }
+
+    @Test
+    void linesOfMultiLineStringsAreNotDefinitions() throws IOException {
+        List<CommentLocation> comments = lex("strings.py", """
+            # Header
+            SQL = '''
+            def not_a_function():
+            '''
+
+            # After the string
+            """);
+        assertEquals(CommentContext.Position.BEFORE_TYPE, contextOf(comments, "# After the string").getPosition());
+    }
+
+    @Test
+    void astModeGivesTheLexerContexts() throws IOException {
+        Path file = Files.writeString(dir.resolve("Simple.java"), """
+            // Copyright
+            package demo;
+
+            import java.util.List;
+
+            /** A simple class, café included. */
+            public class Simple {
+                // The greeting
+                private static final String GREETING = "héllo {";
+
+                private int count; // how many
+
+                /**
+                 * Counts.
+                 */
+                @Deprecated
+                public int count() {
+                    // Just the field
+                    return count;
+                }
+            }
+            """);
+        List<CommentLocation> lexed = new CodeParser("java").extractCommentsWithLocations(file);
+        List<CommentLocation> parsed = new JavaAstParser("java").extractCommentsWithLocations(file);
+        assertEquals(lexed.size(), parsed.size());
+        for (int i = 0; i < lexed.size(); i++) {
+            assertNotNull(parsed.get(i).getDeclaration());
+            assertNotNull(parsed.get(i).getContext(), parsed.get(i).getContent());
+            assertEquals(describe(lexed.get(i).getContext()), describe(parsed.get(i).getContext()), lexed.get(i).getContent());
+        }
+        assertTrue(contextOf(parsed, "// Just the field").isInsideBody());
+        assertEquals("public int count() {", contextOf(parsed, "/**\n     * Counts.\n     */").getNextCodeLine());
+    }
+}
@@ -0,0 +1,61 @@
+package parser;
+
+import analysis.CommentLocation;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Every parser against the hand-written comment lists of the golden corpus
+class GoldenCorpusTest {
+    private static List<Path> goldenFiles() throws IOException, URISyntaxException {
+        Path dir = Path.of(GoldenCorpusTest.class.getResource("golden").toURI());
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> !file.toString().endsWith(ParserBenchmark.EXPECTED_SUFFIX)).sorted().toList();
+        }
+    }
+
+    private static void check(Supplier<CommentParser> parsers) throws Exception {
+        List<Path> files = goldenFiles();
+        assertFalse(files.isEmpty());
+        for (Path file : files) {
+            List<String> expected = ParserBenchmark.readExpected(file);
+            assertNotNull(expected, "No comment list for " + file);
+            CommentParser parser = parsers.get();
+            parser.setLanguage(LanguageConfig.detectLanguage(file.getFileName().toString(), null));
+            List<CommentLocation> comments = parser.extractCommentsWithLocations(file);
+            assertEquals(expected, ParserBenchmark.describe(comments), file.getFileName().toString());
+        }
+    }
+
+    @Test
+    void codeParser() throws Exception {
+        check(CodeParser::new);
+    }
+
+    @Test
+    void commentScanner() throws Exception {
+        check(CommentScanner::new);
+    }
+
+    @Test
+    void javaAstParser() throws Exception {
+        check(JavaAstParser::new);
+    }
+
+    @Test
+    void unknownLanguageHasNoComments() throws Exception {
+        File file = File.createTempFile("golden", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "// a\n/* b */\n# c\n");
+        assertEquals(List.of(), new CodeParser("cobol").extractCommentsWithLocations(file.toPath()));
+    }
+}
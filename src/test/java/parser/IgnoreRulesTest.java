@@ -0,0 +1,74 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IgnoreRulesTest {
+    private static final Path ROOT = Path.of("/repo");
+
+    @TempDir
+    Path tree;
+
+    private static boolean ignores(String pattern, String path) {
+        return new IgnoreRules(List.of(pattern), false).isIgnored(ROOT, ROOT.resolve(path), false);
+    }
+
+    @Test
+    void emptySetIsLiteral() {
+        assertTrue(ignores("[]", "[]"));
+        assertFalse(ignores("[]", "a"));
+    }
+
+    @Test
+    void reversedRangeMatchesNothing() {
+        assertFalse(ignores("[z-a]", "m"));
+        assertFalse(ignores("[z-a]", "z"));
+        assertTrue(ignores("[a-z]", "m"));
+    }
+
+    @Test
+    void posixClass() {
+        assertTrue(ignores("[[:alpha:]]", "q"));
+        assertFalse(ignores("[[:alpha:]]", "7"));
+        assertTrue(ignores("x[![:digit:]]", "xy"));
+        assertFalse(ignores("x[![:digit:]]", "x1"));
+    }
+
+    @Test
+    void regexOperatorsAreLiteral() {
+        assertTrue(ignores("[a&&b]", "&"));
+        assertTrue(ignores("[a&&b]", "b"));
+        assertFalse(ignores("[a&&b]", "c"));
+        assertTrue(ignores("[[]", "["));
+        assertTrue(ignores("[b^]", "^"));
+    }
+
+    @Test
+    void setNeverMatchesSlash() {
+        assertFalse(ignores("a[!x]b", "a/b"));
+        assertFalse(ignores("a[/]b", "a/b"));
+    }
+
+    @Test
+    void unusablePatternIsSkipped() {
+        IgnoreRules rules = new IgnoreRules(List.of("[[:nosuch:]]", "*.log"), false);
+        assertTrue(rules.isIgnored(ROOT, ROOT.resolve("x.log"), false));
+        assertFalse(rules.isIgnored(ROOT, ROOT.resolve("n"), false));
+    }
+
+    @Test
+    void badLineInNestedIgnoreFileKeepsTheOtherRules() throws IOException {
+        Path sub = Files.createDirectories(tree.resolve("sub"));
+        Files.writeString(sub.resolve(".gitignore"), "[[:nosuch:]]\n[z-a]\n*.tmp\n");
+        IgnoreRules rules = new IgnoreRules(List.of(), true);
+        assertTrue(rules.isIgnored(tree, sub.resolve("a.tmp"), false));
+        assertFalse(rules.isIgnored(tree, sub.resolve("a.java"), false));
+    }
+}
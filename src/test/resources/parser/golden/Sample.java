@@ -0,0 +1,25 @@
+package golden;
+
+/**
+ * A class with comments in the places a line-based scanner gets wrong.
+ */
+public class Sample {
+    private static final String URL = "http://example.com/*not a comment*/";
+    private static final char SLASH = '/';
+    private static final String BLOCK = """
+        // not a comment either
+        """;
+
+    // A field comment
+    private int count = 1; // trailing comment
+
+    /* one */ int a; /* two */
+
+    /**
+     * Counts.
+     * @return the count
+     */
+    public int count() {
+        return count / 2; // halves it
+    }
+}
@@ -0,0 +1,11 @@
+#include <stdio.h>
+
+/* Header comment
+   spanning two lines */
+int limit = 1000; // plain
+char quote = '"'; /* after a quote char */
+const char *path = "a//b";
+
+int main(void) {
+    return 0; // done
+}
@@ -0,0 +1,5 @@
+// Digit separators are not char literals
+long big = 1'000'000; // one million
+auto raw = R"x(/* not a comment */ // nor this)x";
+/* after the raw string */
+char c = 'x'; // a char
@@ -0,0 +1,5 @@
+// Regex literals may contain comment starts
+const re = /\/\/ not a comment/g;
+const half = total / 2; // division, then a comment
+const tpl = `/* inside a template */`;
+const cls = /[/*]/; /* after a class */
@@ -0,0 +1,8 @@
+<?php
+#[Attribute]
+class Sample {
+    # Hash comment
+    // Slash comment
+    /* Block */
+    public $s = "# not a comment";
+}
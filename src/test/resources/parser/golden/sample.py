@@ -0,0 +1,12 @@
+#!/usr/bin/env python
+"""Module docstring."""
+
+URL = "http://example.com/#anchor"
+
+
+def greet(name):
+    """Greets someone.
+
+    Returns nothing.
+    """
+    print('# not a comment')  # but this is
@@ -0,0 +1,5 @@
+# Ruby line comment
+=begin
+Block comment
+=end
+url = "http://example.com/#x" # trailing